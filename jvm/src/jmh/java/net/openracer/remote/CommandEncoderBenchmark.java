@@ -0,0 +1,103 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding one control frame per codec, against the string-based commands MainActivity sent
+ * before the codecs. The control state walks the whole axis range so nothing is constant-folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandEncoderBenchmark {
+
+	private final DaguCodec dagu = new DaguCodec();
+	private final RobotCodec robot = new RobotCodec();
+	private final ProtocolV2Codec v2 = new ProtocolV2Codec();
+	private final AsciiCommandEncoder ascii = new AsciiCommandEncoder(64);
+	private final byte[] out = new byte[ControlTransmitter.MAX_FRAME_LENGTH];
+	private int tick = 0;
+
+	private int throttle() {
+		tick++;
+		return (tick & 511) - 256;
+	}
+
+	private int steer() {
+		return 255 - ((tick * 7) & 511);
+	}
+
+	@Benchmark
+	public int dagu() {
+		return dagu.encode(throttle(), steer(), out, 0) + out[0];
+	}
+
+	@Benchmark
+	public int robot() {
+		return robot.encode(throttle(), steer(), out, 0) + out[1];
+	}
+
+	@Benchmark
+	public int protocolV2() {
+		return v2.encode(throttle(), steer(), out, 0) + out[5];
+	}
+
+	@Benchmark
+	public int asciiPidSetup() {
+		int value = throttle();
+		return ascii.reset().command('g').command('p', value).command('i', 0).command('d', 0).command('p', 1000).length();
+	}
+
+	@Benchmark
+	public int commandKey() {
+		return dagu.commandKey(throttle(), steer()) ^ v2.commandKey(throttle(), steer());
+	}
+
+	/**
+	 * The robot-style command as MainActivity built it before {@link RobotCodec}.
+	 */
+	@Benchmark
+	public int legacyRobotStrings() {
+		byte[] g = ("g" + steer() + "\n").getBytes();
+		byte[] h = ("h" + throttle() + "\n").getBytes();
+		return g.length + h.length;
+	}
+
+	/**
+	 * The Dagu command byte as MainActivity computed it before {@link DaguCodec}'s lookup table,
+	 * kept in {@link DaguCodecTest} as the reference the codec is checked against.
+	 */
+	@Benchmark
+	public int legacyDagu() {
+		return DaguCodecTest.legacyCommandByte(throttle(), steer());
+	}
+}
@@ -0,0 +1,194 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The receive path: framing a burst of telemetry lines, with and without parsing them, against
+ * the string-building loop the connection manager used before {@link LineFramer}. Scores are
+ * per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineFramerBenchmark {
+
+	static final int LINES = 256;
+
+	/**
+	 * Bytes handed over per read: a few for a Bluetooth serial link delivering small packets,
+	 * a buffer's worth for a backlog.
+	 */
+	@Param({ "20", "1024" })
+	int chunk;
+
+	private CyclingInputStream in;
+	private LineFramer framer;
+	private LegacyReceiver legacy;
+	private TelemetryParser parser;
+
+	/**
+	 * Replays the same bytes forever, a chunk per read, without allocating.
+	 */
+	static class CyclingInputStream extends InputStream {
+		private final byte[] data;
+		private final int chunk;
+		private int pos = 0;
+
+		CyclingInputStream(byte[] data, int chunk) {
+			this.data = data;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() {
+			int b = data[pos] & 0xff;
+			pos = (pos + 1) % data.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			int n = Math.min(Math.min(len, chunk), data.length - pos);
+			System.arraycopy(data, pos, b, off, n);
+			pos = (pos + n) % data.length;
+			return n;
+		}
+	}
+
+	/**
+	 * The receive loop before {@link LineFramer}: decode every read, rebuild the pending text,
+	 * and cut it with substring.
+	 */
+	static class LegacyReceiver {
+		private final byte[] buf = new byte[1024];
+		private StringBuilder b = new StringBuilder();
+
+		int readOnce(InputStream is, Blackhole blackhole) throws IOException {
+			int lines = 0;
+			int nread = is.read(buf, 0, 1024);
+			b.append(new String(buf, 0, nread));
+
+			String p = b.toString();
+			int sepIndex;
+			while ((sepIndex = p.indexOf('\n')) >= 0) {
+				blackhole.consume(p.substring(0, sepIndex));
+				p = p.substring(sepIndex + 1);
+				lines++;
+			}
+			b = new StringBuilder(p);
+			return lines;
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < LINES; i++) {
+			switch (i % 4) {
+			case 0: text.append("batt=").append(80 + i % 20); break;
+			case 1: text.append("pong=").append(i & 0xff); break;
+			case 2: text.append("ver=1.0"); break;
+			default: text.append("cap=proto2,batt,ping"); break;
+			}
+			text.append("\r\n");
+		}
+		in = new CyclingInputStream(text.toString().getBytes("UTF-8"), chunk);
+		framer = new LineFramer(1024);
+		legacy = new LegacyReceiver();
+		parser = new TelemetryParser();
+		parser.subscribe(new TelemetryParser.Subscriber() {
+			@Override
+			public void onTelemetry(TelemetryParser.Record record) {
+			}
+		});
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void framer(Blackhole blackhole) throws IOException {
+		int lines = 0;
+		while (lines < LINES) {
+			if (framer.nextLine()) {
+				blackhole.consume(framer.line().length());
+				lines++;
+			} else {
+				framer.fill(in);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void framerAndParser(Blackhole blackhole) throws IOException {
+		int lines = 0;
+		while (lines < LINES) {
+			if (framer.nextLine()) {
+				blackhole.consume(parser.parse(framer.line()));
+				lines++;
+			} else {
+				framer.fill(in);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void framerToString(Blackhole blackhole) throws IOException {
+		int lines = 0;
+		while (lines < LINES) {
+			if (framer.nextLine()) {
+				blackhole.consume(framer.line().toString());
+				lines++;
+			} else {
+				framer.fill(in);
+			}
+		}
+	}
+
+	/**
+	 * Approximately {@link #LINES} lines; a read's lines are not split across invocations.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void legacyStringBuilder(Blackhole blackhole) throws IOException {
+		int lines = 0;
+		while (lines < LINES) {
+			lines += legacy.readOnce(in, blackhole);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The send path through {@link BluetoothConnectionManager}: synchronous writes, which hold the
+ * socket lock through the stream and flush, against posting to the {@link ControlTransmitter},
+ * which only copies the frame. Runs over an in-memory pipe or loopback TCP, with a reader on the
+ * far end discarding everything, and optionally through the {@link SessionLog} tap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WritePathBenchmark {
+
+	@Param({ "pipe", "tcp" })
+	String transport;
+
+	@Param({ "false", "true" })
+	boolean sessionLog;
+
+	private final ProtocolV2Codec codec = new ProtocolV2Codec();
+	private final byte[] frame = new byte[ProtocolV2.FRAME_LENGTH];
+	private int tick = 0;
+
+	private BluetoothConnectionManager manager;
+	private ServerSocket server;
+	private SessionLog log;
+	private File logDirectory;
+
+	@Setup
+	public void setUp() throws Exception {
+		Transport local;
+		if ("pipe".equals(transport)) {
+			PipeTransport.Pair pair = PipeTransport.pair(64 * 1024);
+			pair.remote.connect();
+			drain(pair.remote.getInputStream());
+			local = pair.local;
+		} else {
+			server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			final ServerSocket s = server;
+			Thread acceptor = new Thread("bench-accept") {
+				@Override
+				public void run() {
+					try {
+						Socket socket = s.accept();
+						drain(socket.getInputStream());
+					} catch (IOException e) {
+						// closed in tear down
+					}
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+			local = new TcpTransport(server.getInetAddress().getHostAddress(), server.getLocalPort());
+		}
+
+		final CountDownLatch connected = new CountDownLatch(1);
+		manager = new BluetoothConnectionManager(local, new BluetoothConnectionManager.Listener() {
+			@Override
+			public void onMessage(LineFramer.Line line) {
+			}
+
+			@Override
+			public void onConnected(BluetoothConnectionManager manager) {
+				connected.countDown();
+			}
+
+			@Override
+			public void onDisconnected(String exitReason) {
+			}
+		});
+		if (sessionLog) {
+			logDirectory = File.createTempFile("openracer-bench", "");
+			logDirectory.delete();
+			log = new SessionLog(logDirectory, 256 * 1024, 4);
+			manager.setSessionLog(log);
+		}
+		manager.start();
+		if (!connected.await(5, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("not connected over " + transport);
+		}
+	}
+
+	private static void drain(final InputStream in) {
+		Thread t = new Thread("bench-drain") {
+			@Override
+			public void run() {
+				byte[] buf = new byte[4096];
+				try {
+					while (in.read(buf, 0, buf.length) >= 0) {
+					}
+				} catch (IOException e) {
+					// closed in tear down
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		manager.disconnect();
+		manager.join(5000);
+		if (server != null) {
+			server.close();
+		}
+		if (log != null) {
+			log.close();
+			File[] files = logDirectory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			logDirectory.delete();
+		}
+	}
+
+	private int encode() {
+		tick++;
+		return codec.encode((tick & 511) - 256, 0, frame, 0);
+	}
+
+	@Benchmark
+	public void writeFrame() throws IOException {
+		manager.write(frame, 0, encode());
+	}
+
+	@Benchmark
+	public void postControl() {
+		manager.postControl(0, frame, 0, encode());
+	}
+
+	@Benchmark
+	public void postStop() {
+		manager.postStop(frame, 0, encode(), LatencyTracer.NO_INPUT);
+	}
+}
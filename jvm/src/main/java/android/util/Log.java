@@ -0,0 +1,86 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package android.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stands in for the Android logger when the core classes run on a plain JVM, forwarding to
+ * {@link java.util.logging}. Only the calls the core classes make are provided.
+ */
+public final class Log {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return log(Level.FINER, tag, msg, null);
+	}
+
+	public static int d(String tag, String msg) {
+		return log(Level.FINE, tag, msg, null);
+	}
+
+	public static int d(String tag, String msg, Throwable tr) {
+		return log(Level.FINE, tag, msg, tr);
+	}
+
+	public static int i(String tag, String msg) {
+		return log(Level.INFO, tag, msg, null);
+	}
+
+	public static int i(String tag, String msg, Throwable tr) {
+		return log(Level.INFO, tag, msg, tr);
+	}
+
+	public static int w(String tag, String msg) {
+		return log(Level.WARNING, tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return log(Level.WARNING, tag, msg, tr);
+	}
+
+	public static int w(String tag, Throwable tr) {
+		return log(Level.WARNING, tag, "", tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return log(Level.SEVERE, tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return log(Level.SEVERE, tag, msg, tr);
+	}
+
+	private static int log(Level level, String tag, String msg, Throwable tr) {
+		Logger logger = Logger.getLogger(tag);
+		if (tr == null) {
+			logger.log(level, msg);
+		} else {
+			logger.log(level, msg, tr);
+		}
+		return msg.length();
+	}
+}
@@ -0,0 +1,93 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class AsciiCommandEncoderTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	static String command(char letter, int value) {
+		byte[] out = new byte[AsciiCommandEncoder.MAX_COMMAND_LENGTH + 2];
+		int length = AsciiCommandEncoder.writeCommand(letter, value, out, 1);
+		return new String(out, 1, length, ASCII);
+	}
+
+	@Test
+	public void writesLikeStringConcatenation() {
+		int[] values = { 0, 1, -1, 9, 10, -10, 99, 100, 255, -256, 1000, 123456789,
+				Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1 };
+		for (int value : values) {
+			assertEquals("h" + value + "\n", command('h', value));
+		}
+		for (int value = -1100; value <= 1100; value++) {
+			assertEquals("g" + value + "\n", command('g', value));
+		}
+	}
+
+	@Test
+	public void longestCommandFits() {
+		assertEquals(AsciiCommandEncoder.MAX_COMMAND_LENGTH, command('p', Integer.MIN_VALUE).length());
+	}
+
+	@Test
+	public void chainsCommands() {
+		AsciiCommandEncoder encoder = new AsciiCommandEncoder(64);
+		encoder.reset().command('g').command('p').command('i').command('d').command('p', 200);
+		assertEquals("g\np\ni\nd\np200\n", new String(encoder.buffer(), 0, encoder.length(), ASCII));
+
+		encoder.reset().command('g', 0).command('p', 1000);
+		assertEquals("g0\np1000\n", new String(encoder.buffer(), 0, encoder.length(), ASCII));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsCommandThatMayNotFit() {
+		new AsciiCommandEncoder(AsciiCommandEncoder.MAX_COMMAND_LENGTH - 1).command('p', 0);
+	}
+
+	@Test
+	public void robotCodecClampsAndOrdersSteerFirst() {
+		RobotCodec codec = new RobotCodec();
+		byte[] out = new byte[codec.maxFrameLength()];
+		int length = codec.encode(300, -300, out, 0);
+		assertEquals("g-256\nh255\n", new String(out, 0, length, ASCII));
+
+		length = codec.encode(-256, -256, out, 0);
+		assertEquals(codec.maxFrameLength(), length);
+		assertEquals("g-256\nh-256\n", new String(out, 0, length, ASCII));
+	}
+
+	@Test
+	public void robotCommandKeyIsEqualExactlyWhenBytesAre() {
+		RobotCodec codec = new RobotCodec();
+		assertEquals(codec.commandKey(255, -256), codec.commandKey(400, -400));
+		for (int throttle = -300; throttle <= 300; throttle += 7) {
+			for (int steer = -300; steer <= 300; steer += 5) {
+				byte[] a = new byte[codec.maxFrameLength()];
+				byte[] b = new byte[codec.maxFrameLength()];
+				String first = new String(a, 0, codec.encode(throttle, steer, a, 0), ASCII);
+				String second = new String(b, 0, codec.encode(throttle + 1, steer, b, 0), ASCII);
+				assertEquals(first.equals(second), codec.commandKey(throttle, steer) == codec.commandKey(throttle + 1, steer));
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AxisFiltersTest {
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(20);
+
+	@Test
+	public void deadZoneRescalesToFullRange() {
+		AxisFilter filter = new AxisFilters.DeadZone(16);
+		assertEquals(0, filter.filter(0, 0));
+		assertEquals(0, filter.filter(16, 0));
+		assertEquals(0, filter.filter(-16, 0));
+		assertEquals(1, filter.filter(17, 0));
+		assertEquals(-1, filter.filter(-17, 0));
+		assertEquals(VehicleCodec.AXIS_MAX, filter.filter(VehicleCodec.AXIS_MAX, 0));
+		assertEquals(VehicleCodec.AXIS_MIN, filter.filter(VehicleCodec.AXIS_MIN, 0));
+		for (int value = -256; value < 255; value++) {
+			assertTrue(filter.filter(value + 1, 0) >= filter.filter(value, 0));
+		}
+	}
+
+	@Test
+	public void slewLimitRampsUpButStopsAtOnce() {
+		AxisFilter filter = new AxisFilters.SlewRateLimit(2048); // about 41 units per tick
+		long now = 0;
+		assertEquals(0, filter.filter(0, now));
+		int previous = 0;
+		for (int i = 0; i < 5; i++) {
+			int value = filter.filter(255, now += TICK);
+			assertEquals(Math.min(255, previous + 40), value);
+			previous = value;
+		}
+		assertEquals(100, filter.filter(100, now += TICK)); // easing off is immediate
+		assertEquals(0, filter.filter(0, now += TICK));
+		assertEquals(-40, filter.filter(-255, now += TICK)); // reversing ramps from standstill
+	}
+
+	@Test
+	public void slewLimitCrossingZeroStopsFirst() {
+		AxisFilter filter = new AxisFilters.SlewRateLimit(2048);
+		long now = 0;
+		filter.filter(0, now);
+		for (int i = 0; i < 10; i++) {
+			filter.filter(255, now += TICK);
+		}
+		assertEquals(-40, filter.filter(-255, now += TICK));
+	}
+
+	@Test
+	public void smoothingSettlesExactly() {
+		AxisFilter filter = new AxisFilters.Smoothing(30);
+		long now = 0;
+		assertEquals(0, filter.filter(0, now));
+		int first = filter.filter(200, now += TICK);
+		assertTrue(first > 0 && first < 200);
+		int value = first;
+		for (int i = 0; i < 50; i++) {
+			int next = filter.filter(200, now += TICK);
+			assertTrue(next >= value);
+			value = next;
+		}
+		assertEquals(200, value);
+		filter.reset();
+		assertEquals(-50, filter.filter(-50, now += TICK)); // primes to the input
+	}
+
+	@Test
+	public void chainAppliesInOrderAndResetsAll() {
+		AxisFilter filter = AxisFilters.chain(new AxisFilters.DeadZone(16), new AxisFilters.SlewRateLimit(2048));
+		long now = 0;
+		assertEquals(0, filter.filter(10, now));
+		assertEquals(40, filter.filter(255, now += TICK));
+		filter.reset();
+		assertEquals(1, filter.filter(255, now += TICK)); // primed again from standstill, no time elapsed
+	}
+}
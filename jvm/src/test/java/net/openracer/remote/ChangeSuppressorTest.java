@@ -0,0 +1,71 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ChangeSuppressorTest {
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(20);
+	private static final long REFRESH = TimeUnit.MILLISECONDS.toNanos(250);
+
+	@Test
+	public void suppressesSameDaguCommandUntilRefresh() {
+		ChangeSuppressor suppressor = new ChangeSuppressor(REFRESH);
+		VehicleCodec codec = new DaguCodec();
+		assertTrue(suppressor.shouldSend(codec, 100, 0, 0));
+		// 96..111 is the same speed step
+		assertFalse(suppressor.shouldSend(codec, 101, 0, TICK));
+		assertFalse(suppressor.shouldSend(codec, 110, 50, 2 * TICK));
+		assertTrue(suppressor.shouldSend(codec, 100, 0, REFRESH));
+		assertTrue(suppressor.shouldSend(codec, 120, 0, REFRESH + TICK));
+		assertEquals(3, suppressor.getSentCount());
+		assertEquals(2, suppressor.getSuppressedCount());
+	}
+
+	@Test
+	public void ignoresSequenceNumbers() {
+		ChangeSuppressor suppressor = new ChangeSuppressor(REFRESH);
+		VehicleCodec codec = new ProtocolV2Codec();
+		int sent = 0;
+		for (int i = 0; i < 50; i++) {
+			if (suppressor.shouldSend(codec, 100, 0, i * TICK)) {
+				sent++;
+			}
+		}
+		assertEquals(4, sent); // at 0, 260, 520 and 780ms
+	}
+
+	@Test
+	public void codecChangeOrResetForcesSend() {
+		ChangeSuppressor suppressor = new ChangeSuppressor(REFRESH);
+		assertTrue(suppressor.shouldSend(new RobotCodec(), 0, 0, 0));
+		assertTrue(suppressor.shouldSend(new RobotCodec(), 0, 0, TICK));
+		suppressor.reset();
+		VehicleCodec codec = new RobotCodec();
+		assertTrue(suppressor.shouldSend(codec, 0, 0, 2 * TICK));
+		assertFalse(suppressor.shouldSend(codec, 0, 0, 3 * TICK));
+		suppressor.reset();
+		assertTrue(suppressor.shouldSend(codec, 0, 0, 4 * TICK));
+	}
+}
@@ -0,0 +1,268 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionEngineTest {
+
+	private static final int FRAME = 4;
+
+	private final List<String> reasons = new ArrayList<String>();
+	private final List<String> lines = new ArrayList<String>();
+	private volatile CountDownLatch connected = new CountDownLatch(0);
+	private volatile CountDownLatch disconnected = new CountDownLatch(0);
+	private ConnectionEngine engine;
+
+	private final ConnectionEngine.Listener listener = new ConnectionEngine.Listener() {
+		@Override
+		public void onConnected(ConnectionEngine.Link link) {
+			connected.countDown();
+		}
+
+		@Override
+		public void onMessage(ConnectionEngine.Link link, LineFramer.Line line) {
+			synchronized (lines) {
+				lines.add(line.toString());
+			}
+		}
+
+		@Override
+		public void onDisconnected(ConnectionEngine.Link link, String reason) {
+			synchronized (reasons) {
+				reasons.add(link.getName() + ": " + reason);
+			}
+			disconnected.countDown();
+		}
+	};
+
+	@After
+	public void tearDown() {
+		if (engine != null) {
+			engine.shutdown();
+		}
+	}
+
+	// reads and counts everything arriving at the far end of a pipe
+	private static AtomicLong drain(final InputStream in) {
+		final AtomicLong received = new AtomicLong();
+		Thread reader = new Thread("drain") {
+			@Override
+			public void run() {
+				byte[] buf = new byte[256];
+				try {
+					int n;
+					while ((n = in.read(buf, 0, buf.length)) >= 0) {
+						received.addAndGet(n);
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		return received;
+	}
+
+	@Test(timeout = 20000)
+	public void stalledLinkDoesNotSlowTheOthers() throws Exception {
+		final int links = 12;
+		final int frames = 100;
+		engine = new ConnectionEngine(2, 5, 60000, listener);
+		connected = new CountDownLatch(links);
+		disconnected = new CountDownLatch(links);
+		ConnectionEngine.Group group = engine.newGroup();
+
+		// the first link's far end is never read, so its second write blocks
+		PipeTransport.Pair stalledPair = PipeTransport.pair(FRAME);
+		ConnectionEngine.Link stalled = engine.add("stalled", stalledPair.local);
+		group.add(stalled);
+		AtomicLong[] received = new AtomicLong[links];
+		ConnectionEngine.Link[] healthy = new ConnectionEngine.Link[links];
+		for (int i = 1; i < links; i++) {
+			PipeTransport.Pair pair = PipeTransport.pair(1024);
+			received[i] = drain(pair.remote.getInputStream());
+			healthy[i] = engine.add("car-" + i, pair.local);
+			group.add(healthy[i]);
+		}
+		engine.start();
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+		byte[] frame = new byte[FRAME];
+		long start = System.nanoTime();
+		for (int n = 0; n < frames; n++) {
+			frame[0] = (byte) n;
+			group.postControl(frame, 0, FRAME);
+			Thread.sleep(5); // 200 Hz, four times the session's control rate
+		}
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Thread.sleep(50);
+
+		assertTrue(stalled.isConnected());
+		assertEquals(1, stalled.getWriteCount()); // the second is still blocked
+		for (int i = 1; i < links; i++) {
+			long sent = received[i].get() / FRAME;
+			assertTrue(healthy[i].getName() + " sent " + sent + " of " + frames + " frames in " + elapsedMs + "ms",
+					sent >= frames * 9 / 10);
+		}
+
+		// closing unblocks the stalled write
+		engine.shutdown();
+		assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		assertEquals(links, reasons.size());
+	}
+
+	@Test(timeout = 10000)
+	public void stalledWriteClosesItsLinkAndFreesTheThread() throws Exception {
+		engine = new ConnectionEngine(1, 5, 100, listener);
+		connected = new CountDownLatch(1);
+		disconnected = new CountDownLatch(1);
+		PipeTransport.Pair stalledPair = PipeTransport.pair(FRAME);
+		ConnectionEngine.Link stalled = engine.add("stalled", stalledPair.local);
+		engine.start();
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+		byte[] frame = new byte[FRAME];
+		stalled.postControl(frame, 0, FRAME);
+		stalled.send(frame, 0, FRAME); // blocks the only I/O thread
+		assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		assertTrue(reasons.get(0), reasons.get(0).contains("write stalled"));
+		assertFalse(stalled.isConnected());
+
+		// the one I/O thread is back in service
+		connected = new CountDownLatch(1);
+		PipeTransport.Pair pair = PipeTransport.pair(1024);
+		AtomicLong received = drain(pair.remote.getInputStream());
+		ConnectionEngine.Link link = engine.add("car", pair.local);
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+		link.postControl(frame, 0, FRAME);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.get() < FRAME) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void receivesLinesAndStopsAheadOfControl() throws Exception {
+		engine = new ConnectionEngine(1, 5, 1000, listener);
+		connected = new CountDownLatch(1);
+		PipeTransport.Pair pair = PipeTransport.pair(FRAME);
+		pair.remote.connect();
+		ConnectionEngine.Link link = engine.add("car", pair.local);
+		engine.start();
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+		OutputStream remote = pair.remote.getOutputStream();
+		remote.write("batt=7\r\n".getBytes("US-ASCII"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (link.getLinesReceived() < 1) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		synchronized (lines) {
+			assertEquals("batt=7", lines.get(0).trim());
+		}
+
+		// fill the pipe, then hold the I/O thread in a write so the posts below are taken together
+		link.send(new byte[] { 9, 9, 9, 9 }, 0, FRAME);
+		link.send(new byte[] { 8, 8, 8, 8 }, 0, FRAME);
+		Thread.sleep(50);
+		link.postControl(new byte[] { 1 }, 0, 1);
+		link.postStop(new byte[] { 0 }, 0, 1);
+		link.send(new byte[] { 2 }, 0, 1);
+		link.closeWhenSent();
+
+		InputStream in = pair.remote.getInputStream();
+		byte[] buf = new byte[16];
+		int total = 0;
+		int n;
+		while ((n = in.read(buf, total, buf.length - total)) >= 0) {
+			total += n;
+		}
+		assertEquals(2 * FRAME + 2, total); // then end of stream, once everything was sent
+		assertEquals(8, buf[FRAME]);
+		assertEquals(0, buf[2 * FRAME]); // the stop, with the control frame it replaced dropped
+		assertEquals(2, buf[2 * FRAME + 1]);
+		assertEquals(1, link.getControlSuperseded());
+	}
+
+	@Test(timeout = 10000)
+	public void shutdownEndsLinksStillConnecting() throws Exception {
+		engine = new ConnectionEngine(1, 5, 1000, listener);
+		disconnected = new CountDownLatch(3);
+		for (int i = 0; i < 3; i++) {
+			engine.add("car-" + i, new NeverConnects()); // one connecting, two waiting behind it
+		}
+		engine.start();
+		Thread.sleep(50);
+		engine.shutdown();
+		assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		assertEquals(3, reasons.size());
+		assertTrue(engine.getLinks().isEmpty());
+	}
+
+	// connect() blocks until closed, as an RFCOMM connect to a car out of range does for a while
+	private static class NeverConnects implements Transport {
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public void connect() throws IOException {
+			try {
+				closed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new IOException("closed");
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isConnected() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ControlSchedulerTest {
+
+	@Test
+	public void tickNowFiresWithoutWaitingOutThePeriod() throws InterruptedException {
+		final Semaphore ticks = new Semaphore(0);
+		ControlScheduler scheduler = new ControlScheduler(1, new ControlScheduler.Tick() {
+			@Override
+			public void onTick(long nowNanos) {
+				ticks.release();
+			}
+		});
+		scheduler.start();
+		try {
+			Thread.sleep(50); // parked until the first deadline, a second away
+			long start = System.nanoTime();
+			scheduler.tickNow();
+			assertTrue(ticks.tryAcquire(500, TimeUnit.MILLISECONDS));
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+			assertEquals(1, scheduler.getExtraTickCount());
+			assertEquals(0, scheduler.getTickCount());
+
+			// the regular tick still comes on schedule
+			assertTrue(ticks.tryAcquire(2, TimeUnit.SECONDS));
+			assertEquals(1, scheduler.getTickCount());
+		} finally {
+			scheduler.shutdown();
+			scheduler.join(1000);
+		}
+	}
+
+	@Test
+	public void noTickRunsAfterShutdownReturns() throws InterruptedException {
+		final Semaphore inTick = new Semaphore(0);
+		final AtomicBoolean shutdownReturned = new AtomicBoolean();
+		final AtomicBoolean lateTick = new AtomicBoolean();
+		ControlScheduler scheduler = new ControlScheduler(1000, new ControlScheduler.Tick() {
+			@Override
+			public void onTick(long nowNanos) {
+				if (shutdownReturned.get()) {
+					lateTick.set(true);
+				}
+				inTick.release();
+				try {
+					Thread.sleep(20); // a slow tick still in progress when shutdown is called
+				} catch (InterruptedException e) {
+					// the interrupt from shutdown; finish the tick anyway
+				}
+				if (shutdownReturned.get()) {
+					lateTick.set(true);
+				}
+			}
+		});
+		scheduler.start();
+		assertTrue(inTick.tryAcquire(1, TimeUnit.SECONDS));
+		scheduler.shutdown();
+		shutdownReturned.set(true);
+		assertFalse(scheduler.isAlive());
+		Thread.sleep(50);
+		assertFalse(lateTick.get());
+	}
+}
@@ -0,0 +1,136 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ControlStateTest {
+
+	private final ControlState control = new ControlState();
+
+	@Test
+	public void packsSignedAxesAndMode() {
+		long snapshot = ControlState.pack(-256, 255, ControlState.Mode.Stop, 7);
+		assertEquals(-256, ControlState.throttle(snapshot));
+		assertEquals(255, ControlState.steer(snapshot));
+		assertEquals(ControlState.Mode.Stop, ControlState.mode(snapshot));
+		assertEquals(7, ControlState.stopSequence(snapshot));
+
+		snapshot = ControlState.pack(100000, -100000, ControlState.Mode.Drive, 0);
+		assertEquals(Short.MAX_VALUE, ControlState.throttle(snapshot));
+		assertEquals(Short.MIN_VALUE, ControlState.steer(snapshot));
+	}
+
+	@Test
+	public void axisUpdatesKeepTheOtherAxis() {
+		control.setThrottle(-40);
+		control.setSteer(12);
+		long snapshot = control.get();
+		assertEquals(-40, ControlState.throttle(snapshot));
+		assertEquals(12, ControlState.steer(snapshot));
+		assertEquals(ControlState.Mode.Drive, ControlState.mode(snapshot));
+	}
+
+	@Test
+	public void stopCentresAndCountsUntilNextInput() {
+		control.set(200, -100);
+		control.stop();
+		control.stop();
+		long snapshot = control.get();
+		assertEquals(0, ControlState.throttle(snapshot));
+		assertEquals(0, ControlState.steer(snapshot));
+		assertEquals(ControlState.Mode.Stop, ControlState.mode(snapshot));
+		assertEquals(2, ControlState.stopSequence(snapshot));
+
+		control.setSteer(5);
+		snapshot = control.get();
+		assertEquals(ControlState.Mode.Drive, ControlState.mode(snapshot));
+		assertEquals(2, ControlState.stopSequence(snapshot));
+	}
+
+	@Test
+	public void stopSequenceWraps() {
+		long snapshot = ControlState.pack(0, 0, ControlState.Mode.Stop, 0xffffff + 1);
+		assertEquals(0, ControlState.stopSequence(snapshot));
+		assertEquals(0, ControlState.throttle(snapshot));
+	}
+
+	@Test
+	public void readersNeverSeeHalfAnUpdate() throws InterruptedException {
+		final AtomicReference<String> torn = new AtomicReference<String>();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 200000; i++) {
+					int value = (i % 511) - 255;
+					control.set(value, -value);
+					if (i % 1000 == 0) {
+						control.stop();
+					}
+				}
+			}
+		};
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 200000; i++) {
+					long snapshot = control.get();
+					if (ControlState.steer(snapshot) != -ControlState.throttle(snapshot)) {
+						torn.compareAndSet(null, Long.toHexString(snapshot));
+					}
+				}
+			}
+		};
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+		assertNull(torn.get());
+	}
+
+	@Test
+	public void concurrentAxisWritersDoNotLoseUpdates() throws InterruptedException {
+		Thread throttleWriter = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i <= 100000; i++) {
+					control.setThrottle(i % 256);
+				}
+			}
+		};
+		Thread steerWriter = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i <= 100000; i++) {
+					control.setSteer(-(i % 256));
+				}
+			}
+		};
+		throttleWriter.start();
+		steerWriter.start();
+		throttleWriter.join();
+		steerWriter.join();
+		long snapshot = control.get();
+		assertEquals(100000 % 256, ControlState.throttle(snapshot));
+		assertEquals(-(100000 % 256), ControlState.steer(snapshot));
+	}
+}
@@ -0,0 +1,147 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ControlTransmitterTest {
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final Object writeLock = new Object();
+	private ControlTransmitter transmitter = new ControlTransmitter(out, writeLock, null);
+
+	@After
+	public void tearDown() throws InterruptedException {
+		transmitter.shutdown();
+		transmitter.join(1000);
+	}
+
+	private void awaitWrites(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (transmitter.getWriteCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(count, transmitter.getWriteCount());
+	}
+
+	@Test
+	public void keepsOnlyLatestFramePerChannel() throws InterruptedException {
+		transmitter.post(0, new byte[] { 1, 1 }, 0, 2);
+		transmitter.post(0, new byte[] { 2, 2, 2 }, 0, 3);
+		transmitter.post(1, 9);
+		transmitter.post(0, new byte[] { 0, 3, 3 }, 1, 2);
+		transmitter.start();
+		awaitWrites(1);
+
+		// one write, channels in order, the superseded frames never sent
+		assertArrayEquals(new byte[] { 3, 3, 9 }, out.toByteArray());
+		assertEquals(4, transmitter.getPostedCount());
+		assertEquals(2, transmitter.getSupersededCount());
+	}
+
+	@Test
+	public void writesEachPostOnceIdle() throws InterruptedException {
+		transmitter.start();
+		for (int i = 0; i < 5; i++) {
+			transmitter.post(2, i);
+			awaitWrites(i + 1);
+		}
+		assertArrayEquals(new byte[] { 0, 1, 2, 3, 4 }, out.toByteArray());
+	}
+
+	@Test
+	public void holdsWriteLock() throws InterruptedException {
+		transmitter.start();
+		synchronized (writeLock) {
+			transmitter.post(0, 7);
+			Thread.sleep(50);
+			assertEquals(0, out.size());
+		}
+		awaitWrites(1);
+	}
+
+	@Test
+	public void dropsPostsAfterShutdown() throws InterruptedException {
+		transmitter.start();
+		transmitter.shutdown();
+		transmitter.join(1000);
+		transmitter.post(0, 1);
+		assertEquals(0, transmitter.getPostedCount());
+		assertEquals(0, out.size());
+	}
+
+	@Test
+	public void stopGoesFirstAndDropsPendingControl() throws InterruptedException {
+		transmitter.postHousekeeping(new byte[] { 40, 41 }, 0, 2);
+		transmitter.post(0, new byte[] { 1, 1 }, 0, 2);
+		transmitter.post(1, 2);
+		transmitter.postStop(new byte[] { 9, 9 }, 0, 2, LatencyTracer.NO_INPUT);
+		transmitter.post(1, 3); // after the stop, so kept
+		assertEquals(3, transmitter.getQueueDepth());
+		transmitter.start();
+		awaitWrites(1);
+
+		assertArrayEquals(new byte[] { 9, 9, 3, 40, 41 }, out.toByteArray());
+		assertEquals(2, transmitter.getPreemptedCount());
+		assertEquals(0, transmitter.getQueueDepth());
+		assertEquals(1, transmitter.getQueueLatency(ControlTransmitter.Lane.Stop).getCount());
+		assertEquals(1, transmitter.getQueueLatency(ControlTransmitter.Lane.Control).getCount());
+		assertEquals(1, transmitter.getQueueLatency(ControlTransmitter.Lane.Housekeeping).getCount());
+	}
+
+	@Test
+	public void housekeepingIsBoundedAndWrittenOnePerWrite() throws InterruptedException {
+		for (int i = 0; i < ControlTransmitter.HOUSEKEEPING_CAPACITY; i++) {
+			assertTrue(transmitter.postHousekeeping(new byte[] { (byte) i }, 0, 1));
+		}
+		assertFalse(transmitter.postHousekeeping(new byte[] { 99 }, 0, 1));
+		assertEquals(1, transmitter.getRefusedCount());
+		assertEquals(ControlTransmitter.HOUSEKEEPING_CAPACITY, transmitter.getQueueDepth());
+
+		transmitter.start();
+		awaitWrites(ControlTransmitter.HOUSEKEEPING_CAPACITY);
+		byte[] expected = new byte[ControlTransmitter.HOUSEKEEPING_CAPACITY];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = (byte) i;
+		}
+		assertArrayEquals(expected, out.toByteArray());
+	}
+
+	@Test
+	public void awaitSentWaitsForWriteLock() throws InterruptedException {
+		transmitter.start();
+		synchronized (writeLock) {
+			transmitter.postHousekeeping(new byte[] { 1, 2, 3 }, 0, 3);
+			assertFalse(transmitter.awaitSent(50));
+		}
+		assertTrue(transmitter.awaitSent(5000));
+		assertEquals(3, out.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOversizedFrame() {
+		transmitter.post(0, new byte[ControlTransmitter.MAX_FRAME_LENGTH + 1], 0, ControlTransmitter.MAX_FRAME_LENGTH + 1);
+	}
+}
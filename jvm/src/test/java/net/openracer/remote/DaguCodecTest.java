@@ -0,0 +1,111 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static net.openracer.remote.VehicleCodec.AXIS_MAX;
+import static net.openracer.remote.VehicleCodec.AXIS_MIN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class DaguCodecTest {
+
+	/**
+	 * The command byte as MainActivity used to compute it, before the codecs.
+	 */
+	static int legacyCommandByte(int throttle, int steer) {
+		DaguCodec.Steer direction;
+		if (steer < -100) direction = DaguCodec.Steer.Left;
+		else if (steer > 100) direction = DaguCodec.Steer.Right;
+		else direction = DaguCodec.Steer.Straight;
+
+		boolean forward = true;
+		int daguSpeed = throttle;
+		if (daguSpeed < 0) {
+			daguSpeed = -daguSpeed;
+			forward = false;
+		}
+
+		if (daguSpeed > 255) daguSpeed = 255;
+		daguSpeed = daguSpeed >> 4;
+
+		int daguSteer = 0;
+		if (daguSpeed > 0) {
+			if (forward) {
+				switch (direction) {
+				case Straight: daguSteer = 1; break;
+				case Left: daguSteer = 5; break;
+				case Right: daguSteer = 6; break;
+				}
+			} else {
+				switch (direction) {
+				case Straight: daguSteer = 2; break;
+				case Left: daguSteer = 7; break;
+				case Right: daguSteer = 8; break;
+				}
+			}
+		} else {
+			switch (direction) {
+			case Straight: daguSteer = 0; break;
+			case Left: daguSteer = 3; break;
+			case Right: daguSteer = 4; break;
+			}
+		}
+
+		return (daguSteer << 4) | (daguSpeed & 0x0f);
+	}
+
+	@Test
+	public void matchesLegacyCommandByte() {
+		DaguCodec codec = new DaguCodec();
+		byte[] out = new byte[codec.maxFrameLength()];
+		for (int throttle = -300; throttle <= 300; throttle++) {
+			for (int steer = -300; steer <= 300; steer++) {
+				int expected = legacyCommandByte(throttle, steer);
+				assertEquals(throttle + "," + steer, expected, DaguCodec.commandByte(throttle, steer));
+				assertEquals(1, codec.encode(throttle, steer, out, 0));
+				assertEquals(throttle + "," + steer, expected, out[0] & 0xff);
+			}
+		}
+	}
+
+	@Test
+	public void extremeInputsClamp() {
+		assertEquals(legacyCommandByte(AXIS_MIN, 0), DaguCodec.commandByte(Integer.MIN_VALUE, 0));
+		assertEquals(legacyCommandByte(AXIS_MAX, 0), DaguCodec.commandByte(Integer.MAX_VALUE, 0));
+		assertEquals(legacyCommandByte(AXIS_MIN, AXIS_MIN), DaguCodec.commandByte(Integer.MIN_VALUE, Integer.MIN_VALUE));
+		assertEquals(legacyCommandByte(AXIS_MAX, AXIS_MAX), DaguCodec.commandByte(Integer.MAX_VALUE, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void steerThresholds() {
+		assertEquals(DaguCodec.Steer.Straight, DaguCodec.steerFor(DaguCodec.STEER_THRESHOLD));
+		assertEquals(DaguCodec.Steer.Right, DaguCodec.steerFor(DaguCodec.STEER_THRESHOLD + 1));
+		assertEquals(DaguCodec.Steer.Straight, DaguCodec.steerFor(-DaguCodec.STEER_THRESHOLD));
+		assertEquals(DaguCodec.Steer.Left, DaguCodec.steerFor(-DaguCodec.STEER_THRESHOLD - 1));
+	}
+
+	@Test
+	public void commandKeyFollowsCommandByte() {
+		DaguCodec codec = new DaguCodec();
+		// throttle 16..31 is one speed step, steer within the threshold is straight
+		assertEquals(codec.commandKey(16, 0), codec.commandKey(31, 100));
+		assertNotEquals(codec.commandKey(16, 0), codec.commandKey(32, 0));
+		assertNotEquals(codec.commandKey(16, 0), codec.commandKey(16, 101));
+	}
+}
@@ -0,0 +1,99 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceRegistryTest {
+
+	private final DeviceRegistry registry = new DeviceRegistry();
+	private final List<String> events = new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		registry.setListener(new DeviceRegistry.Listener() {
+			@Override
+			public void onDeviceInserted(int position) {
+				events.add("inserted " + position);
+			}
+
+			@Override
+			public void onDeviceChanged(int position) {
+				events.add("changed " + position);
+			}
+
+			@Override
+			public void onDevicesCleared() {
+				events.add("cleared");
+			}
+		});
+	}
+
+	@Test
+	public void keepsDiscoveryOrder() {
+		registry.update("00:00:00:00:00:02", "racer", -60, false, 1);
+		registry.update("00:00:00:00:00:01", null, DeviceRegistry.NO_RSSI, true, 2);
+		assertEquals(2, registry.size());
+		assertEquals("racer", registry.get(0).getDisplayName());
+		assertEquals("00:00:00:00:00:01", registry.get(1).getDisplayName());
+		assertEquals(1, registry.get("00:00:00:00:00:01").getPosition());
+		assertEquals("[inserted 0, inserted 1]", events.toString());
+	}
+
+	@Test
+	public void updatesInPlaceOnlyWhenSomethingChanged() {
+		DeviceRegistry.Device first = registry.update("A", null, -70, false, 1);
+		assertSame(first, registry.update("A", null, -70, false, 2));
+		assertEquals(2, first.getLastSeenMillis());
+		assertEquals("[inserted 0]", events.toString());
+
+		registry.update("A", "racer", DeviceRegistry.NO_RSSI, false, 3);
+		assertEquals("racer", first.getName());
+		assertEquals(-70, first.getRssi()); // unknown strength keeps the last one
+		registry.update("A", null, -50, false, 4);
+		assertEquals("racer", first.getName());
+		assertEquals(-50, first.getRssi());
+		registry.update("A", null, DeviceRegistry.NO_RSSI, true, 5);
+		assertTrue(first.isBonded());
+		assertEquals("[inserted 0, changed 0, changed 0, changed 0]", events.toString());
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void clearForgetsDevices() {
+		registry.update("A", "a", -1, false, 1);
+		registry.clear();
+		assertTrue(registry.isEmpty());
+		assertNull(registry.get("A"));
+		assertEquals("[inserted 0, cleared]", events.toString());
+
+		DeviceRegistry.Device again = registry.update("A", null, DeviceRegistry.NO_RSSI, false, 2);
+		assertEquals(0, again.getPosition());
+		assertNull(again.getName());
+		assertFalse(again.isBonded());
+	}
+}
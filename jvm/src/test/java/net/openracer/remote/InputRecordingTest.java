@@ -0,0 +1,97 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class InputRecordingTest {
+
+	@Test
+	public void timesAreRelativeToTheFirstEvent() {
+		InputRecording recording = new InputRecording();
+		recording.record(0, true, 0.5f, 0.25f, 1f, 5000);
+		recording.record(1, false, 0f, 1f, 0f, 7500);
+		assertEquals(2, recording.size());
+		assertEquals(0, recording.getNanos(0));
+		assertEquals(2500, recording.getNanos(1));
+		assertEquals(2500, recording.getDurationNanos());
+	}
+
+	@Test
+	public void roundTripsThroughTheFileFormat() throws IOException {
+		InputRecording recording = new InputRecording();
+		for (int i = 0; i < 3000; i++) { // past the initial capacity
+			recording.record(i % 3 == 0 ? 255 : i % 2, i % 5 != 0, i / 3000f, -i, i * 0.5f, 1000L * i);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		recording.writeTo(out);
+		InputRecording read = InputRecording.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(recording.size(), read.size());
+		for (int i = 0; i < recording.size(); i++) {
+			assertEquals(recording.getNanos(i), read.getNanos(i));
+			assertEquals(recording.getSource(i), read.getSource(i));
+			assertEquals(recording.isActive(i), read.isActive(i));
+			assertEquals(recording.getX(i), read.getX(i), 0f);
+			assertEquals(recording.getY(i), read.getY(i), 0f);
+			assertEquals(recording.getPressure(i), read.getPressure(i), 0f);
+		}
+		assertEquals(255, read.getSource(0));
+	}
+
+	@Test
+	public void rejectsOtherFiles() {
+		try {
+			InputRecording.readFrom(new ByteArrayInputStream(new byte[] { 'n', 'o', 'p', 'e', 0, 0, 0, 1 }));
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void dispatchesAsRecorded() {
+		InputRecording recording = new InputRecording();
+		recording.record(0, true, 0.1f, 0.2f, 0.3f, 0);
+		recording.record(0, false, 0.4f, 0.5f, 0.6f, 1);
+		final StringBuilder calls = new StringBuilder();
+		InputRecording.Target target = new InputRecording.Target() {
+			@Override
+			public void onActive(float x, float y, float pressure) {
+				calls.append("active " + x + " " + y + " " + pressure + ";");
+			}
+
+			@Override
+			public void onInactive(float x, float y, float pressure) {
+				calls.append("inactive " + x + " " + y + " " + pressure + ";");
+			}
+		};
+		recording.dispatch(0, target);
+		recording.dispatch(1, target);
+		assertEquals("active 0.1 0.2 0.3;inactive 0.4 0.5 0.6;", calls.toString());
+		assertTrue(recording.isActive(0));
+		assertFalse(recording.isActive(1));
+	}
+}
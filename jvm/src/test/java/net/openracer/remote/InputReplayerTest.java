@@ -0,0 +1,126 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+
+public class InputReplayerTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static class Finish implements InputReplayer.Listener {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean completed = new AtomicBoolean();
+
+		@Override
+		public void onReplayFinished(InputReplayer replayer, boolean completed) {
+			this.completed.set(completed);
+			done.countDown();
+		}
+	}
+
+	// stamps the time each event is dispatched, by its x value
+	private static InputRecording.Target stamping(final AtomicLongArray stamps) {
+		return new InputRecording.Target() {
+			@Override
+			public void onActive(float x, float y, float pressure) {
+				stamps.set((int) x, System.nanoTime());
+			}
+
+			@Override
+			public void onInactive(float x, float y, float pressure) {
+				stamps.set((int) x, System.nanoTime());
+			}
+		};
+	}
+
+	@Test
+	public void replaysAgainstScaledDeadlines() throws InterruptedException {
+		long[] at = { 0, 100 * MS, 200 * MS, 400 * MS };
+		InputRecording recording = new InputRecording();
+		for (int i = 0; i < at.length; i++) {
+			recording.record(0, i % 2 == 0, i, 0, 0, at[i]);
+		}
+		AtomicLongArray stamps = new AtomicLongArray(at.length);
+		Finish finish = new Finish();
+		double speed = 2;
+		InputReplayer replayer = new InputReplayer(recording, new InputRecording.Target[] { stamping(stamps) }, speed, finish);
+
+		long start = System.nanoTime();
+		replayer.start();
+		assertTrue(finish.done.await(5, TimeUnit.SECONDS));
+		assertTrue(finish.completed.get());
+		assertEquals(at.length, replayer.getReplayedCount());
+
+		for (int i = 0; i < at.length; i++) {
+			// never early: each event waits for its deadline from the replay start
+			assertTrue("event " + i, stamps.get(i) - start >= (long) (at[i] / speed));
+		}
+		// twice as fast as recorded, with room for a slow machine
+		assertTrue(replayer.getElapsedNanos() >= 200 * MS);
+		assertTrue(replayer.getElapsedNanos() < 400 * MS);
+		assertTrue(replayer.getMaxLatenessNanos() >= replayer.getMeanLatenessNanos());
+	}
+
+	@Test
+	public void asFastAsPossibleIgnoresTiming() throws InterruptedException {
+		InputRecording recording = new InputRecording();
+		recording.record(0, true, 0, 0, 0, 0);
+		recording.record(1, true, 0, 0, 0, 60000 * MS); // no target for source 1
+		recording.record(0, false, 1, 0, 0, 120000 * MS);
+		AtomicLongArray stamps = new AtomicLongArray(2);
+		Finish finish = new Finish();
+		InputReplayer replayer = new InputReplayer(recording, new InputRecording.Target[] { stamping(stamps) },
+				InputReplayer.AS_FAST_AS_POSSIBLE, finish);
+		replayer.start();
+		assertTrue(finish.done.await(5, TimeUnit.SECONDS));
+		assertTrue(finish.completed.get());
+		assertEquals(3, replayer.getReplayedCount());
+		assertTrue(stamps.get(0) != 0 && stamps.get(1) != 0);
+		assertEquals(0, replayer.getMaxLatenessNanos());
+	}
+
+	@Test
+	public void shutdownEndsReplayIncomplete() throws InterruptedException {
+		InputRecording recording = new InputRecording();
+		recording.record(0, true, 0, 0, 0, 0);
+		recording.record(0, false, 1, 0, 0, 60000 * MS);
+		AtomicLongArray stamps = new AtomicLongArray(2);
+		Finish finish = new Finish();
+		InputReplayer replayer = new InputReplayer(recording, new InputRecording.Target[] { stamping(stamps) }, 1, finish);
+		replayer.start();
+		Thread.sleep(50);
+		replayer.shutdown();
+		assertTrue(finish.done.await(5, TimeUnit.SECONDS));
+		assertFalse(finish.completed.get());
+		assertEquals(1, replayer.getReplayedCount());
+		assertEquals(0, stamps.get(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveSpeed() {
+		new InputReplayer(new InputRecording(), new InputRecording.Target[0], 0, null);
+	}
+}
@@ -0,0 +1,86 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverEveryValueInOrder() {
+		int previous = -1;
+		for (long micros = 0; micros < 1L << 20; micros++) {
+			int bucket = LatencyHistogram.bucketOf(micros);
+			assertTrue(bucket >= previous);
+			assertTrue(micros + " above its bucket", LatencyHistogram.bucketUpperBound(bucket) >= micros);
+			if (bucket > 0) {
+				assertTrue(micros + " below its bucket", LatencyHistogram.bucketUpperBound(bucket - 1) < micros);
+			}
+			previous = bucket;
+		}
+	}
+
+	@Test
+	public void bucketErrorIsBounded() {
+		for (long micros = 16; micros < 1L << 30; micros = micros * 3 / 2) {
+			long bound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketOf(micros));
+			assertTrue(micros + " -> " + bound, bound - micros <= micros / 8);
+		}
+	}
+
+	@Test
+	public void exactMinMaxMean() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int micros = 1; micros <= 1000; micros++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1, histogram.getMinMicros());
+		assertEquals(1000, histogram.getMaxMicros());
+		assertEquals(500, histogram.getMeanMicros());
+	}
+
+	@Test
+	public void percentilesWithinBucketResolution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int micros = 1; micros <= 1000; micros++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+		for (double percentile : new double[] { 1, 50, 90, 99 }) {
+			long exact = (long) Math.ceil(percentile * 10);
+			long reported = histogram.getPercentileMicros(percentile);
+			assertTrue(percentile + ": " + reported, reported >= exact && reported <= exact + exact / 8);
+		}
+		assertEquals(1000, histogram.getPercentileMicros(100));
+	}
+
+	@Test
+	public void resetAndEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5); // clock skew counts as zero
+		assertEquals(0, histogram.getMaxMicros());
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMinMicros());
+		assertEquals(0, histogram.getPercentileMicros(99));
+	}
+}
@@ -0,0 +1,167 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineFramerTest {
+
+	/**
+	 * Returns at most {@code chunk} bytes per read, like a radio link delivering small packets.
+	 */
+	static class TrickleInputStream extends ByteArrayInputStream {
+		private final int chunk;
+
+		TrickleInputStream(byte[] data, int chunk) {
+			super(data);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, chunk));
+		}
+	}
+
+	static List<String> frame(LineFramer framer, InputStream in) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		while (framer.fill(in) >= 0) {
+			while (framer.nextLine()) {
+				lines.add(framer.line().toString());
+			}
+		}
+		while (framer.nextLine()) {
+			lines.add(framer.line().toString());
+		}
+		return lines;
+	}
+
+	static List<String> frame(String text, int capacity, int chunk) throws IOException {
+		return frame(new LineFramer(capacity), new TrickleInputStream(text.getBytes("UTF-8"), chunk));
+	}
+
+	@Test
+	public void splitsOnNewlineAndKeepsCarriageReturn() throws IOException {
+		List<String> lines = frame("ver=1.0\r\nbatt=87\r\n\nx\n", 64, 1024);
+		assertEquals(4, lines.size());
+		assertEquals("ver=1.0\r", lines.get(0));
+		assertEquals("batt=87\r", lines.get(1));
+		assertEquals("", lines.get(2));
+		assertEquals("x", lines.get(3));
+	}
+
+	@Test
+	public void sameLinesWhateverTheReadSizes() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			text.append("pong=").append(i * 37).append("\r\n");
+		}
+		List<String> expected = frame(text.toString(), 64, 4096);
+		assertEquals(200, expected.size());
+		for (int chunk = 1; chunk <= 20; chunk++) {
+			assertEquals("chunk " + chunk, expected, frame(text.toString(), 64, chunk));
+		}
+	}
+
+	@Test
+	public void wrapsAroundSmallBuffer() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append(i).append('\n');
+		}
+		List<String> lines = frame(text.toString(), 8, 3);
+		assertEquals(1000, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(Integer.toString(i), lines.get(i));
+		}
+	}
+
+	@Test
+	public void roundsCapacityUpToPowerOfTwo() throws IOException {
+		// seven bytes and a newline fit a capacity of 5 rounded up to 8
+		List<String> lines = frame("1234567\n", 5, 100);
+		assertEquals(1, lines.size());
+		assertEquals("1234567", lines.get(0));
+	}
+
+	@Test
+	public void dropsLinesLongerThanBuffer() throws IOException {
+		LineFramer framer = new LineFramer(8);
+		List<String> lines = frame(framer, new TrickleInputStream("ok\n0123456789abcdefghij\nnext\n".getBytes("UTF-8"), 3));
+		assertEquals(2, lines.size());
+		assertEquals("ok", lines.get(0));
+		assertEquals("next", lines.get(1));
+		assertEquals(1, framer.getOverflowCount());
+	}
+
+	@Test
+	public void returnsUnterminatedRemainderAtEof() throws IOException {
+		LineFramer framer = new LineFramer(16);
+		List<String> lines = frame(framer, new TrickleInputStream("a\nlast".getBytes("UTF-8"), 2));
+		assertEquals(2, lines.size());
+		assertEquals("last", lines.get(1));
+		assertTrue(framer.isEof());
+		assertEquals(0, framer.getBuffered());
+		assertEquals(-1, framer.fill(new ByteArrayInputStream(new byte[0])));
+	}
+
+	@Test
+	public void decodesMultiByteCharactersSplitAcrossReads() throws IOException {
+		List<String> lines = frame("café=über\n", 16, 1);
+		assertEquals("café=über", lines.get(0));
+	}
+
+	@Test
+	public void lineViewReadsInPlace() throws IOException {
+		LineFramer framer = new LineFramer(8);
+		// offset the data so the line wraps around the end of the ring
+		framer.fill(new ByteArrayInputStream("12345\n".getBytes("UTF-8")));
+		assertTrue(framer.nextLine());
+		InputStream in = new ByteArrayInputStream("pong=7\n".getBytes("UTF-8"));
+		while (!framer.nextLine()) {
+			framer.fill(in);
+		}
+
+		LineFramer.Line line = framer.line();
+		assertEquals(6, line.length());
+		assertEquals((byte) 'p', line.byteAt(0));
+		assertEquals((byte) '7', line.byteAt(5));
+		assertTrue(line.startsWith("pong=".getBytes("UTF-8")));
+		assertFalse(line.startsWith("ver=".getBytes("UTF-8")));
+		assertFalse(line.startsWith("pong=77".getBytes("UTF-8")));
+
+		byte[] copy = new byte[8];
+		assertEquals(6, line.copyTo(copy, 1));
+		assertEquals("pong=7", new String(copy, 1, 6, "UTF-8"));
+		assertFalse(framer.nextLine());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveCapacity() {
+		new LineFramer(0);
+	}
+}
@@ -0,0 +1,106 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class LinkProberTest {
+
+	@Test
+	public void sendsPingFramesAndTimesPongs() throws Exception {
+		final BlockingQueue<byte[]> sent = new LinkedBlockingQueue<byte[]>();
+		LinkProber prober = new LinkProber(new LinkProber.Sender() {
+			@Override
+			public void send(byte[] data, int offset, int length) {
+				sent.add(Arrays.copyOfRange(data, offset, offset + length));
+			}
+		}, 1);
+		prober.start();
+		try {
+			for (int sequence = 0; sequence < 3; sequence++) {
+				byte[] frame = sent.poll(5, TimeUnit.SECONDS);
+				assertNotNull(frame);
+				assertArrayEquals(new byte[] { (byte) ExtensionCommand.ESCAPE, ExtensionCommand.PING, (byte) sequence }, frame);
+				prober.onPong(sequence, System.nanoTime());
+			}
+		} finally {
+			prober.shutdown();
+			prober.join(5000);
+		}
+		assertEquals(3, prober.getRoundTrip().getCount());
+		assertEquals(0, prober.getUnexpectedCount());
+	}
+
+	@Test
+	public void countsUnexpectedAndDuplicatePongs() throws Exception {
+		final CountDownLatch firstPing = new CountDownLatch(1);
+		LinkProber prober = new LinkProber(new LinkProber.Sender() {
+			@Override
+			public void send(byte[] data, int offset, int length) {
+				firstPing.countDown();
+			}
+		}, 60000);
+		prober.start();
+		try {
+			assertTrue(firstPing.await(5, TimeUnit.SECONDS));
+			prober.onPong(7, System.nanoTime()); // never sent
+			prober.onPong(0, System.nanoTime());
+			prober.onPong(0, System.nanoTime()); // already answered
+		} finally {
+			prober.shutdown();
+			prober.join(5000);
+		}
+		assertEquals(1, prober.getRoundTrip().getCount());
+		assertEquals(2, prober.getUnexpectedCount());
+		assertEquals(0, prober.getLostCount());
+	}
+
+	@Test
+	public void unansweredSequenceIsLostWhenItComesRound() throws Exception {
+		final AtomicInteger sends = new AtomicInteger();
+		final CountDownLatch wrapped = new CountDownLatch(1);
+		LinkProber prober = new LinkProber(new LinkProber.Sender() {
+			@Override
+			public void send(byte[] data, int offset, int length) {
+				if (sends.incrementAndGet() == 256 + 10) {
+					wrapped.countDown();
+				}
+			}
+		}, 0);
+		prober.start();
+		try {
+			assertTrue(wrapped.await(5, TimeUnit.SECONDS));
+		} finally {
+			prober.shutdown();
+			prober.join(5000);
+		}
+		assertEquals(sends.get() - 256, prober.getLostCount());
+		assertEquals(0, prober.getRoundTrip().getCount());
+	}
+}
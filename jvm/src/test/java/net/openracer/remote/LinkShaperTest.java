@@ -0,0 +1,108 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LinkShaperTest {
+
+	private final ByteArrayOutputStream delivered = new ByteArrayOutputStream();
+	private final LinkShaper.Sink sink = new LinkShaper.Sink() {
+		@Override
+		public void deliver(byte[] data, int offset, int length) {
+			synchronized (delivered) {
+				delivered.write(data, offset, length);
+				delivered.notifyAll();
+			}
+		}
+	};
+	private LinkShaper shaper;
+
+	@After
+	public void tearDown() {
+		if (shaper != null) {
+			shaper.shutdown();
+		}
+	}
+
+	private void awaitDelivered(int bytes) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		synchronized (delivered) {
+			while (delivered.size() < bytes && System.currentTimeMillis() < deadline) {
+				delivered.wait(10);
+			}
+			assertEquals(bytes, delivered.size());
+		}
+	}
+
+	@Test
+	public void addsLatencyAndKeepsOrder() throws Exception {
+		shaper = new LinkShaper("test", new LinkShaper.Profile(40, 0, 0, 1), sink);
+		shaper.start();
+		long start = System.nanoTime();
+		byte[] data = { 1, 2, 3, 4 };
+		shaper.offer(data, 0, 2);
+		shaper.offer(data, 2, 2);
+		data[0] = 9; // the shaper keeps its own copy
+		awaitDelivered(4);
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsedMs + "ms", elapsedMs >= 40);
+		assertEquals("[1, 2, 3, 4]", Arrays.toString(delivered.toByteArray()));
+	}
+
+	@Test
+	public void limitsBandwidth() throws Exception {
+		shaper = new LinkShaper("test", new LinkShaper.Profile(0, 1000, 0, 1), sink);
+		shaper.start();
+		long start = System.nanoTime();
+		byte[] data = new byte[10];
+		for (int i = 0; i < 10; i++) {
+			shaper.offer(data, 0, data.length); // 100 bytes at 1000 B/s
+		}
+		awaitDelivered(100);
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsedMs + "ms", elapsedMs >= 100);
+	}
+
+	@Test
+	public void lossIsRepeatableForASeed() throws Exception {
+		long[] lost = new long[2];
+		for (int run = 0; run < 2; run++) {
+			LinkShaper lossy = new LinkShaper("test", new LinkShaper.Profile(0, 0, 0.3, 42), sink);
+			for (int i = 0; i < 1000; i++) {
+				lossy.offer(new byte[1], 0, 1);
+			}
+			lost[run] = lossy.getLostCount();
+			assertEquals(1000, lossy.getOfferedCount());
+		}
+		assertEquals(lost[0], lost[1]);
+		assertTrue(lost[0] > 200 && lost[0] < 400);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsLossAboveOne() {
+		new LinkShaper.Profile(0, 0, 1.5, 0);
+	}
+}
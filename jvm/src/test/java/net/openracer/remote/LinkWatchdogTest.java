@@ -0,0 +1,208 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LinkWatchdogTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long T0 = 1000 * MS;
+
+	private int staleCalls = 0;
+	private int deadCalls = 0;
+	private long lastAge = 0;
+
+	private final LinkWatchdog watchdog = new LinkWatchdog(500, 1500, new LinkWatchdog.Listener() {
+		@Override
+		public void onInputStale(long ageNanos) {
+			staleCalls++;
+			lastAge = ageNanos;
+		}
+
+		@Override
+		public void onLinkDead(long silenceNanos) {
+			deadCalls++;
+			lastAge = silenceNanos;
+		}
+	});
+
+	@Test
+	public void staleInputStopsOnceUntilInputResumes() {
+		watchdog.reset(T0);
+		watchdog.check(T0 + 500 * MS);
+		assertEquals(0, staleCalls);
+
+		watchdog.check(T0 + 501 * MS);
+		assertEquals(1, staleCalls);
+		assertEquals(501 * MS, lastAge);
+		watchdog.check(T0 + 900 * MS);
+		assertEquals(1, staleCalls);
+
+		watchdog.onInput(T0 + 1000 * MS);
+		watchdog.check(T0 + 1100 * MS);
+		watchdog.check(T0 + 1600 * MS);
+		assertEquals(2, staleCalls);
+		assertEquals(2, watchdog.getStaleStopCount());
+	}
+
+	@Test
+	public void silenceIgnoredUntilTelemetryExpected() {
+		watchdog.reset(T0);
+		watchdog.onInput(T0 + 5000 * MS);
+		watchdog.check(T0 + 5000 * MS);
+		assertEquals(0, deadCalls);
+
+		watchdog.expectTelemetry();
+		watchdog.check(T0 + 5000 * MS);
+		assertEquals(1, deadCalls);
+		assertEquals(5000 * MS, lastAge);
+	}
+
+	@Test
+	public void deadLinkReportedOncePerReset() {
+		watchdog.reset(T0);
+		watchdog.expectTelemetry();
+		for (int ms = 100; ms <= 1500; ms += 100) {
+			watchdog.onInput(T0 + ms * MS);
+			watchdog.onReceived(T0 + ms * MS);
+			watchdog.check(T0 + ms * MS);
+		}
+		assertEquals(0, deadCalls);
+
+		watchdog.onInput(T0 + 3001 * MS);
+		watchdog.check(T0 + 3001 * MS);
+		assertEquals(1, deadCalls);
+		watchdog.check(T0 + 9000 * MS);
+		assertEquals(1, deadCalls);
+
+		watchdog.reset(T0 + 9000 * MS);
+		watchdog.expectTelemetry();
+		watchdog.check(T0 + 10501 * MS);
+		assertEquals(2, deadCalls);
+		assertEquals(2, watchdog.getDeadLinkCount());
+	}
+
+	@Test
+	public void managerStampsSendAndReceive() throws Exception {
+		PipeTransport.Pair pair = PipeTransport.pair(4096);
+		pair.remote.connect();
+		final CountDownLatch received = new CountDownLatch(1);
+		BluetoothConnectionManager manager = new BluetoothConnectionManager(pair.local, new BluetoothConnectionManager.Listener() {
+			@Override
+			public void onMessage(LineFramer.Line line) {
+				received.countDown();
+			}
+
+			@Override
+			public void onConnected(BluetoothConnectionManager manager) {
+			}
+
+			@Override
+			public void onDisconnected(String exitReason) {
+			}
+		});
+		manager.setLinkWatchdog(watchdog);
+		long start = System.nanoTime();
+		watchdog.reset(start - 1000 * MS);
+		manager.start();
+		try {
+			OutputStream remote = pair.remote.getOutputStream();
+			remote.write("batt=7\r\n".getBytes("US-ASCII"));
+			remote.flush();
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			assertTrue(watchdog.getReceivedAgeNanos(System.nanoTime()) < System.nanoTime() - start);
+
+			assertTrue(manager.postExtension(ExtensionCommand.BATTERY));
+			assertTrue(manager.awaitSent(5000));
+			assertTrue(watchdog.getSentAgeNanos(System.nanoTime()) < System.nanoTime() - start);
+			assertTrue(watchdog.getInputAgeNanos(System.nanoTime()) >= 1000 * MS);
+		} finally {
+			manager.disconnect();
+			manager.join(5000);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void deadLinkClosesPastABlockedWrite() throws Exception {
+		PipeTransport.Pair pair = PipeTransport.pair(16);
+		pair.remote.connect(); // never read, so writes block once 16 bytes are buffered
+		final CountDownLatch connected = new CountDownLatch(1);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		final BluetoothConnectionManager manager = new BluetoothConnectionManager(pair.local, new BluetoothConnectionManager.Listener() {
+			@Override
+			public void onMessage(LineFramer.Line line) {
+			}
+
+			@Override
+			public void onConnected(BluetoothConnectionManager manager) {
+				connected.countDown();
+			}
+
+			@Override
+			public void onDisconnected(String exitReason) {
+				disconnected.countDown();
+			}
+		});
+		LinkWatchdog deadLink = new LinkWatchdog(500, 1500, new LinkWatchdog.Listener() {
+			@Override
+			public void onInputStale(long ageNanos) {
+			}
+
+			@Override
+			public void onLinkDead(long silenceNanos) {
+				manager.disconnect(); // as the session does, on the checking thread
+			}
+		});
+		manager.setLinkWatchdog(deadLink);
+		manager.start();
+		try {
+			assertTrue(connected.await(5, TimeUnit.SECONDS));
+			byte[] command = "p1000\n".getBytes("US-ASCII");
+			for (int i = 0; i < 4; i++) {
+				assertTrue(manager.postHousekeeping(command, 0, command.length));
+			}
+			InputStream remote = pair.remote.getInputStream();
+			while (remote.available() < 16) {
+				Thread.sleep(1);
+			}
+			Thread.sleep(50); // the writer is now stuck in write, holding the socket lock
+
+			long now = System.nanoTime();
+			deadLink.expectTelemetry();
+			deadLink.onInput(now + 5000 * MS);
+			deadLink.check(now + 5000 * MS);
+			assertEquals(1, deadLink.getDeadLinkCount());
+			assertTrue(System.nanoTime() - now < 1000 * MS);
+
+			assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+			manager.join(5000);
+			assertFalse(manager.isAlive());
+		} finally {
+			manager.disconnect();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProtocolV2Test {
+
+	private final List<int[]> frames = new ArrayList<int[]>();
+	private ProtocolV2Decoder decoder;
+
+	@Before
+	public void setUp() {
+		decoder = new ProtocolV2Decoder(new ProtocolV2Decoder.Listener() {
+			@Override
+			public void onFrame(int sequence, int throttle, int steer) {
+				frames.add(new int[] { sequence, throttle, steer });
+			}
+		});
+	}
+
+	@Test
+	public void roundTripsTheAxisRange() {
+		ProtocolV2Codec codec = new ProtocolV2Codec();
+		byte[] out = new byte[codec.maxFrameLength()];
+		int count = 0;
+		for (int throttle = -300; throttle <= 300; throttle += 3) {
+			for (int steer = -300; steer <= 300; steer += 11) {
+				assertEquals(ProtocolV2.FRAME_LENGTH, codec.encode(throttle, steer, out, 0));
+				assertTrue(ProtocolV2.isSync(out[0]));
+				assertTrue((out[0] & 0xff) != ExtensionCommand.ESCAPE);
+				decoder.feed(out, 0, ProtocolV2.FRAME_LENGTH);
+
+				int[] frame = frames.get(count);
+				assertEquals(count & 0x0f, frame[0]);
+				assertEquals(clamp(throttle), frame[1]);
+				assertEquals(clamp(steer), frame[2]);
+				count++;
+			}
+		}
+		assertEquals(count, decoder.getFrameCount());
+		assertEquals(0, decoder.getCrcErrorCount());
+		assertEquals(0, decoder.getDroppedCount());
+	}
+
+	private static int clamp(int value) {
+		return Math.max(VehicleCodec.AXIS_MIN, Math.min(VehicleCodec.AXIS_MAX, value));
+	}
+
+	@Test
+	public void crcMatchesBitwiseDefinition() {
+		byte[] data = new byte[256];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+		for (int length = 0; length < 20; length++) {
+			int crc = 0;
+			for (int i = 0; i < length; i++) {
+				crc ^= data[i] & 0xff;
+				for (int bit = 0; bit < 8; bit++) {
+					crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xff : (crc << 1) & 0xff;
+				}
+			}
+			assertEquals(crc, ProtocolV2.crc8(data, 0, length));
+		}
+	}
+
+	@Test
+	public void skipsNoiseBeforeSync() {
+		byte[] stream = new byte[3 + ProtocolV2.FRAME_LENGTH];
+		stream[0] = 'h';
+		stream[1] = '1';
+		stream[2] = '\n';
+		ProtocolV2.write(9, 100, -100, stream, 3);
+		decoder.feed(stream, 0, stream.length);
+		assertEquals(1, frames.size());
+		assertEquals(100, frames.get(0)[1]);
+		assertEquals(-100, frames.get(0)[2]);
+		assertEquals(3, decoder.getSkippedByteCount());
+	}
+
+	@Test
+	public void resyncsAfterCorruptFrame() {
+		byte[] stream = new byte[3 * ProtocolV2.FRAME_LENGTH];
+		ProtocolV2.write(0, 10, 20, stream, 0);
+		ProtocolV2.write(1, 30, 40, stream, ProtocolV2.FRAME_LENGTH);
+		ProtocolV2.write(2, 50, 60, stream, 2 * ProtocolV2.FRAME_LENGTH);
+		stream[ProtocolV2.FRAME_LENGTH + 2] ^= 0x10; // damage the second frame
+
+		for (byte b : stream) {
+			decoder.feed(b);
+		}
+		assertEquals(2, frames.size());
+		assertEquals(10, frames.get(0)[1]);
+		assertEquals(50, frames.get(1)[1]);
+		assertEquals(1, decoder.getCrcErrorCount());
+		assertEquals(1, decoder.getDroppedCount()); // sequence 1 never arrived intact
+	}
+
+	@Test
+	public void findsSyncInsideRejectedFrame() {
+		// a stray SYNC byte followed by a real frame: the decoder must not lose the real one
+		byte[] stream = new byte[1 + ProtocolV2.FRAME_LENGTH];
+		stream[0] = (byte) ProtocolV2.SYNC;
+		ProtocolV2.write(5, -7, 7, stream, 1);
+		decoder.feed(stream, 0, stream.length);
+		assertEquals(1, frames.size());
+		assertEquals(5, frames.get(0)[0]);
+		assertEquals(-7, frames.get(0)[1]);
+		assertEquals(7, frames.get(0)[2]);
+	}
+
+	@Test
+	public void countsSequenceGapsAcrossWrap() {
+		byte[] frame = new byte[ProtocolV2.FRAME_LENGTH];
+		ProtocolV2.write(14, 0, 0, frame, 0);
+		decoder.feed(frame, 0, frame.length);
+		ProtocolV2.write(2, 0, 0, frame, 0);
+		decoder.feed(frame, 0, frame.length);
+		assertEquals(3, decoder.getDroppedCount()); // 15, 0 and 1
+	}
+
+	@Test
+	public void conflatedFramesAreNotCountedAsDropped() throws InterruptedException {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		final Object writeLock = new Object();
+		ControlTransmitter transmitter = new ControlTransmitter(wire, writeLock, null);
+		ProtocolV2Codec codec = new ProtocolV2Codec();
+		transmitter.setFrameStamper(codec);
+		byte[] out = new byte[ProtocolV2.FRAME_LENGTH];
+		byte[] dagu = { 0x15 }; // queued before the upgrade; left alone
+		transmitter.post(1, dagu, 0, 1);
+		for (int i = 0; i < 10; i++) { // all but the last superseded before the writer runs
+			codec.encode(i, -i, out, 0);
+			transmitter.post(0, out, 0, out.length);
+		}
+		transmitter.start();
+		assertTrue(transmitter.awaitSent(5000));
+		for (int i = 10; i < 20; i++) {
+			codec.encode(i, -i, out, 0);
+			transmitter.post(0, out, 0, out.length);
+			assertTrue(transmitter.awaitSent(5000));
+		}
+		transmitter.shutdown();
+		transmitter.join(5000);
+
+		byte[] sent = wire.toByteArray();
+		assertEquals(1 + 11 * ProtocolV2.FRAME_LENGTH, sent.length);
+		assertEquals(0x15, sent[ProtocolV2.FRAME_LENGTH]); // channel 0, then channel 1
+		decoder.feed(sent, 0, ProtocolV2.FRAME_LENGTH);
+		decoder.feed(sent, ProtocolV2.FRAME_LENGTH + 1, sent.length - ProtocolV2.FRAME_LENGTH - 1);
+		assertEquals(11, decoder.getFrameCount());
+		assertEquals(0, decoder.getCrcErrorCount());
+		assertEquals(0, decoder.getDroppedCount());
+		assertEquals(9, frames.get(0)[1]);
+		assertEquals(19, frames.get(10)[1]);
+	}
+}
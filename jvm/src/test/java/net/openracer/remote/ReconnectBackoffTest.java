@@ -0,0 +1,56 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReconnectBackoffTest {
+
+	@Test
+	public void doublesUpToCeilingThenGivesUp() {
+		ReconnectBackoff backoff = new ReconnectBackoff(250, 3000, 6);
+		long[] expected = { 250, 500, 1000, 2000, 3000, 3000 };
+		for (long delay : expected) {
+			assertTrue(backoff.hasNext());
+			assertEquals(delay, backoff.nextDelayMs());
+		}
+		assertFalse(backoff.hasNext());
+		assertEquals(6, backoff.getAttempts());
+	}
+
+	@Test
+	public void resetStartsOver() {
+		ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 2);
+		backoff.nextDelayMs();
+		backoff.nextDelayMs();
+		backoff.reset();
+		assertTrue(backoff.hasNext());
+		assertEquals(100, backoff.nextDelayMs());
+	}
+
+	@Test
+	public void largeAttemptCountsDoNotOverflow() {
+		ReconnectBackoff backoff = new ReconnectBackoff(1000, 60000, 100);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i < 6 ? 1000L << i : 60000, backoff.nextDelayMs());
+		}
+	}
+}
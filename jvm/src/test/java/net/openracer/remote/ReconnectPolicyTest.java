@@ -0,0 +1,80 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReconnectPolicyTest {
+
+	private final ReconnectPolicy policy = new ReconnectPolicy(new ReconnectBackoff(100, 1000, 3));
+
+	@Test
+	public void lostLinkIsRetriedUntilTheBackoffGivesUp() {
+		policy.onConnectRequested();
+		assertTrue(policy.onConnected());
+		assertEquals(100, policy.onDisconnected(true));
+		assertEquals(200, policy.onDisconnected(false)); // the retry failed
+		assertEquals(400, policy.onDisconnected(false));
+		assertEquals(ReconnectPolicy.NO_RECONNECT, policy.onDisconnected(false));
+	}
+
+	@Test
+	public void failedFirstAttemptIsNotRetried() {
+		policy.onConnectRequested();
+		assertEquals(ReconnectPolicy.NO_RECONNECT, policy.onDisconnected(false));
+	}
+
+	@Test
+	public void requestedDisconnectIsNotRetried() {
+		policy.onConnectRequested();
+		assertTrue(policy.onConnected());
+		policy.onDisconnectRequested();
+		assertEquals(ReconnectPolicy.NO_RECONNECT, policy.onDisconnected(true));
+		assertFalse(policy.isDisconnectRequested());
+	}
+
+	@Test
+	public void linkUpAfterDisconnectRequestIsClosedAndNotRetried() {
+		// disconnect() runs while the attempt's connected event is already posted
+		policy.onConnectRequested();
+		policy.onDisconnectRequested();
+		assertFalse(policy.onConnected());
+		assertTrue(policy.isDisconnectRequested());
+
+		// the session closes the new link; its end must not bring it back
+		assertEquals(ReconnectPolicy.NO_RECONNECT, policy.onDisconnected(false));
+		assertFalse(policy.isDisconnectRequested());
+
+		// and the next connection behaves normally
+		policy.onConnectRequested();
+		assertTrue(policy.onConnected());
+		assertEquals(100, policy.onDisconnected(true));
+	}
+
+	@Test
+	public void requestDuringReconnectAttemptStopsTheRetries() {
+		policy.onConnectRequested();
+		assertTrue(policy.onConnected());
+		assertEquals(100, policy.onDisconnected(true));
+		policy.onDisconnectRequested(); // while the retry is connecting
+		assertFalse(policy.onConnected());
+		assertEquals(ReconnectPolicy.NO_RECONNECT, policy.onDisconnected(false));
+	}
+}
@@ -0,0 +1,132 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static List<String> readAll(File directory) throws IOException {
+		final List<String> records = new ArrayList<String>();
+		new SessionLogReader(directory).read(new SessionLogReader.Visitor() {
+			@Override
+			public void onRecord(SessionLogReader.Record record) {
+				byte[] payload = new byte[record.getPayloadLength()];
+				record.copyTo(payload, 0);
+				try {
+					records.add(record.getDirection() + ":" + new String(payload, "UTF-8"));
+				} catch (IOException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		return records;
+	}
+
+	@Test
+	public void readsBackWhatWasWritten() throws IOException {
+		File directory = new File(folder.getRoot(), "session");
+		SessionLog log = new SessionLog(directory, SessionLog.MIN_SEGMENT_SIZE, 4);
+		log.event("connected");
+		log.append(SessionLog.Direction.Sent, "xh10\ny".getBytes("UTF-8"), 1, 4);
+		log.append(SessionLog.Direction.Sent, 'q');
+
+		LineFramer framer = new LineFramer(64);
+		framer.fill(new ByteArrayInputStream("ver=1.0\r\n".getBytes("UTF-8")));
+		assertTrue(framer.nextLine());
+		log.append(SessionLog.Direction.Received, framer.line());
+		log.close();
+
+		List<String> records = readAll(directory);
+		assertEquals(4, records.size());
+		assertEquals("Event:connected", records.get(0));
+		assertEquals("Sent:h10\n", records.get(1));
+		assertEquals("Sent:q", records.get(2));
+		assertEquals("Received:ver=1.0\r", records.get(3));
+		assertEquals(4, log.getRecordCount());
+	}
+
+	@Test
+	public void rotatesAndKeepsNewestSegments() throws IOException {
+		File directory = folder.getRoot();
+		SessionLog log = new SessionLog(directory, SessionLog.MIN_SEGMENT_SIZE, 3);
+		byte[] payload = new byte[100];
+		for (int i = 0; i < 500; i++) {
+			payload[0] = (byte) i;
+			log.append(SessionLog.Direction.Sent, payload, 0, payload.length);
+		}
+		log.event("last");
+		log.close();
+
+		SessionLogReader reader = new SessionLogReader(directory);
+		assertEquals(3, reader.getSegments().length);
+		List<String> records = readAll(directory);
+		assertEquals("Event:last", records.get(records.size() - 1));
+		assertTrue(records.size() < 500); // the oldest segments are gone
+
+		SessionLogReader.Summary summary = reader.summarize();
+		assertEquals(records.size() - 1, summary.getRecordCount(SessionLog.Direction.Sent));
+		assertEquals(100 * (records.size() - 1), summary.getByteCount(SessionLog.Direction.Sent));
+		assertEquals(1, summary.getRecordCount(SessionLog.Direction.Event));
+	}
+
+	@Test
+	public void tapRecordsWhatPassesThrough() throws IOException {
+		File directory = folder.getRoot();
+		SessionLog log = new SessionLog(directory, SessionLog.MIN_SEGMENT_SIZE, 1);
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		SessionLog.Tap tap = new SessionLog.Tap(sink, log);
+		tap.write(new byte[] { 'g', '5', '\n' }, 0, 3);
+		tap.write(0xf0);
+		tap.flush();
+		log.close();
+
+		assertArrayEquals(new byte[] { 'g', '5', '\n', (byte) 0xf0 }, sink.toByteArray());
+		List<String> records = readAll(directory);
+		assertEquals(2, records.size());
+		assertEquals("Sent:g5\n", records.get(0));
+	}
+
+	@Test
+	public void ignoresAppendsAfterClose() throws IOException {
+		SessionLog log = new SessionLog(folder.getRoot(), SessionLog.MIN_SEGMENT_SIZE, 1);
+		log.close();
+		log.event("late");
+		assertEquals(0, readAll(folder.getRoot()).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTinySegments() throws IOException {
+		new SessionLog(folder.getRoot(), SessionLog.MIN_SEGMENT_SIZE - 1, 1);
+	}
+}
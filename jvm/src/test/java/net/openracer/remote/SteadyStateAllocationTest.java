@@ -0,0 +1,197 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the per-frame and per-line paths allocate nothing once warmed up, which is what
+ * keeps the garbage collector from pausing the control loop on the phone.
+ */
+public class SteadyStateAllocationTest {
+
+	private static final int WARMUP = 20000;
+	private static final int ITERATIONS = 200000;
+
+	// a few hundred bytes of slack for the measurement itself
+	private static final long SLACK_BYTES = 1024;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	/**
+	 * Replays the same bytes forever, without allocating.
+	 */
+	static class CyclingInputStream extends InputStream {
+		private final byte[] data;
+		private int pos = 0;
+
+		CyclingInputStream(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			int b = data[pos] & 0xff;
+			pos = (pos + 1) % data.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			int n = Math.min(len, data.length - pos);
+			System.arraycopy(data, pos, b, off, n);
+			pos = (pos + n) % data.length;
+			return n;
+		}
+	}
+
+	static abstract class Work {
+		abstract void run(int i) throws IOException;
+	}
+
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	private long allocatedBy(Work work) throws IOException {
+		for (int i = 0; i < WARMUP; i++) {
+			work.run(i);
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < ITERATIONS; i++) {
+			work.run(i);
+		}
+		return threads.getThreadAllocatedBytes(id) - before;
+	}
+
+	private void assertNoAllocation(String what, Work work) throws IOException {
+		long bytes = allocatedBy(work);
+		assertTrue(what + " allocated " + bytes + " bytes over " + ITERATIONS + " iterations", bytes < SLACK_BYTES);
+	}
+
+	@Test
+	public void receivePath() throws IOException {
+		final LineFramer framer = new LineFramer(1024);
+		final TelemetryParser parser = new TelemetryParser();
+		final long[] sum = new long[1];
+		parser.subscribe(new TelemetryParser.Subscriber() {
+			@Override
+			public void onTelemetry(TelemetryParser.Record record) {
+				if (record.isNumeric()) {
+					sum[0] += record.getNumber();
+				}
+			}
+		});
+		final InputStream in = new CyclingInputStream("batt=87\r\npong=12\r\nver=1.0\r\ntemp=31\r\n".getBytes("UTF-8"));
+		assertNoAllocation("framer and parser", new Work() {
+			@Override
+			void run(int i) throws IOException {
+				framer.fill(in);
+				while (framer.nextLine()) {
+					parser.parse(framer.line());
+				}
+			}
+		});
+	}
+
+	@Test
+	public void encoders() throws IOException {
+		final byte[] out = new byte[64];
+		final VehicleCodec[] codecs = { new DaguCodec(), new RobotCodec(), new ProtocolV2Codec() };
+		final AsciiCommandEncoder encoder = new AsciiCommandEncoder(64);
+		assertNoAllocation("codecs", new Work() {
+			@Override
+			void run(int i) {
+				int throttle = (i % 512) - 256;
+				int steer = 255 - (i % 512);
+				for (VehicleCodec codec : codecs) {
+					codec.encode(throttle, steer, out, 0);
+					codec.commandKey(throttle, steer);
+				}
+				encoder.reset().command('g', steer).command('h', throttle).command('p');
+			}
+		});
+	}
+
+	@Test
+	public void conditioningAndTracing() throws IOException {
+		final AxisFilter filter = AxisFilters.chain(new AxisFilters.DeadZone(16), new AxisFilters.Smoothing(30),
+				new AxisFilters.SlewRateLimit(2048));
+		final ChangeSuppressor suppressor = new ChangeSuppressor(250000000L);
+		final VehicleCodec codec = new ProtocolV2Codec();
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertNoAllocation("filters, suppressor and histogram", new Work() {
+			@Override
+			void run(int i) {
+				long now = i * 16000000L;
+				int value = filter.filter((i % 512) - 256, now);
+				suppressor.shouldSend(codec, value, 0, now);
+				histogram.record(i * 1000L);
+			}
+		});
+	}
+
+	@Test
+	public void controlState() throws IOException {
+		final ControlState control = new ControlState();
+		assertNoAllocation("control state", new Work() {
+			@Override
+			void run(int i) {
+				control.setThrottle(i & 255);
+				control.setSteer(-(i & 255));
+				if ((i & 1023) == 0) {
+					control.stop();
+				}
+				long snapshot = control.get();
+				if (ControlState.mode(snapshot) == null || ControlState.throttle(snapshot) + ControlState.steer(snapshot) > 255) {
+					throw new AssertionError();
+				}
+			}
+		});
+	}
+
+	@Test
+	public void transmitterPost() throws IOException {
+		final ControlTransmitter transmitter = new ControlTransmitter(new ByteArrayOutputStream(), new Object(), null);
+		final byte[] frame = new byte[ProtocolV2.FRAME_LENGTH];
+		// not started: this measures the posting side only, which runs on the UI thread
+		assertNoAllocation("transmitter post", new Work() {
+			@Override
+			void run(int i) {
+				transmitter.post(i & 3, frame, 0, frame.length);
+				transmitter.post(1, i);
+				transmitter.postStop(frame, 0, frame.length, LatencyTracer.NO_INPUT);
+				transmitter.postHousekeeping(frame, 0, 3); // refused once full
+			}
+		});
+	}
+}
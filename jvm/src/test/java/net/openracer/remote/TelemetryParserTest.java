@@ -0,0 +1,166 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelemetryParserTest {
+
+	private final TelemetryParser parser = new TelemetryParser();
+	private final List<String> received = new ArrayList<String>();
+	private TelemetryParser.Record last;
+
+	private final TelemetryParser.Subscriber subscriber = new TelemetryParser.Subscriber() {
+		@Override
+		public void onTelemetry(TelemetryParser.Record record) {
+			received.add(record.getKey() + " " + record + (record.isChanged() ? " changed" : ""));
+			last = record;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		parser.subscribe(subscriber);
+	}
+
+	private boolean parse(String text) throws IOException {
+		LineFramer framer = new LineFramer(256);
+		framer.fill(new ByteArrayInputStream((text + "\n").getBytes("UTF-8")));
+		assertTrue(framer.nextLine());
+		return parser.parse(framer.line());
+	}
+
+	@Test
+	public void recognisesKnownKeys() throws IOException {
+		assertTrue(parse("ver=1.2\r"));
+		assertTrue(parse("cap=proto2,batt,ping\r"));
+		assertTrue(parse("batt=87\r"));
+		assertTrue(parse("pong=42\r"));
+		assertTrue(parse("proto=2"));
+		assertTrue(parse("temp=31"));
+		assertEquals("Version ver=1.2 changed", received.get(0));
+		assertEquals("Capabilities cap=proto2,batt,ping changed", received.get(1));
+		assertEquals("Battery batt=87 changed", received.get(2));
+		assertEquals("Pong pong=42 changed", received.get(3));
+		assertEquals("Protocol proto=2 changed", received.get(4));
+		assertEquals("Unknown temp=31 changed", received.get(5));
+	}
+
+	@Test
+	public void parsesNumbers() throws IOException {
+		parse("batt=87\r");
+		assertTrue(last.isNumeric());
+		assertEquals(87, last.getNumber());
+		parse("batt=-12");
+		assertEquals(-12, last.getNumber());
+		parse("batt=+5");
+		assertEquals(5, last.getNumber());
+		parse("ver=1.2");
+		assertFalse(last.isNumeric());
+		parse("ver=");
+		assertFalse(last.isNumeric());
+		parse("ver=-");
+		assertFalse(last.isNumeric());
+		parse("ver=1234567890123456789"); // too long for the fast path
+		assertFalse(last.isNumeric());
+	}
+
+	@Test
+	public void reportsChangesPerKey() throws IOException {
+		parse("batt=87");
+		assertTrue(last.isChanged());
+		String value = last.getValue();
+		parse("batt=87");
+		assertFalse(last.isChanged());
+		assertSame(value, last.getValue());
+		parse("ver=1");
+		parse("batt=86");
+		assertTrue(last.isChanged());
+		assertEquals("86", last.getValue());
+		parse("batt=860");
+		assertTrue(last.isChanged());
+	}
+
+	@Test
+	public void reportsNewUnknownNameAsChanged() throws IOException {
+		parse("foo=1");
+		assertTrue(last.isChanged());
+		parse("bar=1");
+		assertTrue(last.isChanged());
+		assertEquals("bar", last.getName());
+		parse("bar=1");
+		assertFalse(last.isChanged());
+		parse("foobar=1");
+		assertTrue(last.isChanged());
+	}
+
+	@Test
+	public void findsCapabilityItems() throws IOException {
+		parse("cap=proto2,batt,ping\r");
+		assertTrue(last.hasItem("proto2"));
+		assertTrue(last.hasItem("batt"));
+		assertTrue(last.hasItem("ping"));
+		assertFalse(last.hasItem("pin"));
+		assertFalse(last.hasItem("proto"));
+		assertFalse(last.hasItem(""));
+		parse("cap=proto2,batt");
+		assertFalse(last.hasItem("ping"));
+		parse("cap=");
+		assertFalse(last.hasItem("ping"));
+		assertTrue(last.hasItem(""));
+	}
+
+	@Test
+	public void rejectsMalformedLines() throws IOException {
+		assertFalse(parse(""));
+		assertFalse(parse("no separator"));
+		assertFalse(parse("=value"));
+		assertEquals(0, received.size());
+		assertEquals(3, parser.getMalformedCount());
+		assertEquals(3, parser.getLineCount());
+	}
+
+	@Test
+	public void keepsValueBytesAndTruncatesLongValues() throws IOException {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < TelemetryParser.MAX_VALUE_LENGTH + 10; i++) {
+			longValue.append('x');
+		}
+		parse("cap=" + longValue);
+		assertEquals(TelemetryParser.MAX_VALUE_LENGTH, last.getValueLength());
+		assertEquals((byte) 'x', last.getValueByte(0));
+	}
+
+	@Test
+	public void unsubscribeStopsDelivery() throws IOException {
+		parser.unsubscribe(subscriber);
+		parse("batt=1");
+		assertEquals(0, received.size());
+		assertEquals(1, parser.getLineCount());
+	}
+}
@@ -0,0 +1,166 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Drives the emulator through the app's own connection manager, over an in-memory pipe.
+ */
+public class VehicleEmulatorTest {
+
+	private static final long TIMEOUT_MS = 5000;
+
+	private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+	private final CountDownLatch connected = new CountDownLatch(1);
+	private final CountDownLatch disconnected = new CountDownLatch(1);
+	private VehicleEmulator emulator;
+	private BluetoothConnectionManager manager;
+
+	private void connect(VehicleEmulator.Dialect dialect, LinkShaper.Profile profile) throws Exception {
+		PipeTransport.Pair pair = PipeTransport.pair(4096);
+		emulator = new VehicleEmulator(dialect);
+		emulator.setLinkProfile(profile);
+		emulator.attach(pair.remote);
+		manager = new BluetoothConnectionManager(pair.local, new BluetoothConnectionManager.Listener() {
+			@Override
+			public void onMessage(LineFramer.Line line) {
+				lines.add(line.toString());
+			}
+
+			@Override
+			public void onConnected(BluetoothConnectionManager manager) {
+				connected.countDown();
+			}
+
+			@Override
+			public void onDisconnected(String exitReason) {
+				disconnected.countDown();
+			}
+		});
+		manager.start();
+		assertTrue(connected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (manager != null) {
+			manager.disconnect();
+			manager.join(TIMEOUT_MS);
+		}
+		if (emulator != null) {
+			emulator.detach();
+		}
+	}
+
+	private String nextLine() throws InterruptedException {
+		String line = lines.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		assertNotNull("no reply", line);
+		return line;
+	}
+
+	private void awaitCommands(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (emulator.getCommandCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(count, emulator.getCommandCount());
+	}
+
+	@Test
+	public void handshakeAndDaguControl() throws Exception {
+		connect(VehicleEmulator.Dialect.Dagu, LinkShaper.Profile.IDEAL);
+		assertTrue(manager.postExtension(ExtensionCommand.REPORT_VERSION));
+		assertEquals("ver=" + VehicleEmulator.DEFAULT_VERSION + "\r", nextLine());
+		assertEquals("cap=" + VehicleEmulator.CAPABILITIES + "\r", nextLine());
+
+		emulator.setBatteryLevel(42);
+		assertTrue(manager.postExtension(ExtensionCommand.BATTERY));
+		assertEquals("batt=42\r", nextLine());
+
+		manager.postControl(0, new byte[] { (byte) DaguCodec.commandByte(200, 150) }, 0, 1);
+		awaitCommands(1);
+		assertEquals(192, emulator.getThrottle()); // 200 >> 4 << 4
+		assertEquals(VehicleCodec.AXIS_MAX, emulator.getSteer());
+		assertEquals(0, emulator.getUnknownByteCount());
+	}
+
+	@Test
+	public void robotTextCommands() throws Exception {
+		connect(VehicleEmulator.Dialect.Robot, LinkShaper.Profile.IDEAL);
+		RobotCodec codec = new RobotCodec();
+		byte[] frame = new byte[codec.maxFrameLength()];
+		manager.write(frame, 0, codec.encode(-120, 33, frame, 0));
+		awaitCommands(2); // one for each of g and h
+		assertEquals(-120, emulator.getThrottle());
+		assertEquals(33, emulator.getSteer());
+
+		AsciiCommandEncoder encoder = new AsciiCommandEncoder(64);
+		manager.write(encoder.buffer(), 0, encoder.reset().command('p', 1000).command('i', 0).length());
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (emulator.getRegister('i') != 0 || emulator.getRegister('p') != 1000) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void upgradeToProtocolV2() throws Exception {
+		connect(VehicleEmulator.Dialect.Dagu, LinkShaper.Profile.IDEAL);
+		assertFalse(emulator.isProtocolV2());
+		assertTrue(manager.postExtension(ExtensionCommand.UPGRADE));
+		assertEquals("proto=2\r", nextLine());
+		assertTrue(emulator.isProtocolV2());
+
+		ProtocolV2Codec codec = new ProtocolV2Codec();
+		byte[] frame = new byte[codec.maxFrameLength()];
+		for (int i = 1; i <= 10; i++) {
+			manager.write(frame, 0, codec.encode(-10 * i, 5 * i, frame, 0));
+		}
+		awaitCommands(10);
+		assertEquals(-100, emulator.getThrottle());
+		assertEquals(50, emulator.getSteer());
+	}
+
+	@Test
+	public void pingCrossesShapedLinkBothWays() throws Exception {
+		connect(VehicleEmulator.Dialect.Dagu, new LinkShaper.Profile(25, 0, 0, 1));
+		long start = System.nanoTime();
+		assertTrue(manager.postExtension(ExtensionCommand.PING, 7));
+		assertEquals("pong=7\r", nextLine());
+		long roundTripMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("round trip " + roundTripMs + "ms", roundTripMs >= 50);
+	}
+
+	@Test
+	public void disconnectEndsManager() throws Exception {
+		connect(VehicleEmulator.Dialect.Dagu, LinkShaper.Profile.IDEAL);
+		emulator.detach();
+		assertTrue(disconnected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+	}
+}
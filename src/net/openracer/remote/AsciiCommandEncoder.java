@@ -0,0 +1,110 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Packs robot-style text commands (a letter, an optional decimal integer, and a newline) into a
+ * reusable byte buffer, without creating strings.
+ *
+ * <pre>
+ * encoder.reset().command('g', 0).command('p', 1000);
+ * conn.write(encoder.buffer(), 0, encoder.length());
+ * </pre>
+ *
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class AsciiCommandEncoder {
+
+	/** Longest single command: letter, sign, ten digits and newline. */
+	public static final int MAX_COMMAND_LENGTH = 13;
+
+	private final byte[] buf;
+	private int length = 0;
+
+	public AsciiCommandEncoder(int capacity) {
+		this.buf = new byte[capacity];
+	}
+
+	public AsciiCommandEncoder reset() {
+		length = 0;
+		return this;
+	}
+
+	/**
+	 * Appends a bare command, e.g. "p\n".
+	 */
+	public AsciiCommandEncoder command(char letter) {
+		ensureCapacity(2);
+		buf[length++] = (byte) letter;
+		buf[length++] = '\n';
+		return this;
+	}
+
+	/**
+	 * Appends a command with a value, e.g. "p200\n".
+	 */
+	public AsciiCommandEncoder command(char letter, int value) {
+		ensureCapacity(MAX_COMMAND_LENGTH);
+		length += writeCommand(letter, value, buf, length);
+		return this;
+	}
+
+	public byte[] buffer() {
+		return buf;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (length + needed > buf.length) {
+			throw new IllegalStateException("command buffer full: " + length + " of " + buf.length + " bytes used");
+		}
+	}
+
+	/**
+	 * Writes {@code letter}, the decimal {@code value} and a newline at {@code offset}.
+	 *
+	 * @return the number of bytes written, at most {@link #MAX_COMMAND_LENGTH}
+	 */
+	public static int writeCommand(char letter, int value, byte[] out, int offset) {
+		int pos = offset;
+		out[pos++] = (byte) letter;
+
+		// work with the negative magnitude so Integer.MIN_VALUE needs no special case
+		int negative = value < 0 ? value : -value;
+		if (value < 0) {
+			out[pos++] = '-';
+		}
+
+		int digits = 1;
+		for (int rest = negative / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			out[i] = (byte) ('0' - negative % 10);
+			negative /= 10;
+		}
+		pos += digits;
+
+		out[pos++] = '\n';
+		return pos - offset;
+	}
+}
@@ -0,0 +1,40 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Conditions one control axis, in [{@link VehicleCodec#AXIS_MIN}, {@link VehicleCodec#AXIS_MAX}],
+ * before it is encoded. See {@link AxisFilters} for the implementations.
+ *
+ * <p>
+ * Filters with state are not thread-safe; call them from the thread that encodes control frames.
+ * </p>
+ */
+public interface AxisFilter {
+
+	/**
+	 * @param value the raw (or previously filtered) axis value
+	 * @param nowNanos {@link System#nanoTime()} of the sample, for time-based filters
+	 * @return the conditioned value
+	 */
+	int filter(int value, long nowNanos);
+
+	/**
+	 * Forgets any history, so the next value passes through as if it were the first.
+	 */
+	void reset();
+}
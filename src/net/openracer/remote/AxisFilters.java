@@ -0,0 +1,177 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link AxisFilter} stages: dead zone, exponential smoothing and slew-rate limiting, and a
+ * chain to compose them.
+ */
+public final class AxisFilters {
+
+	private AxisFilters() {
+	}
+
+	/**
+	 * @return a filter applying {@code filters} in order
+	 */
+	public static AxisFilter chain(AxisFilter... filters) {
+		return new Chain(filters.clone());
+	}
+
+	private static final class Chain implements AxisFilter {
+		private final AxisFilter[] filters;
+
+		Chain(AxisFilter[] filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public int filter(int value, long nowNanos) {
+			for (AxisFilter filter : filters) {
+				value = filter.filter(value, nowNanos);
+			}
+			return value;
+		}
+
+		@Override
+		public void reset() {
+			for (AxisFilter filter : filters) {
+				filter.reset();
+			}
+		}
+	}
+
+	/**
+	 * Reads values within {@code radius} of centre as zero, and rescales the rest so the output
+	 * still starts just past zero and reaches full scale.
+	 */
+	public static final class DeadZone implements AxisFilter {
+		private final int radius;
+
+		public DeadZone(int radius) {
+			if (radius < 0 || radius >= VehicleCodec.AXIS_MAX) {
+				throw new IllegalArgumentException("bad dead zone radius: " + radius);
+			}
+			this.radius = radius;
+		}
+
+		@Override
+		public int filter(int value, long nowNanos) {
+			if (value > radius) {
+				return (value - radius) * VehicleCodec.AXIS_MAX / (VehicleCodec.AXIS_MAX - radius);
+			} else if (value < -radius) {
+				return (value + radius) * -VehicleCodec.AXIS_MIN / (-VehicleCodec.AXIS_MIN - radius);
+			}
+			return 0;
+		}
+
+		@Override
+		public void reset() {
+		}
+	}
+
+	/**
+	 * Exponential moving average with a time constant, so the response does not depend on the
+	 * sample rate. Snaps to the input once within one unit, so it settles exactly.
+	 */
+	public static final class Smoothing implements AxisFilter {
+		private final double timeConstantNanos;
+		private boolean primed = false;
+		private double state = 0;
+		private long lastNanos = 0;
+
+		public Smoothing(long timeConstantMs) {
+			if (timeConstantMs <= 0) {
+				throw new IllegalArgumentException("time constant must be positive: " + timeConstantMs);
+			}
+			this.timeConstantNanos = TimeUnit.MILLISECONDS.toNanos(timeConstantMs);
+		}
+
+		@Override
+		public int filter(int value, long nowNanos) {
+			if (!primed) {
+				primed = true;
+				state = value;
+			} else {
+				long elapsed = nowNanos - lastNanos;
+				if (elapsed > 0) {
+					double alpha = 1 - Math.exp(-elapsed / timeConstantNanos);
+					state += (value - state) * alpha;
+				}
+				if (Math.abs(value - state) < 1) {
+					state = value;
+				}
+			}
+			lastNanos = nowNanos;
+			return (int) Math.round(state);
+		}
+
+		@Override
+		public void reset() {
+			primed = false;
+		}
+	}
+
+	/**
+	 * Limits how fast the magnitude can grow, so the car does not lurch; moves towards zero are
+	 * passed through at once, so releasing the stick always stops immediately.
+	 */
+	public static final class SlewRateLimit implements AxisFilter {
+		private final long unitsPerSecond;
+		private boolean primed = false;
+		private int state = 0;
+		private long lastNanos = 0;
+
+		public SlewRateLimit(long unitsPerSecond) {
+			if (unitsPerSecond <= 0) {
+				throw new IllegalArgumentException("rate must be positive: " + unitsPerSecond);
+			}
+			this.unitsPerSecond = unitsPerSecond;
+		}
+
+		@Override
+		public int filter(int value, long nowNanos) {
+			if (!primed) {
+				primed = true;
+				state = 0; // start from standstill
+				lastNanos = nowNanos;
+			}
+			long elapsed = Math.max(0, nowNanos - lastNanos);
+			lastNanos = nowNanos;
+
+			boolean towardsZero = (value >= 0 && value <= state && state >= 0) || (value <= 0 && value >= state && state <= 0);
+			if (towardsZero) {
+				state = value;
+				return state;
+			}
+
+			long maxStep = Math.max(1, elapsed * unitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+			// crossing zero counts as stopping first, then accelerating the other way
+			int from = (value > 0) == (state > 0) ? state : 0;
+			long step = Math.min(maxStep, Math.abs((long) value - from));
+			state = (int) (value > from ? from + step : from - step);
+			return state;
+		}
+
+		@Override
+		public void reset() {
+			primed = false;
+		}
+	}
+}
@@ -18,19 +18,22 @@ package net.openracer.remote;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.UUID;
+import java.io.OutputStream;
 
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 /**
- * Manages a single {@link BluetoothSocket} by creating and connecting it, reading the input stream,
+ * Manages a single {@link Transport} (normally an {@link RfcommTransport}) by connecting it, reading the input stream,
  * providing methods to send data, a method to stop the connection, and notification of connection end.
  * 
  * <p>
- * TODO: This object should be saved over destroy/create, and to do so, it should not
- * maintain a reference to mainActivity.
+ * Apart from logging, nothing here depends on Bluetooth, so the same receive/transmit path runs over
+ * {@link TcpTransport} or {@link PipeTransport} on a plain JVM.
+ * </p>
+ * 
+ * <p>
+ * In the app it is owned by a {@link VehicleSession}, which outlives the activity, so the listener
+ * never refers to an activity; activities attach to the session instead.
  * </p>
  * 
  * @author dave
@@ -39,53 +42,197 @@ import android.util.Log;
 public class BluetoothConnectionManager extends Thread {
 
 	private static final String LOGTAG = "openracer-connectionmanager";
+	private static final boolean LOG_MESSAGES = false;
+	private static final int RECEIVE_BUFFER_SIZE = 1024;
 
 	public static interface Listener {
 
-		void onMessage(String string);
+		/**
+		 * Called on the connection thread for each received line. The line is only valid for the
+		 * duration of the call.
+		 */
+		void onMessage(LineFramer.Line line);
 
 		void onConnected(BluetoothConnectionManager bluetoothConnectionManager);
 
 		void onDisconnected(String exitReason);
 	}
 	
-	private final UUID uuid;
-	private final Listener listener; // TODO: caller should be able to unregister for handling their own destroy/create
-	private final BluetoothDevice device;
+	private final Listener listener;
+	private final Transport transport;
 	private final Object socketLock = new Object();
-	private BluetoothSocket socket = null;
+	private boolean connected = false;
+	private OutputStream out = null; // guarded by socketLock
+	private final byte[] postBuffer = new byte[3]; // guarded by itself
+	private volatile ControlTransmitter transmitter = null;
+	private volatile LatencyTracer latencyTracer = null;
+	private volatile SessionLog sessionLog = null;
+	private volatile LinkWatchdog watchdog = null;
+	private volatile IOException connectFailure = null;
 	
-	public BluetoothConnectionManager(BluetoothDevice device, UUID uuid, Listener listener) {
-		this.device = device;
-		this.uuid = uuid;
+	public BluetoothConnectionManager(Transport transport, Listener listener) {
+		this.transport = transport;
 		this.listener = listener;
 	}
 	
-	public void write(int oneByte) throws IOException {
+	public Transport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Traces write latency of control frames; must be set before {@link #start()}.
+	 */
+	public void setLatencyTracer(LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+	}
+	
+	/**
+	 * Records every byte sent and every line received; must be set before {@link #start()}.
+	 */
+	public void setSessionLog(SessionLog sessionLog) {
+		this.sessionLog = sessionLog;
+	}
+	
+	/**
+	 * Stamps every flush and every read that returns data; must be set before {@link #start()}.
+	 */
+	public void setLinkWatchdog(LinkWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+	
+	/**
+	 * Writes the range in one call, so it is not interleaved with other writes.
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException {
 		synchronized (socketLock) {
-			socket.getOutputStream().write(oneByte);
+			out().write(data, offset, length);
+			out.flush();
+		}
+	}
+	
+	// caller holds socketLock
+	private OutputStream out() throws IOException {
+		if (out == null) {
+			throw new IOException("not connected");
+		}
+		return out;
+	}
+	
+	/**
+	 * Posts the latest control frame for {@code channel} to the transmit thread. Never blocks;
+	 * a frame not yet sent is replaced. Ignored until connected.
+	 * 
+	 * @see ControlTransmitter
+	 */
+	public void postControl(int channel, byte[] data, int offset, int length) {
+		postControl(channel, data, offset, length, LatencyTracer.NO_INPUT);
+	}
+	
+	/**
+	 * @param originNanos input timestamp for latency tracing, or {@link LatencyTracer#NO_INPUT}
+	 */
+	public void postControl(int channel, byte[] data, int offset, int length, long originNanos) {
+		ControlTransmitter t = transmitter;
+		if (t != null) {
+			t.post(channel, data, offset, length, originNanos);
 		}
 	}
 	
-	public void write(String data) throws IOException {
-		synchronized(socketLock) {
-			socket.getOutputStream().write(data.getBytes());
+	/**
+	 * Posts a stop frame to be written ahead of everything queued, dropping control frames not
+	 * yet sent. Never blocks. Ignored until connected.
+	 * 
+	 * @param originNanos input timestamp for latency tracing, or {@link LatencyTracer#NO_INPUT}
+	 */
+	public void postStop(byte[] data, int offset, int length, long originNanos) {
+		ControlTransmitter t = transmitter;
+		if (t != null) {
+			t.postStop(data, offset, length, originNanos);
 		}
 	}
 	
+	/**
+	 * Queues bytes to be written in one piece after any stop and control frames. Never blocks.
+	 * 
+	 * @return false if not connected or the queue is full; nothing is sent
+	 */
+	public boolean postHousekeeping(byte[] data, int offset, int length) {
+		ControlTransmitter t = transmitter;
+		return t != null && t.postHousekeeping(data, offset, length);
+	}
+	
+	/**
+	 * Queues an {@link ExtensionCommand} and its escape byte as housekeeping.
+	 * 
+	 * @return false if not connected or the queue is full
+	 */
+	public boolean postExtension(int command) {
+		synchronized (postBuffer) {
+			postBuffer[0] = (byte) ExtensionCommand.ESCAPE;
+			postBuffer[1] = (byte) command;
+			return postHousekeeping(postBuffer, 0, 2);
+		}
+	}
+	
+	/**
+	 * Queues an {@link ExtensionCommand} with its escape and argument bytes as housekeeping.
+	 * 
+	 * @return false if not connected or the queue is full
+	 */
+	public boolean postExtension(int command, int argument) {
+		synchronized (postBuffer) {
+			postBuffer[0] = (byte) ExtensionCommand.ESCAPE;
+			postBuffer[1] = (byte) command;
+			postBuffer[2] = (byte) argument;
+			return postHousekeeping(postBuffer, 0, 3);
+		}
+	}
+	
+	/**
+	 * Waits until everything posted so far is written.
+	 * 
+	 * @return false if not connected, the connection ended or the time ran out first
+	 */
+	public boolean awaitSent(long timeoutMs) throws InterruptedException {
+		ControlTransmitter t = transmitter;
+		return t != null && t.awaitSent(timeoutMs);
+	}
+	
+	/**
+	 * @return why the transport failed to connect, or null if it connected or has not finished trying
+	 */
+	public IOException getConnectFailure() {
+		return connectFailure;
+	}
+	
+	/**
+	 * @return the outbound queue, for its statistics; null until connected
+	 */
+	public ControlTransmitter getTransmitter() {
+		return transmitter;
+	}
+	
+	/**
+	 * Closes the transport, which ends the connection thread. Does not take the socket lock: a
+	 * writer blocked on a dead link holds it, and only the close unblocks that writer.
+	 */
 	public void disconnect() {
-		synchronized (socketLock) {
-			try {
-				socket.close();
-			} catch (IOException e) {
-				Log.w(LOGTAG, "Exception during socket close during disconnect: " + e.toString(), e);
-			}
+		try {
+			transport.close();
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Exception during socket close during disconnect: " + e.toString(), e);
 		}
 	}
 
-	private void onMessage(final String string) {
-		Log.i(LOGTAG, "rx'd message: '" + string.replace("\n", "\\n").replace("\r", "\\r") + "'");
-		listener.onMessage(string);
+	private void onMessage(LineFramer.Line line) {
+		if (LOG_MESSAGES) {
+			Log.i(LOGTAG, "rx'd message: '" + line.toString().replace("\r", "\\r") + "'");
+		}
+		SessionLog log = sessionLog;
+		if (log != null) {
+			log.append(SessionLog.Direction.Received, line);
+		}
+		listener.onMessage(line);
 	}
 	
 	@Override
@@ -96,54 +243,80 @@ public class BluetoothConnectionManager extends Thread {
 		try {
 			
 			try {
-				Log.i(LOGTAG, "creating RFCOMM socket...");
-				BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuid);
-				
-				Log.i(LOGTAG, "connecting...");
-				socket.connect();
+				Log.i(LOGTAG, "connecting " + transport + "...");
+				transport.connect();
 				
+				SessionLog log = sessionLog;
+				LinkWatchdog watchdog = this.watchdog;
 				synchronized (socketLock) {
-					this.socket = socket;
+					connected = true;
+					out = log == null ? transport.getOutputStream() : new SessionLog.Tap(transport.getOutputStream(), log);
+					if (watchdog != null) {
+						out = new LinkWatchdog.Tap(out, watchdog);
+					}
 				}
+				if (log != null) {
+					log.event("connected " + transport);
+				}
+				
+				Log.i(LOGTAG, "connected: " + transport);
 				
-				Log.i(LOGTAG, "got bt socket: " + socket.toString());
+				ControlTransmitter transmitter = new ControlTransmitter(out, socketLock, latencyTracer);
+				transmitter.start();
+				this.transmitter = transmitter;
 				
 				listener.onConnected(this);
 				
-				InputStream is = socket.getInputStream();
+				InputStream is = transport.getInputStream();
 				
-				StringBuilder b = new StringBuilder();
-				byte[] buf = new byte[1024];
-				while (true) {
-					int nread = is.read(buf, 0, 1024);
-					b.append(new String(buf, 0, nread));
-					
-					String p = b.toString();
-					int sepIndex;
-					while ((sepIndex = p.indexOf('\n')) >= 0) {
-						onMessage(p.substring(0, sepIndex));
-						p = p.substring(sepIndex + 1);
+				LineFramer framer = new LineFramer(RECEIVE_BUFFER_SIZE);
+				int nread;
+				while ((nread = framer.fill(is)) >= 0) {
+					if (nread > 0 && watchdog != null) {
+						watchdog.onReceived(System.nanoTime());
+					}
+					while (framer.nextLine()) {
+						onMessage(framer.line());
 					}
-					b = new StringBuilder(p);
 				}
+				while (framer.nextLine()) {
+					onMessage(framer.line());
+				}
+				
+				exitReason = "bluetooth connection closed by remote device";
+				Log.w(LOGTAG, exitReason);
+				closeSocket();
 			} catch (IOException e) {
 				// this may be due to normally requested disconnect, as it reaches us as an IOException...
+				if (!connected) {
+					connectFailure = e;
+				}
 				exitReason = "bluetooth connection ended: " + e.toString();
 				Log.w(LOGTAG, "bluetooth connection ended: " + e.toString());
-				
-				synchronized (socketLock) {
-					if (socket != null && socket.isConnected()) {
-						try {
-							socket.close();
-						} catch (IOException e1) {
-							Log.w(LOGTAG, "Exception while closing bt socket after failed connect: " + e1.getMessage(), e);
-						}
-					}
-				}
+				closeSocket();
 			}
 			
 		} finally {
+			ControlTransmitter t = transmitter;
+			if (t != null) {
+				t.shutdown();
+			}
+			SessionLog log = sessionLog;
+			if (log != null) {
+				log.event("disconnected: " + exitReason);
+			}
 			listener.onDisconnected(exitReason);
 		}
 	}
-}
\ No newline at end of file
+	
+	private void closeSocket() {
+		// not under socketLock, for the same reason as disconnect()
+		if (connected && transport.isConnected()) {
+			try {
+				transport.close();
+			} catch (IOException e) {
+				Log.w(LOGTAG, "Exception while closing bt socket: " + e.getMessage(), e);
+			}
+		}
+	}
+}
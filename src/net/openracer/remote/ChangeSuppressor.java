@@ -0,0 +1,79 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Decides whether a control state is worth sending: only if it would put a different command on
+ * the wire than the last one sent (per {@link VehicleCodec#commandKey}), or if the last send is
+ * older than the refresh interval, so a lost frame is eventually repaired.
+ *
+ * <p>
+ * Not thread-safe; use from the single thread that encodes control frames.
+ * </p>
+ */
+public class ChangeSuppressor {
+
+	private final long refreshNanos;
+	private VehicleCodec lastCodec = null;
+	private int lastKey = 0;
+	private long lastSentNanos = 0;
+	private volatile long sentCount = 0;
+	private volatile long suppressedCount = 0;
+
+	/**
+	 * @param refreshNanos longest time an unchanged command goes without being sent again
+	 */
+	public ChangeSuppressor(long refreshNanos) {
+		this.refreshNanos = refreshNanos;
+	}
+
+	/**
+	 * @return true if the state should be encoded and sent; it is then taken as the last one sent
+	 */
+	public boolean shouldSend(VehicleCodec codec, int throttle, int steer, long nowNanos) {
+		int key = codec.commandKey(throttle, steer);
+		if (codec == lastCodec && key == lastKey && nowNanos - lastSentNanos < refreshNanos) {
+			suppressedCount++;
+			return false;
+		}
+		lastCodec = codec;
+		lastKey = key;
+		lastSentNanos = nowNanos;
+		sentCount++;
+		return true;
+	}
+
+	/**
+	 * Makes the next state be sent whatever it is.
+	 */
+	public void reset() {
+		lastCodec = null;
+	}
+
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	public long getSuppressedCount() {
+		return suppressedCount;
+	}
+
+	@Override
+	public String toString() {
+		return "sent=" + sentCount + " suppressed=" + suppressedCount;
+	}
+}
@@ -0,0 +1,627 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Runs many vehicle links on a small fixed set of threads, for events with several cars.
+ *
+ * <p>
+ * Where {@link BluetoothConnectionManager} spends a reader and a writer thread on one vehicle,
+ * the engine services every {@link Link} from a fixed pool of I/O threads. They take links with
+ * work from a shared queue, and block on it while there is none. A link is queued when something
+ * is posted to it or input is waiting, and never twice, so one I/O thread at a time services it.
+ * A write blocked on a full link therefore holds only the thread doing it; the others go on
+ * servicing the other links, and a write blocked past the stall timeout closes its link.
+ * </p>
+ *
+ * <p>
+ * Transport streams do not signal arriving input, so one poller thread checks
+ * {@link InputStream#available()} on the connected links at a fixed interval, and parks until a
+ * link connects while there are none. Connecting blocks for seconds on RFCOMM, and adapters
+ * handle one connect at a time anyway, so one connector thread opens links in turn.
+ * </p>
+ *
+ * <p>
+ * Each link has a stop frame and a conflated control frame (as in {@link ControlTransmitter}), a
+ * bounded FIFO for other commands and its own statistics. A {@link Group} fans one control stream
+ * out to several links.
+ * </p>
+ *
+ * <p>
+ * A dropped link is noticed when a read, a write or {@code available()} fails, when
+ * {@link Transport#isConnected()} turns false, or when a write stalls.
+ * </p>
+ */
+public class ConnectionEngine {
+
+	private static final String LOGTAG = "openracer-engine";
+
+	private static final int RECEIVE_BUFFER_SIZE = 1024;
+	private static final int SEND_QUEUE_SIZE = 256;
+	private static final int MAX_READS_PER_PASS = 4; // so one chatty link cannot hold an I/O thread
+
+	public static interface Listener {
+
+		/**
+		 * Called on the connector thread, before any {@link #onDisconnected(Link, String)} for
+		 * the link.
+		 */
+		void onConnected(Link link);
+
+		/**
+		 * Called on an I/O thread. The line is only valid for the duration of the call.
+		 */
+		void onMessage(Link link, LineFramer.Line line);
+
+		/**
+		 * Called once for every link added, connected or not, on the engine thread that noticed
+		 * the end or on the thread that closed the link.
+		 */
+		void onDisconnected(Link link, String reason);
+	}
+
+	private final Listener listener;
+	private final long pollNanos;
+	private final long writeStallNanos;
+	private final IoThread[] ioThreads;
+	private final Connector connector = new Connector();
+	private final Poller poller = new Poller();
+	private final BlockingQueue<Link> ready = new LinkedBlockingQueue<Link>(); // links with work, each at most once
+	private final List<Link> links = new CopyOnWriteArrayList<Link>(); // added and not yet ended
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param ioThreads threads servicing the links; a link stalled on a write holds one of them
+	 *   until the stall timeout
+	 * @param pollIntervalMs how often connected links are checked for input and stalled writes
+	 * @param writeStallMs how long a write may block before its link is closed
+	 */
+	public ConnectionEngine(int ioThreads, long pollIntervalMs, long writeStallMs, Listener listener) {
+		if (ioThreads <= 0) {
+			throw new IllegalArgumentException("need at least one I/O thread: " + ioThreads);
+		}
+		this.listener = listener;
+		this.pollNanos = TimeUnit.MILLISECONDS.toNanos(pollIntervalMs);
+		this.writeStallNanos = TimeUnit.MILLISECONDS.toNanos(writeStallMs);
+		this.ioThreads = new IoThread[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			this.ioThreads[i] = new IoThread(i);
+		}
+	}
+
+	public void start() {
+		connector.start();
+		poller.start();
+		for (IoThread t : ioThreads) {
+			t.start();
+		}
+	}
+
+	/**
+	 * Closes every link, including those still waiting to connect or connecting, and stops the
+	 * engine's threads.
+	 */
+	public synchronized void shutdown() {
+		stopped = true;
+		for (Link link : links) {
+			link.end("engine shut down");
+		}
+		connector.interrupt();
+		LockSupport.unpark(poller);
+		for (IoThread t : ioThreads) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Adds a link and queues its connection; the listener hears about the outcome.
+	 */
+	public synchronized Link add(String name, Transport transport) {
+		if (stopped) {
+			throw new IllegalStateException("engine shut down");
+		}
+		Link link = new Link(name, transport);
+		links.add(link);
+		connector.queue.add(link);
+		return link;
+	}
+
+	/**
+	 * @return the links added and not yet ended, connected or not
+	 */
+	public List<Link> getLinks() {
+		return Collections.unmodifiableList(links);
+	}
+
+	public Group newGroup() {
+		return new Group();
+	}
+
+	/**
+	 * One vehicle connection managed by the engine.
+	 */
+	public class Link {
+		private final String name;
+		private final Transport transport;
+		private final LineFramer framer = new LineFramer(RECEIVE_BUFFER_SIZE); // the servicing I/O thread only
+		private InputStream in; // set by the connector before the link is first queued
+		private OutputStream out;
+
+		// guarded by this
+		private final byte[] stop = new byte[ControlTransmitter.MAX_FRAME_LENGTH];
+		private int stopLength = 0;
+		private final byte[] control = new byte[ControlTransmitter.MAX_FRAME_LENGTH];
+		private int controlLength = 0;
+		private boolean controlDirty = false;
+		private final byte[] queue = new byte[SEND_QUEUE_SIZE];
+		private int queueLength = 0;
+		private boolean scheduled = false; // in the ready queue or being serviced
+		private boolean rescan = false; // work arrived while being serviced
+		private boolean closeWhenSent = false;
+		private boolean ended = false;
+
+		private volatile boolean connected = false;
+		private volatile boolean writing = false;
+		private volatile long writeStartedNanos = 0;
+
+		// statistics; counters touched by posting threads are guarded by this, the rest are written by one thread at a time
+		private volatile long bytesReceived = 0;
+		private volatile long linesReceived = 0;
+		private volatile long bytesSent = 0;
+		private volatile long writeCount = 0;
+		private volatile long maxWriteNanos = 0;
+		private long controlPosted = 0;
+		private long controlSuperseded = 0;
+		private long stopsPosted = 0;
+		private long queueDropped = 0;
+
+		private Link(String name, Transport transport) {
+			this.name = name;
+			this.transport = transport;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Transport getTransport() {
+			return transport;
+		}
+
+		public boolean isConnected() {
+			return connected;
+		}
+
+		/**
+		 * Replaces the pending control frame. Never blocks.
+		 */
+		public void postControl(byte[] data, int offset, int length) {
+			checkLength(length);
+			synchronized (this) {
+				System.arraycopy(data, offset, control, 0, length);
+				controlLength = length;
+				if (controlDirty) {
+					controlSuperseded++;
+				}
+				controlDirty = true;
+				controlPosted++;
+			}
+			schedule();
+		}
+
+		/**
+		 * Sets a stop frame to be written ahead of everything queued, dropping the control frame
+		 * not yet sent. Never blocks.
+		 */
+		public void postStop(byte[] data, int offset, int length) {
+			checkLength(length);
+			synchronized (this) {
+				System.arraycopy(data, offset, stop, 0, length);
+				stopLength = length;
+				if (controlDirty) {
+					controlSuperseded++;
+					controlDirty = false;
+				}
+				stopsPosted++;
+			}
+			schedule();
+		}
+
+		/**
+		 * Queues bytes to be sent in order after any stop and control frame. Never blocks.
+		 *
+		 * @return false, and the bytes are dropped, if the queue is full
+		 */
+		public boolean send(byte[] data, int offset, int length) {
+			synchronized (this) {
+				if (queueLength + length > queue.length) {
+					queueDropped++;
+					return false;
+				}
+				System.arraycopy(data, offset, queue, queueLength, length);
+				queueLength += length;
+			}
+			schedule();
+			return true;
+		}
+
+		/**
+		 * Closes the transport right away.
+		 */
+		public void close() {
+			end("closed");
+		}
+
+		/**
+		 * Closes the link once everything posted so far is written, or right away if it is not
+		 * connected yet. Never blocks.
+		 */
+		public void closeWhenSent() {
+			synchronized (this) {
+				closeWhenSent = true;
+			}
+			if (connected) {
+				schedule();
+			} else {
+				end("closed");
+			}
+		}
+
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+
+		public long getLinesReceived() {
+			return linesReceived;
+		}
+
+		public long getBytesSent() {
+			return bytesSent;
+		}
+
+		public long getWriteCount() {
+			return writeCount;
+		}
+
+		public long getMaxWriteNanos() {
+			return maxWriteNanos;
+		}
+
+		public synchronized long getControlPosted() {
+			return controlPosted;
+		}
+
+		public synchronized long getControlSuperseded() {
+			return controlSuperseded;
+		}
+
+		public synchronized long getStopsPosted() {
+			return stopsPosted;
+		}
+
+		public synchronized long getQueueDropped() {
+			return queueDropped;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + transport + "): rx=" + bytesReceived + "B/" + linesReceived + " lines"
+					+ " tx=" + bytesSent + "B/" + writeCount + " writes"
+					+ " write-max=" + TimeUnit.NANOSECONDS.toMillis(maxWriteNanos) + "ms"
+					+ " control=" + getControlPosted() + " superseded=" + getControlSuperseded()
+					+ " stops=" + getStopsPosted() + " queue-dropped=" + getQueueDropped();
+		}
+
+		// any thread: queues the link for an I/O thread, unless it is queued or being serviced already
+		private void schedule() {
+			synchronized (this) {
+				if (!connected || ended) {
+					return; // the connector queues it once connected
+				}
+				if (scheduled) {
+					rescan = true;
+					return;
+				}
+				scheduled = true;
+			}
+			ready.add(this);
+		}
+
+		// any thread; the first call closes the transport and reports the end
+		private void end(String reason) {
+			synchronized (this) {
+				if (ended) {
+					return;
+				}
+				ended = true;
+				connected = false;
+			}
+			links.remove(this);
+			try {
+				transport.close();
+			} catch (IOException e) {
+				Log.w(LOGTAG, name + ": exception closing transport: " + e.toString());
+			}
+			Log.i(LOGTAG, name + ": " + reason + "; " + this);
+			listener.onDisconnected(this, reason);
+		}
+
+		// poller thread
+		private void poll(long now) {
+			if (writing && now - writeStartedNanos > writeStallNanos) {
+				end("write stalled for " + TimeUnit.NANOSECONDS.toMillis(now - writeStartedNanos) + "ms");
+			} else if (!transport.isConnected()) {
+				end("transport disconnected");
+			} else {
+				try {
+					if (in.available() > 0) {
+						schedule();
+					}
+				} catch (IOException e) {
+					schedule(); // the I/O thread gets the same failure and ends the link
+				}
+			}
+		}
+
+		// I/O thread: copies pending output into buf, returns the byte count
+		private synchronized int takeOutput(byte[] buf) {
+			int length = 0;
+			if (stopLength > 0) {
+				System.arraycopy(stop, 0, buf, 0, stopLength);
+				length = stopLength;
+				stopLength = 0;
+			}
+			if (controlDirty) {
+				System.arraycopy(control, 0, buf, length, controlLength);
+				length += controlLength;
+				controlDirty = false;
+			}
+			System.arraycopy(queue, 0, buf, length, queueLength);
+			length += queueLength;
+			queueLength = 0;
+			return length;
+		}
+
+		// I/O thread: one pass over the input waiting and the output pending
+		private void service(byte[] scratch) {
+			boolean moreInput = false;
+			try {
+				int reads = 0;
+				while (in.available() > 0) {
+					if (reads++ == MAX_READS_PER_PASS) {
+						moreInput = true;
+						break;
+					}
+					int nread = framer.fill(in);
+					if (nread < 0) {
+						throw new IOException("end of stream");
+					}
+					bytesReceived += nread;
+					while (framer.nextLine()) {
+						linesReceived++;
+						listener.onMessage(this, framer.line());
+					}
+				}
+
+				int length = takeOutput(scratch);
+				if (length > 0) {
+					long start = System.nanoTime();
+					writeStartedNanos = start;
+					writing = true;
+					out.write(scratch, 0, length);
+					out.flush();
+					writing = false;
+					long elapsed = System.nanoTime() - start;
+					if (elapsed > maxWriteNanos) {
+						maxWriteNanos = elapsed;
+					}
+					bytesSent += length;
+					writeCount++;
+				}
+			} catch (IOException e) {
+				writing = false;
+				end("connection ended: " + e.toString());
+				return;
+			} catch (RuntimeException e) {
+				writing = false;
+				Log.w(LOGTAG, name + ": listener failed: " + e.toString(), e);
+				end("listener failed: " + e.toString());
+				return;
+			}
+
+			boolean requeue = false;
+			boolean close = false;
+			synchronized (this) {
+				if (ended) {
+					return;
+				}
+				if (rescan || moreInput) {
+					rescan = false;
+					requeue = true;
+				} else if (closeWhenSent) {
+					close = true; // nothing was posted since the last write
+				} else {
+					scheduled = false;
+				}
+			}
+			if (requeue) {
+				ready.add(this);
+			} else if (close) {
+				end("closed");
+			}
+		}
+	}
+
+	/**
+	 * A set of links receiving the same control stream.
+	 */
+	public class Group {
+		private final List<Link> members = new CopyOnWriteArrayList<Link>();
+
+		public void add(Link link) {
+			members.add(link);
+		}
+
+		public void remove(Link link) {
+			members.remove(link);
+		}
+
+		public boolean isEmpty() {
+			return members.isEmpty();
+		}
+
+		public List<Link> getMembers() {
+			return Collections.unmodifiableList(members);
+		}
+
+		/**
+		 * Posts the control frame to every member. Never blocks.
+		 */
+		public void postControl(byte[] data, int offset, int length) {
+			for (Link link : members) {
+				link.postControl(data, offset, length);
+			}
+		}
+
+		/**
+		 * Posts the stop frame to every member. Never blocks.
+		 */
+		public void postStop(byte[] data, int offset, int length) {
+			for (Link link : members) {
+				link.postStop(data, offset, length);
+			}
+		}
+	}
+
+	private static void checkLength(int length) {
+		if (length > ControlTransmitter.MAX_FRAME_LENGTH) {
+			throw new IllegalArgumentException("frame too long: " + length);
+		}
+	}
+
+	private class IoThread extends Thread {
+		private final byte[] scratch = new byte[2 * ControlTransmitter.MAX_FRAME_LENGTH + SEND_QUEUE_SIZE];
+
+		IoThread(int index) {
+			super("openracer-engine-io-" + index);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!stopped) {
+					ready.take().service(scratch);
+				}
+			} catch (InterruptedException e) {
+				// shutdown
+			}
+		}
+	}
+
+	private class Poller extends Thread {
+
+		Poller() {
+			super("openracer-engine-poller");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!stopped) {
+				long now = System.nanoTime();
+				boolean any = false;
+				for (Link link : links) {
+					if (link.connected) {
+						any = true;
+						link.poll(now);
+					}
+				}
+				if (any) {
+					LockSupport.parkNanos(this, pollNanos);
+				} else {
+					LockSupport.park(this); // until a link connects
+				}
+			}
+		}
+	}
+
+	private class Connector extends Thread {
+		private final BlockingQueue<Link> queue = new LinkedBlockingQueue<Link>();
+
+		Connector() {
+			super("openracer-engine-connector");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!stopped) {
+					connect(queue.take());
+				}
+			} catch (InterruptedException e) {
+				// shutdown
+			}
+		}
+
+		private void connect(Link link) {
+			synchronized (link) {
+				if (link.ended) {
+					return;
+				}
+			}
+			try {
+				Log.i(LOGTAG, link.name + ": connecting " + link.transport + "...");
+				link.transport.connect();
+				link.in = link.transport.getInputStream();
+				link.out = link.transport.getOutputStream();
+			} catch (IOException e) {
+				link.end("could not connect: " + e.toString());
+				return;
+			}
+			synchronized (link) {
+				if (link.ended) {
+					// closed while connecting, possibly before the transport had anything to close
+					try {
+						link.transport.close();
+					} catch (IOException e) {
+						Log.w(LOGTAG, link.name + ": exception closing transport: " + e.toString());
+					}
+					return;
+				}
+				link.connected = true;
+				listener.onConnected(link); // under the lock, so any end is reported after it
+			}
+			LockSupport.unpark(poller);
+			link.schedule(); // for anything posted while connecting
+		}
+	}
+}
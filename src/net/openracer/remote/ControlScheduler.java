@@ -0,0 +1,180 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calls a {@link Tick} at a fixed rate, independent of how often input arrives.
+ *
+ * <p>
+ * Ticks are scheduled against absolute deadlines, so lateness does not accumulate. If the thread
+ * falls more than a whole period behind, the missed ticks are skipped (and counted) rather than
+ * fired back to back. The lateness of every tick is recorded as jitter.
+ * </p>
+ *
+ * <p>
+ * {@link #tickNow()} fires an extra tick as soon as the thread wakes, for input that should not
+ * wait out the period, such as a stop; the regular schedule is unchanged.
+ * </p>
+ */
+public class ControlScheduler extends Thread {
+
+	public static interface Tick {
+
+		/**
+		 * Called once per period on the scheduler thread.
+		 *
+		 * @param nowNanos {@link System#nanoTime()} at which the tick fired
+		 */
+		void onTick(long nowNanos);
+	}
+
+	private final long periodNanos;
+	private final Tick tick;
+	private volatile boolean stopped = false;
+	private volatile boolean tickRequested = false;
+
+	// written by the scheduler thread only
+	private volatile long tickCount = 0;
+	private volatile long missedTickCount = 0;
+	private volatile long extraTickCount = 0;
+	private volatile long totalJitterNanos = 0;
+	private volatile long maxJitterNanos = 0;
+
+	public ControlScheduler(int hz, Tick tick) {
+		super("openracer-control-" + hz + "hz");
+		if (hz <= 0) {
+			throw new IllegalArgumentException("rate must be positive: " + hz);
+		}
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / hz;
+		this.tick = tick;
+		setDaemon(true);
+	}
+
+	/**
+	 * Stops ticking and waits for the thread to end, so no tick of this scheduler runs after this
+	 * returns and none can overlap the ticks of its replacement. Ticks are short, so the wait is
+	 * too. From within a tick it only stops the thread.
+	 */
+	public void shutdown() {
+		stopped = true;
+		interrupt();
+		if (Thread.currentThread() == this) {
+			return;
+		}
+		boolean interrupted = false;
+		while (isAlive()) {
+			try {
+				join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fires an extra tick without waiting for the next deadline; callable from any thread.
+	 */
+	public void tickNow() {
+		tickRequested = true;
+		LockSupport.unpark(this);
+	}
+
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	public long getMissedTickCount() {
+		return missedTickCount;
+	}
+
+	/**
+	 * @return ticks fired by {@link #tickNow()}, not counted in {@link #getTickCount()}
+	 */
+	public long getExtraTickCount() {
+		return extraTickCount;
+	}
+
+	public long getMaxJitterNanos() {
+		return maxJitterNanos;
+	}
+
+	public long getMeanJitterNanos() {
+		long n = tickCount;
+		return n == 0 ? 0 : totalJitterNanos / n;
+	}
+
+	@Override
+	public String toString() {
+		return "ticks=" + tickCount + " missed=" + missedTickCount + " extra=" + extraTickCount
+				+ " jitter-mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanJitterNanos()) + "us"
+				+ " jitter-max=" + TimeUnit.NANOSECONDS.toMicros(maxJitterNanos) + "us";
+	}
+
+	@Override
+	public void run() {
+		long deadline = System.nanoTime();
+		while (!stopped) {
+			deadline += periodNanos;
+
+			long now;
+			while ((now = System.nanoTime()) - deadline < 0) {
+				if (tickRequested) {
+					break;
+				}
+				LockSupport.parkNanos(deadline - now);
+				if (stopped) {
+					return;
+				}
+			}
+			tickRequested = false;
+
+			if (now - deadline < 0) {
+				// requested ahead of schedule; the regular tick for this deadline still fires
+				deadline -= periodNanos;
+				extraTickCount++;
+				tick.onTick(now);
+				continue;
+			}
+
+			long lateness = now - deadline;
+			if (lateness >= periodNanos) {
+				long missed = lateness / periodNanos;
+				missedTickCount += missed;
+				deadline += missed * periodNanos;
+				lateness -= missed * periodNanos;
+			}
+
+			totalJitterNanos += lateness;
+			if (lateness > maxJitterNanos) {
+				maxJitterNanos = lateness;
+			}
+			tickCount++;
+
+			tick.onTick(now);
+		}
+	}
+}
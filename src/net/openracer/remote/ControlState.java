@@ -0,0 +1,133 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The driver's control state, packed into one {@code long} and published atomically, so any
+ * thread reads a consistent (throttle, steer, mode) without locks and never half of an update.
+ *
+ * <p>
+ * {@link #get()} returns a snapshot; take it once and unpack it with the static accessors.
+ * Updates are compare-and-set loops, so input threads can write concurrently without losing
+ * each other's axis. Each {@link #stop()} also advances a stop sequence number, so a reader can
+ * tell a new stop from the state merely still being stopped.
+ * </p>
+ *
+ * <pre>
+ *   bits  0-15  throttle (signed)
+ *   bits 16-31  steer (signed)
+ *   bits 32-39  {@link Mode}
+ *   bits 40-63  stop sequence
+ * </pre>
+ */
+public final class ControlState {
+
+	public static enum Mode {
+		/** Following the driver's input. */
+		Drive,
+		/** Stopped until the next input. */
+		Stop;
+	}
+
+	private static final Mode[] MODES = Mode.values();
+	private static final int STOP_SEQUENCE_MASK = 0xffffff;
+
+	private final AtomicLong packed = new AtomicLong(pack(0, 0, Mode.Drive, 0));
+
+	static long pack(int throttle, int steer, Mode mode, int stopSequence) {
+		return (clamp(throttle) & 0xffffL)
+				| (clamp(steer) & 0xffffL) << 16
+				| (long) mode.ordinal() << 32
+				| (long) (stopSequence & STOP_SEQUENCE_MASK) << 40;
+	}
+
+	private static int clamp(int value) {
+		return value < Short.MIN_VALUE ? Short.MIN_VALUE : (value > Short.MAX_VALUE ? Short.MAX_VALUE : value);
+	}
+
+	public static int throttle(long snapshot) {
+		return (short) snapshot;
+	}
+
+	public static int steer(long snapshot) {
+		return (short) (snapshot >>> 16);
+	}
+
+	public static Mode mode(long snapshot) {
+		return MODES[(int) (snapshot >>> 32) & 0xff];
+	}
+
+	public static int stopSequence(long snapshot) {
+		return (int) (snapshot >>> 40) & STOP_SEQUENCE_MASK;
+	}
+
+	/**
+	 * @return the current state, for the static accessors
+	 */
+	public long get() {
+		return packed.get();
+	}
+
+	/**
+	 * Sets the throttle, keeping the steering, and resumes {@link Mode#Drive}.
+	 */
+	public void setThrottle(int throttle) {
+		long current;
+		do {
+			current = packed.get();
+		} while (!packed.compareAndSet(current, pack(throttle, steer(current), Mode.Drive, stopSequence(current))));
+	}
+
+	/**
+	 * Sets the steering, keeping the throttle, and resumes {@link Mode#Drive}.
+	 */
+	public void setSteer(int steer) {
+		long current;
+		do {
+			current = packed.get();
+		} while (!packed.compareAndSet(current, pack(throttle(current), steer, Mode.Drive, stopSequence(current))));
+	}
+
+	/**
+	 * Sets both axes at once and resumes {@link Mode#Drive}.
+	 */
+	public void set(int throttle, int steer) {
+		long current;
+		do {
+			current = packed.get();
+		} while (!packed.compareAndSet(current, pack(throttle, steer, Mode.Drive, stopSequence(current))));
+	}
+
+	/**
+	 * Centres both axes, enters {@link Mode#Stop} and advances the stop sequence.
+	 */
+	public void stop() {
+		long current;
+		do {
+			current = packed.get();
+		} while (!packed.compareAndSet(current, pack(0, 0, Mode.Stop, stopSequence(current) + 1)));
+	}
+
+	@Override
+	public String toString() {
+		long snapshot = packed.get();
+		return mode(snapshot) + " throttle=" + throttle(snapshot) + " steer=" + steer(snapshot)
+				+ " stops=" + stopSequence(snapshot);
+	}
+}
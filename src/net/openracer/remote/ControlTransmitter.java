@@ -0,0 +1,456 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.util.Log;
+
+/**
+ * The outbound queue: sends everything posted to it from a single writer thread, in three
+ * bounded priority lanes.
+ *
+ * <ol>
+ * <li><b>Stop</b>: one frame, from {@link #postStop(byte[], int, int, long)}. Posting it drops
+ * every control frame not yet written, and it goes out ahead of everything else.</li>
+ * <li><b>Control</b>: the newest frame per channel, from {@link #post(int, byte[], int, int)}. If a
+ * channel is posted again before the writer gets to it, the older frame is dropped, so a slow
+ * link sends fewer, fresher frames instead of building a backlog.</li>
+ * <li><b>Housekeeping</b>: queries and multi-command strings, from
+ * {@link #postHousekeeping(byte[], int, int)}, in order, up to {@link #HOUSEKEEPING_CAPACITY}
+ * waiting; more are refused. One goes out per write, so a stop never waits behind a run of them.</li>
+ * </ol>
+ *
+ * <p>
+ * Posting copies the bytes and returns without touching the stream. Each wake-up writes the
+ * pending stop, the dirty control channels in channel order, and the oldest housekeeping entry,
+ * in one write. The time from post to write is recorded per lane; for a control channel it runs
+ * from the post that found the channel clean, as a superseded frame's wait is the channel's too.
+ * </p>
+ */
+public class ControlTransmitter extends Thread {
+
+	private static final String LOGTAG = "openracer-transmitter";
+
+	public static final int CHANNELS = 4;
+	public static final int MAX_FRAME_LENGTH = 32;
+	public static final int HOUSEKEEPING_CAPACITY = 8;
+
+	public static enum Lane {
+		Stop, Control, Housekeeping;
+	}
+
+	/**
+	 * Fills in per-frame fields, such as a sequence number, as a stop or control frame is
+	 * written, so frames dropped before writing leave no gap.
+	 */
+	public static interface FrameStamper {
+
+		/**
+		 * Called on the writer thread for each stop and control frame about to be written; may
+		 * rewrite the frame in place, keeping its length.
+		 */
+		void stamp(byte[] frame, int offset, int length);
+	}
+
+	private final OutputStream out;
+	private final Object writeLock;
+	private final LatencyTracer tracer;
+	private volatile FrameStamper stamper = null;
+
+	// guarded by this
+	private final byte[] stopFrame = new byte[MAX_FRAME_LENGTH];
+	private int stopLength = 0;
+	private long stopOrigin = LatencyTracer.NO_INPUT;
+	private long stopPostedAt = 0;
+	private boolean stopPending = false;
+	private final byte[][] pending = new byte[CHANNELS][MAX_FRAME_LENGTH];
+	private final int[] pendingLength = new int[CHANNELS];
+	private final long[] pendingOrigin = new long[CHANNELS];
+	private final long[] pendingPostedAt = new long[CHANNELS];
+	private final boolean[] dirty = new boolean[CHANNELS];
+	private final byte[][] housekeeping = new byte[HOUSEKEEPING_CAPACITY][MAX_FRAME_LENGTH];
+	private final int[] housekeepingLength = new int[HOUSEKEEPING_CAPACITY];
+	private final long[] housekeepingPostedAt = new long[HOUSEKEEPING_CAPACITY];
+	private int housekeepingHead = 0;
+	private int housekeepingCount = 0;
+	private boolean anyPending = false;
+	private boolean stopped = false;
+	private long postedCount = 0;
+	private long supersededCount = 0;
+	private long preemptedCount = 0;
+	private long refusedCount = 0;
+
+	// a batch is taken but not yet written; with drainWaiters, signals awaitSent without the writer taking this again
+	private volatile boolean writing = false;
+	private volatile int drainWaiters = 0; // changed under this
+
+	// writer thread only
+	private final byte[] sendBuffer = new byte[(CHANNELS + 2) * MAX_FRAME_LENGTH];
+	private final long[] sendOrigin = new long[CHANNELS + 1]; // the control channels, then the stop
+	private final long[] sendPostedAt = new long[CHANNELS + 2]; // then housekeeping; 0 if not sent
+	private volatile long writeCount = 0;
+
+	private final LatencyHistogram[] queueLatency = {
+		new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()
+	};
+
+	/**
+	 * @param out stream the frames are written to
+	 * @param writeLock held while writing, so other writers to the same stream are not interleaved
+	 * @param tracer receives {@link LatencyTracer.Stage#Write} latencies; may be null
+	 */
+	public ControlTransmitter(OutputStream out, Object writeLock, LatencyTracer tracer) {
+		super("openracer-transmitter");
+		this.out = out;
+		this.writeLock = writeLock;
+		this.tracer = tracer;
+		setDaemon(true);
+	}
+
+	/**
+	 * Sets what stamps the stop and control frames as they are written; null for none.
+	 */
+	public void setFrameStamper(FrameStamper stamper) {
+		this.stamper = stamper;
+	}
+
+	private static void checkLength(int length) {
+		if (length > MAX_FRAME_LENGTH) {
+			throw new IllegalArgumentException("frame too long: " + length);
+		}
+	}
+
+	// caller holds this
+	private void wakeWriter() {
+		if (!anyPending) {
+			anyPending = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Replaces the pending frame for {@code channel}. Never blocks on I/O.
+	 */
+	public void post(int channel, byte[] data, int offset, int length) {
+		post(channel, data, offset, length, LatencyTracer.NO_INPUT);
+	}
+
+	/**
+	 * Replaces the pending frame for {@code channel}. Never blocks on I/O.
+	 * 
+	 * @param originNanos input timestamp the frame is traced against, or {@link LatencyTracer#NO_INPUT};
+	 *   if the replaced frame carried an older origin, that one is kept
+	 */
+	public void post(int channel, byte[] data, int offset, int length, long originNanos) {
+		checkLength(length);
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			System.arraycopy(data, offset, pending[channel], 0, length);
+			pendingLength[channel] = length;
+			if (dirty[channel]) {
+				supersededCount++;
+				if (pendingOrigin[channel] == LatencyTracer.NO_INPUT) {
+					pendingOrigin[channel] = originNanos;
+				}
+			} else {
+				pendingOrigin[channel] = originNanos;
+				pendingPostedAt[channel] = System.nanoTime();
+			}
+			dirty[channel] = true;
+			postedCount++;
+			wakeWriter();
+		}
+	}
+
+	public void post(int channel, int oneByte) {
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			pending[channel][0] = (byte) oneByte;
+			pendingLength[channel] = 1;
+			if (dirty[channel]) {
+				supersededCount++;
+			} else {
+				pendingOrigin[channel] = LatencyTracer.NO_INPUT;
+				pendingPostedAt[channel] = System.nanoTime();
+			}
+			dirty[channel] = true;
+			postedCount++;
+			wakeWriter();
+		}
+	}
+
+	/**
+	 * Posts a stop frame ahead of everything else, dropping the control frames not yet written.
+	 * Never blocks on I/O.
+	 *
+	 * @param originNanos input timestamp the frame is traced against, or {@link LatencyTracer#NO_INPUT}
+	 */
+	public void postStop(byte[] data, int offset, int length, long originNanos) {
+		checkLength(length);
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			for (int channel = 0; channel < CHANNELS; channel++) {
+				if (dirty[channel]) {
+					dirty[channel] = false;
+					preemptedCount++;
+				}
+			}
+			if (stopPending) {
+				supersededCount++;
+			}
+			System.arraycopy(data, offset, stopFrame, 0, length);
+			stopLength = length;
+			stopOrigin = originNanos;
+			stopPostedAt = now;
+			stopPending = true;
+			postedCount++;
+			wakeWriter();
+		}
+	}
+
+	/**
+	 * Queues bytes behind any stop and control frames, to be written in one piece. Never blocks
+	 * on I/O.
+	 *
+	 * @return false if the housekeeping lane is full or the transmitter stopped; nothing is queued
+	 */
+	public boolean postHousekeeping(byte[] data, int offset, int length) {
+		checkLength(length);
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (stopped) {
+				return false;
+			}
+			if (housekeepingCount == HOUSEKEEPING_CAPACITY) {
+				refusedCount++;
+				return false;
+			}
+			int slot = (housekeepingHead + housekeepingCount) % HOUSEKEEPING_CAPACITY;
+			System.arraycopy(data, offset, housekeeping[slot], 0, length);
+			housekeepingLength[slot] = length;
+			housekeepingPostedAt[slot] = now;
+			housekeepingCount++;
+			postedCount++;
+			wakeWriter();
+			return true;
+		}
+	}
+
+	/**
+	 * Waits until everything posted so far is written.
+	 *
+	 * @return false if the transmitter stopped or the time ran out first
+	 */
+	public synchronized boolean awaitSent(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		drainWaiters++;
+		try {
+			while ((anyPending || writing) && !stopped) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return false;
+				}
+				wait(wait);
+			}
+			return !stopped;
+		} finally {
+			drainWaiters--;
+		}
+	}
+
+	/**
+	 * Stops the writer thread; frames not yet written are dropped.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			stopped = true;
+			notifyAll();
+		}
+	}
+
+	public synchronized long getPostedCount() {
+		return postedCount;
+	}
+
+	/**
+	 * @return the number of frames replaced by a newer one before they were written
+	 */
+	public synchronized long getSupersededCount() {
+		return supersededCount;
+	}
+
+	/**
+	 * @return the number of control frames dropped by a stop
+	 */
+	public synchronized long getPreemptedCount() {
+		return preemptedCount;
+	}
+
+	/**
+	 * @return the number of housekeeping posts refused because the lane was full
+	 */
+	public synchronized long getRefusedCount() {
+		return refusedCount;
+	}
+
+	/**
+	 * @return entries waiting in all lanes: the stop, dirty control channels and housekeeping
+	 */
+	public synchronized int getQueueDepth() {
+		int depth = stopPending ? 1 : 0;
+		for (int channel = 0; channel < CHANNELS; channel++) {
+			if (dirty[channel]) {
+				depth++;
+			}
+		}
+		return depth + housekeepingCount;
+	}
+
+	/**
+	 * @return time from post to the end of the write, for entries in {@code lane}
+	 */
+	public LatencyHistogram getQueueLatency(Lane lane) {
+		return queueLatency[lane.ordinal()];
+	}
+
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		synchronized (this) {
+			b.append("depth=").append(getQueueDepth())
+				.append(" superseded=").append(supersededCount)
+				.append(" preempted=").append(preemptedCount)
+				.append(" refused=").append(refusedCount);
+		}
+		for (Lane lane : Lane.values()) {
+			b.append('\n').append(lane).append(": ").append(queueLatency[lane.ordinal()]);
+		}
+		return b.toString();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				int length = 0;
+				FrameStamper stamper = this.stamper;
+				synchronized (this) {
+					while (!anyPending && !stopped) {
+						wait();
+					}
+					if (stopped) {
+						break;
+					}
+					if (stopPending) {
+						System.arraycopy(stopFrame, 0, sendBuffer, 0, stopLength);
+						if (stamper != null) {
+							stamper.stamp(sendBuffer, 0, stopLength);
+						}
+						length = stopLength;
+						sendOrigin[CHANNELS] = stopOrigin;
+						sendPostedAt[CHANNELS] = stopPostedAt;
+						stopPending = false;
+					} else {
+						sendOrigin[CHANNELS] = LatencyTracer.NO_INPUT;
+						sendPostedAt[CHANNELS] = 0;
+					}
+					for (int channel = 0; channel < CHANNELS; channel++) {
+						if (dirty[channel]) {
+							System.arraycopy(pending[channel], 0, sendBuffer, length, pendingLength[channel]);
+							if (stamper != null) {
+								stamper.stamp(sendBuffer, length, pendingLength[channel]);
+							}
+							length += pendingLength[channel];
+							sendOrigin[channel] = pendingOrigin[channel];
+							sendPostedAt[channel] = pendingPostedAt[channel];
+							dirty[channel] = false;
+						} else {
+							sendOrigin[channel] = LatencyTracer.NO_INPUT;
+							sendPostedAt[channel] = 0;
+						}
+					}
+					if (housekeepingCount > 0) {
+						int slot = housekeepingHead;
+						System.arraycopy(housekeeping[slot], 0, sendBuffer, length, housekeepingLength[slot]);
+						length += housekeepingLength[slot];
+						sendPostedAt[CHANNELS + 1] = housekeepingPostedAt[slot];
+						housekeepingHead = (housekeepingHead + 1) % HOUSEKEEPING_CAPACITY;
+						housekeepingCount--;
+					} else {
+						sendPostedAt[CHANNELS + 1] = 0;
+					}
+					anyPending = housekeepingCount > 0;
+					writing = true;
+				}
+
+				synchronized (writeLock) {
+					out.write(sendBuffer, 0, length);
+					out.flush();
+				}
+				writeCount++;
+				long now = System.nanoTime();
+
+				writing = false;
+				if (drainWaiters > 0) {
+					synchronized (this) {
+						notifyAll();
+					}
+				}
+
+				for (int channel = 0; channel < CHANNELS; channel++) {
+					if (sendPostedAt[channel] != 0) {
+						queueLatency[Lane.Control.ordinal()].record(now - sendPostedAt[channel]);
+					}
+				}
+				if (sendPostedAt[CHANNELS] != 0) {
+					queueLatency[Lane.Stop.ordinal()].record(now - sendPostedAt[CHANNELS]);
+				}
+				if (sendPostedAt[CHANNELS + 1] != 0) {
+					queueLatency[Lane.Housekeeping.ordinal()].record(now - sendPostedAt[CHANNELS + 1]);
+				}
+
+				if (tracer != null) {
+					for (int channel = 0; channel <= CHANNELS; channel++) {
+						tracer.record(LatencyTracer.Stage.Write, sendOrigin[channel], now);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Log.i(LOGTAG, "transmitter interrupted");
+		} catch (IOException e) {
+			Log.w(LOGTAG, "transmit failed: " + e.toString());
+		} finally {
+			synchronized (this) {
+				stopped = true;
+				notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * The original Dagu i-Racer single-byte protocol.
+ *
+ * <p>
+ * The high nibble selects the direction/steering combination and the low nibble is one of 16
+ * speed steps. Steering is bucketed into {@link Steer} positions. The byte for every
+ * (direction, steering, speed) combination is precomputed in a 96-entry table.
+ * </p>
+ */
+public class DaguCodec implements VehicleCodec {
+
+	public static enum Steer {
+		Left,
+		Straight,
+		Right,
+	}
+
+	/** Steering values beyond this magnitude turn the wheels. */
+	public static final int STEER_THRESHOLD = 100;
+
+	private static final int SPEED_STEPS = 16;
+	private static final int STEER_POSITIONS = 3;
+
+	// indexed by (reverse * STEER_POSITIONS + steer) * SPEED_STEPS + speed
+	private static final byte[] TABLE = new byte[2 * STEER_POSITIONS * SPEED_STEPS];
+
+	static {
+		for (int reverse = 0; reverse < 2; reverse++) {
+			for (Steer steer : Steer.values()) {
+				for (int speed = 0; speed < SPEED_STEPS; speed++) {
+					TABLE[index(reverse, steer.ordinal(), speed)] = (byte) ((highNibble(reverse != 0, steer, speed) << 4) | speed);
+				}
+			}
+		}
+	}
+
+	private static int highNibble(boolean reverse, Steer steer, int speed) {
+		if (speed == 0) {
+			switch (steer) {
+			case Left: return 3;
+			case Right: return 4;
+			default: return 0;
+			}
+		} else if (!reverse) {
+			switch (steer) {
+			case Left: return 5;
+			case Right: return 6;
+			default: return 1;
+			}
+		} else {
+			switch (steer) {
+			case Left: return 7;
+			case Right: return 8;
+			default: return 2;
+			}
+		}
+	}
+
+	private static int index(int reverse, int steer, int speed) {
+		return (reverse * STEER_POSITIONS + steer) * SPEED_STEPS + speed;
+	}
+
+	public static Steer steerFor(int steer) {
+		if (steer < -STEER_THRESHOLD) return Steer.Left;
+		if (steer > STEER_THRESHOLD) return Steer.Right;
+		return Steer.Straight;
+	}
+
+	/**
+	 * @return the command byte, 0-255, for the given axis values; out-of-range values are clamped
+	 */
+	public static int commandByte(int throttle, int steer) {
+		if (throttle < AXIS_MIN) throttle = AXIS_MIN; // so negating can't overflow
+		int reverse = throttle >>> 31;
+		int speed = throttle < 0 ? -throttle : throttle;
+		if (speed > 255) speed = 255;
+		int steerIndex = steer < -STEER_THRESHOLD ? 0 : (steer > STEER_THRESHOLD ? 2 : 1);
+		return TABLE[index(reverse, steerIndex, speed >> 4)] & 0xff;
+	}
+
+	@Override
+	public int encode(int throttle, int steer, byte[] out, int offset) {
+		out[offset] = (byte) commandByte(throttle, steer);
+		return 1;
+	}
+
+	@Override
+	public int commandKey(int throttle, int steer) {
+		return commandByte(throttle, steer);
+	}
+
+	@Override
+	public int maxFrameLength() {
+		return 1;
+	}
+}
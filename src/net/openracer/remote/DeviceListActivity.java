@@ -36,10 +36,8 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
-import android.widget.TextView;
 
 public class DeviceListActivity extends Activity {
 
@@ -65,21 +63,19 @@ public class DeviceListActivity extends Activity {
 					Log.e(LOGTAG, "pushed");
 					v.setEnabled(false);
 					discoveredDevices.clear();
+					discoveredAdapter.setEmptyText(null);
 					doDiscovery();
 				}
 			}
 		});
 		
 		
-		pairedDevices = new ArrayAdapter<String>(this, R.layout.btdevice_list_item);	
-		discoveredDevices = new ArrayAdapter<String>(this, R.layout.btdevice_list_item);	
-		
 		ListView discoveredListView = (ListView) findViewById(R.id.listView2);
-		discoveredListView.setAdapter(discoveredDevices);
+		discoveredAdapter = new DeviceListAdapter(this, discoveredDevices, discoveredListView, null);
 		discoveredListView.setOnItemClickListener(deviceClickListener);
 		
 		ListView pairedListView = (ListView) findViewById(R.id.listView1);
-		pairedListView.setAdapter(pairedDevices);
+		new DeviceListAdapter(this, pairedDevices, pairedListView, "No paired devices.");
 		pairedListView.setOnItemClickListener(deviceClickListener);
 		
 		registerReceiver(receiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
@@ -103,12 +99,9 @@ public class DeviceListActivity extends Activity {
 				button.setEnabled(false);
 			}
 			Set<BluetoothDevice> sysPairedDevices = btAdapter.getBondedDevices();
-			if (sysPairedDevices.isEmpty()) {
-				pairedDevices.add("No paired devices.");
-			} else {
-				for (BluetoothDevice pDev: sysPairedDevices) {
-					pairedDevices.add(pDev.getName() + "\n" + pDev.getAddress());
-				}
+			long now = System.currentTimeMillis();
+			for (BluetoothDevice pDev: sysPairedDevices) {
+				pairedDevices.update(pDev.getAddress(), pDev.getName(), DeviceRegistry.NO_RSSI, true, now);
 			}
 		} else {
 			Button button = (Button) findViewById(R.id.button1);
@@ -120,34 +113,26 @@ public class DeviceListActivity extends Activity {
 	
 	private OnItemClickListener deviceClickListener = new OnItemClickListener() {
 		@Override
-		public void onItemClick(AdapterView<?> av, View v, int arg2, long arg3) {
+		public void onItemClick(AdapterView<?> av, View v, int position, long id) {
 			btAdapter.cancelDiscovery();
 			
-			TextView item = (TextView) v;
-			
-			String clickedText = item.getText().toString();
-			
-			int separatorIndex = clickedText.indexOf('\n');
-			
-			if (separatorIndex >= 0) {
-				String name = clickedText.substring(0, separatorIndex);
-				String address = clickedText.substring(separatorIndex + 1);
+			DeviceRegistry.Device device = (DeviceRegistry.Device) av.getItemAtPosition(position);
+			if (device != null) {
+				Log.i(LOGTAG, "clicked: " + device);
 				
-				if (address.length() == 17) {
-					Log.i(LOGTAG, "clicked: '" + name + "/" + address + "'");
-					
-					Intent intent = new Intent();
-					intent.putExtra("selected_device_address", address);
-					intent.putExtra("selected_device_name", name);
-					setResult(Activity.RESULT_OK, intent);
-					finish();
-				}
+				Intent intent = new Intent();
+				intent.putExtra("selected_device_address", device.getAddress());
+				intent.putExtra("selected_device_name", device.getDisplayName());
+				setResult(Activity.RESULT_OK, intent);
+				finish();
 			}
 		}
 	};
 	
-	private ArrayAdapter<String> pairedDevices;
-	private ArrayAdapter<String> discoveredDevices;
+	// keyed by address; a device found again is updated in place
+	private final DeviceRegistry pairedDevices = new DeviceRegistry();
+	private final DeviceRegistry discoveredDevices = new DeviceRegistry();
+	private DeviceListAdapter discoveredAdapter;
 	
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
@@ -160,19 +145,24 @@ public class DeviceListActivity extends Activity {
 		public void onReceive(Context context, Intent intent) {
 			String action = intent.getAction();
 			
-			Log.i(LOGTAG, "rx'd broadcast - " + action);
-			
 			if (BluetoothDevice.ACTION_FOUND.equals(action)) {
 				BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+				String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+				if (name == null) {
+					name = device.getName();
+				}
+				int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceRegistry.NO_RSSI);
+				long now = System.currentTimeMillis();
 				if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
-					discoveredDevices.add(device.getName() + "\n" + device.getAddress());
+					discoveredDevices.update(device.getAddress(), name, rssi, false, now);
+				} else if (pairedDevices.get(device.getAddress()) != null) {
+					pairedDevices.update(device.getAddress(), name, rssi, true, now); // shows it is in range
 				}
 			} else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+				Log.i(LOGTAG, "discovery finished: " + discoveredDevices.size() + " devices");
 				setProgressBarIndeterminateVisibility(false);
 				setTitle("Select device");
-				if (discoveredDevices.isEmpty()) {
-					discoveredDevices.add("No discovered devices.");
-				}
+				discoveredAdapter.setEmptyText("No discovered devices.");
 				
 				Button discoverButton = (Button) findViewById(R.id.button1);
 				discoverButton.setEnabled(true);
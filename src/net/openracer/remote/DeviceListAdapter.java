@@ -0,0 +1,156 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/**
+ * Shows a {@link DeviceRegistry} in a {@link ListView}, updating incrementally.
+ *
+ * <p>
+ * A device whose name or signal strength changed is rebound in place if its row is on screen,
+ * without notifying the list. Newly found devices are added with at most one
+ * {@link #notifyDataSetChanged()} per UI loop pass, however many arrive in a burst. The count
+ * shown to the list only changes at those notifications, as {@link ListView} requires.
+ * </p>
+ */
+public class DeviceListAdapter extends BaseAdapter implements DeviceRegistry.Listener {
+
+	private final LayoutInflater inflater;
+	private final DeviceRegistry registry;
+	private final ListView listView;
+	private String emptyText;
+	private int shownCount = 0;
+	private boolean refreshPosted = false;
+	private final Runnable refresh = new Runnable() {
+		@Override
+		public void run() {
+			refreshPosted = false;
+			shownCount = registry.size();
+			notifyDataSetChanged();
+		}
+	};
+
+	/**
+	 * Becomes the registry's listener and the list's adapter.
+	 *
+	 * @param emptyText shown as a single disabled row while the registry is empty; may be null
+	 */
+	public DeviceListAdapter(Context context, DeviceRegistry registry, ListView listView, String emptyText) {
+		this.inflater = LayoutInflater.from(context);
+		this.registry = registry;
+		this.listView = listView;
+		this.emptyText = emptyText;
+		this.shownCount = registry.size();
+		registry.setListener(this);
+		listView.setAdapter(this);
+	}
+
+	/**
+	 * @param emptyText shown as a single disabled row while the registry is empty; null for none
+	 */
+	public void setEmptyText(String emptyText) {
+		this.emptyText = emptyText;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * @return the device at {@code position}, or null for the empty-list row
+	 */
+	@Override
+	public DeviceRegistry.Device getItem(int position) {
+		return shownCount == 0 ? null : registry.get(position);
+	}
+
+	@Override
+	public int getCount() {
+		return shownCount == 0 && emptyText != null ? 1 : shownCount;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true; // devices keep their position until cleared
+	}
+
+	@Override
+	public boolean areAllItemsEnabled() {
+		return shownCount > 0;
+	}
+
+	@Override
+	public boolean isEnabled(int position) {
+		return shownCount > 0;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		TextView view = (TextView) (convertView != null ? convertView : inflater.inflate(R.layout.btdevice_list_item, parent, false));
+		DeviceRegistry.Device device = getItem(position);
+		if (device == null) {
+			view.setText(emptyText);
+		} else {
+			bind(view, device);
+		}
+		return view;
+	}
+
+	private static void bind(TextView view, DeviceRegistry.Device device) {
+		String text = device.getDisplayName() + "\n" + device.getAddress();
+		if (device.getRssi() != DeviceRegistry.NO_RSSI) {
+			text += "  " + device.getRssi() + " dBm";
+		}
+		view.setText(text);
+	}
+
+	@Override
+	public void onDeviceInserted(int position) {
+		if (!refreshPosted) {
+			refreshPosted = true;
+			listView.post(refresh);
+		}
+	}
+
+	@Override
+	public void onDeviceChanged(int position) {
+		if (position >= shownCount) {
+			return; // not listed yet; the pending refresh shows it as it is
+		}
+		int child = position - listView.getFirstVisiblePosition();
+		if (child >= 0 && child < listView.getChildCount()) {
+			bind((TextView) listView.getChildAt(child), registry.get(position));
+		}
+	}
+
+	@Override
+	public void onDevicesCleared() {
+		listView.removeCallbacks(refresh);
+		refreshPosted = false;
+		shownCount = 0;
+		notifyDataSetChanged();
+	}
+}
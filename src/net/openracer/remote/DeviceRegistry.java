@@ -0,0 +1,183 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Bluetooth devices seen during discovery, keyed by address, in the order first seen.
+ *
+ * <p>
+ * Discovery reports the same device many times. {@link #update} finds it by address in constant
+ * time and changes its name or signal strength in place, telling the {@link Listener} which
+ * position was inserted or changed, so a list only redraws the affected row.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe; use from the UI thread.
+ * </p>
+ */
+public class DeviceRegistry {
+
+	/** Signal strength not known. */
+	public static final int NO_RSSI = Short.MIN_VALUE;
+
+	public static interface Listener {
+
+		void onDeviceInserted(int position);
+
+		void onDeviceChanged(int position);
+
+		void onDevicesCleared();
+	}
+
+	public static final class Device {
+		private final String address;
+		private final int position;
+		private String name;
+		private int rssi = NO_RSSI;
+		private boolean bonded;
+		private long lastSeenMillis;
+
+		private Device(String address, int position) {
+			this.address = address;
+			this.position = position;
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		/**
+		 * @return the device name, or null if it has not been reported
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the name if known, otherwise the address
+		 */
+		public String getDisplayName() {
+			return name != null ? name : address;
+		}
+
+		/**
+		 * @return the signal strength in dBm, or {@link #NO_RSSI}
+		 */
+		public int getRssi() {
+			return rssi;
+		}
+
+		public boolean isBonded() {
+			return bonded;
+		}
+
+		public long getLastSeenMillis() {
+			return lastSeenMillis;
+		}
+
+		public int getPosition() {
+			return position;
+		}
+
+		@Override
+		public String toString() {
+			return getDisplayName() + " (" + address + (rssi != NO_RSSI ? ", " + rssi + " dBm" : "") + ")";
+		}
+	}
+
+	private final Map<String, Device> byAddress = new HashMap<String, Device>();
+	private final List<Device> devices = new ArrayList<Device>();
+	private Listener listener = null;
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds the device, or updates it in place if the address is already known. A null name or
+	 * {@link #NO_RSSI} leaves the known value unchanged.
+	 *
+	 * @return the device's entry
+	 */
+	public Device update(String address, String name, int rssi, boolean bonded, long nowMillis) {
+		Device device = byAddress.get(address);
+		if (device == null) {
+			device = new Device(address, devices.size());
+			device.name = name;
+			device.rssi = rssi;
+			device.bonded = bonded;
+			device.lastSeenMillis = nowMillis;
+			byAddress.put(address, device);
+			devices.add(device);
+			if (listener != null) {
+				listener.onDeviceInserted(device.position);
+			}
+			return device;
+		}
+
+		boolean changed = false;
+		if (name != null && !name.equals(device.name)) {
+			device.name = name;
+			changed = true;
+		}
+		if (rssi != NO_RSSI && rssi != device.rssi) {
+			device.rssi = rssi;
+			changed = true;
+		}
+		if (bonded != device.bonded) {
+			device.bonded = bonded;
+			changed = true;
+		}
+		device.lastSeenMillis = nowMillis;
+		if (changed && listener != null) {
+			listener.onDeviceChanged(device.position);
+		}
+		return device;
+	}
+
+	/**
+	 * @return the device, or null if the address has not been seen
+	 */
+	public Device get(String address) {
+		return byAddress.get(address);
+	}
+
+	public Device get(int position) {
+		return devices.get(position);
+	}
+
+	public int size() {
+		return devices.size();
+	}
+
+	public boolean isEmpty() {
+		return devices.isEmpty();
+	}
+
+	public void clear() {
+		byAddress.clear();
+		devices.clear();
+		if (listener != null) {
+			listener.onDevicesCleared();
+		}
+	}
+}
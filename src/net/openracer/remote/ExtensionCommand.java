@@ -0,0 +1,42 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Extension commands of the original Dagu protocol: the escape byte followed by a command byte,
+ * optionally followed by an argument byte.
+ */
+public final class ExtensionCommand {
+
+	/** Escape byte introducing an extension command. */
+	public static final int ESCAPE = 0xf0;
+
+	/** Report version and capabilities; answered with a {@code ver=} line. */
+	public static final int REPORT_VERSION = 0x00;
+
+	/** Switch to {@link ProtocolV2}; answered with a {@code proto=2} line. */
+	public static final int UPGRADE = 0x01;
+
+	/** Report battery state. */
+	public static final int BATTERY = 0x02;
+
+	/** Echo the argument byte back as a {@code pong=} line. */
+	public static final int PING = 0x03;
+
+	private ExtensionCommand() {
+	}
+}
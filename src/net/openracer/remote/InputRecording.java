@@ -0,0 +1,203 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A timed sequence of joypad listener calls from one or more joypads, for replaying a real
+ * driving session as a repeatable workload (see {@link InputReplayer}).
+ *
+ * <p>
+ * Events are kept in parallel primitive arrays that double when full, so recording does not
+ * allocate per event. Times are relative to the first event.
+ * </p>
+ */
+public class InputRecording {
+
+	private static final int MAGIC = 0x4f52494e; // "ORIN"
+	private static final int VERSION = 1;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Receives replayed events; the same calls as {@link JoypadView.Listener}, kept separate so
+	 * recordings do not depend on the view.
+	 */
+	public static interface Target {
+
+		void onActive(float x, float y, float pressure);
+
+		void onInactive(float x, float y, float pressure);
+	}
+
+	// guarded by this
+	private long[] nanos = new long[INITIAL_CAPACITY];
+	private byte[] source = new byte[INITIAL_CAPACITY];
+	private boolean[] active = new boolean[INITIAL_CAPACITY];
+	private float[] x = new float[INITIAL_CAPACITY];
+	private float[] y = new float[INITIAL_CAPACITY];
+	private float[] pressure = new float[INITIAL_CAPACITY];
+	private int size = 0;
+	private long firstNanos = 0;
+
+	/**
+	 * Appends one listener call.
+	 *
+	 * @param source index of the joypad, 0-255, as passed to {@link InputReplayer}
+	 * @param nowNanos {@link System#nanoTime()} of the call
+	 */
+	public synchronized void record(int source, boolean active, float x, float y, float pressure, long nowNanos) {
+		if (size == nanos.length) {
+			grow();
+		}
+		if (size == 0) {
+			firstNanos = nowNanos;
+		}
+		this.nanos[size] = nowNanos - firstNanos;
+		this.source[size] = (byte) source;
+		this.active[size] = active;
+		this.x[size] = x;
+		this.y[size] = y;
+		this.pressure[size] = pressure;
+		size++;
+	}
+
+	private void grow() {
+		int capacity = nanos.length * 2;
+		nanos = Arrays.copyOf(nanos, capacity);
+		source = Arrays.copyOf(source, capacity);
+		active = Arrays.copyOf(active, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		pressure = Arrays.copyOf(pressure, capacity);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the time of the last event after the first
+	 */
+	public synchronized long getDurationNanos() {
+		return size == 0 ? 0 : nanos[size - 1];
+	}
+
+	public synchronized long getNanos(int index) {
+		check(index);
+		return nanos[index];
+	}
+
+	public synchronized int getSource(int index) {
+		check(index);
+		return source[index] & 0xff;
+	}
+
+	public synchronized boolean isActive(int index) {
+		check(index);
+		return active[index];
+	}
+
+	public synchronized float getX(int index) {
+		check(index);
+		return x[index];
+	}
+
+	public synchronized float getY(int index) {
+		check(index);
+		return y[index];
+	}
+
+	public synchronized float getPressure(int index) {
+		check(index);
+		return pressure[index];
+	}
+
+	/**
+	 * Calls {@code target} as the event at {@code index} was originally called.
+	 */
+	public synchronized void dispatch(int index, Target target) {
+		check(index);
+		if (active[index]) {
+			target.onActive(x[index], y[index], pressure[index]);
+		} else {
+			target.onInactive(x[index], y[index], pressure[index]);
+		}
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + " of " + size);
+		}
+	}
+
+	public synchronized void writeTo(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeLong(nanos[i]);
+			out.writeByte(source[i]);
+			out.writeBoolean(active[i]);
+			out.writeFloat(x[i]);
+			out.writeFloat(y[i]);
+			out.writeFloat(pressure[i]);
+		}
+		out.flush();
+	}
+
+	public static InputRecording readFrom(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not an input recording");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported input recording version " + version);
+		}
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("bad event count " + count);
+		}
+		InputRecording recording = new InputRecording();
+		for (int i = 0; i < count; i++) {
+			long nanos = in.readLong();
+			int source = in.readUnsignedByte();
+			boolean active = in.readBoolean();
+			float x = in.readFloat();
+			float y = in.readFloat();
+			float pressure = in.readFloat();
+			recording.record(source, active, x, y, pressure, nanos);
+		}
+		return recording;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return size + " events over " + (getDurationNanos() / 1000000) + "ms";
+	}
+}
@@ -0,0 +1,149 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays an {@link InputRecording} back into joypad listeners on its own thread, with the
+ * original timing scaled by a speed factor.
+ *
+ * <p>
+ * Like {@link ControlScheduler}, events are scheduled against absolute deadlines from the start
+ * of the replay, so lateness does not accumulate; it is recorded instead, to tell a slow replay
+ * apart from a slow pipeline. Listeners are called on the replay thread.
+ * </p>
+ */
+public class InputReplayer extends Thread {
+
+	/** Speed factor that replays every event immediately, one after the other. */
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	public static interface Listener {
+
+		/**
+		 * Called on the replay thread when the replay ends.
+		 *
+		 * @param completed false if the replay was shut down early
+		 */
+		void onReplayFinished(InputReplayer replayer, boolean completed);
+	}
+
+	private final InputRecording recording;
+	private final InputRecording.Target[] targets;
+	private final double speed;
+	private final Listener listener;
+	private volatile boolean stopped = false;
+
+	// written by the replay thread only
+	private volatile int replayedCount = 0;
+	private volatile long totalLatenessNanos = 0;
+	private volatile long maxLatenessNanos = 0;
+	private volatile long elapsedNanos = 0;
+
+	/**
+	 * @param targets listener for each recorded source index; events from sources without one are skipped
+	 * @param speed 1 for real time, 2 for twice as fast, or {@link #AS_FAST_AS_POSSIBLE}
+	 * @param listener told when the replay ends; may be null
+	 */
+	public InputReplayer(InputRecording recording, InputRecording.Target[] targets, double speed, Listener listener) {
+		super("openracer-replay");
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("speed must be positive: " + speed);
+		}
+		this.recording = recording;
+		this.targets = targets.clone();
+		this.speed = speed;
+		this.listener = listener;
+		setDaemon(true);
+	}
+
+	public void shutdown() {
+		stopped = true;
+		interrupt();
+	}
+
+	public int getReplayedCount() {
+		return replayedCount;
+	}
+
+	public long getMeanLatenessNanos() {
+		int n = replayedCount;
+		return n == 0 ? 0 : totalLatenessNanos / n;
+	}
+
+	public long getMaxLatenessNanos() {
+		return maxLatenessNanos;
+	}
+
+	/**
+	 * @return wall time the replay took, once it has finished
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "replayed=" + replayedCount + "/" + recording.size() + " at " + speed + "x"
+				+ " elapsed=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms"
+				+ " late-mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanLatenessNanos()) + "us"
+				+ " late-max=" + TimeUnit.NANOSECONDS.toMicros(maxLatenessNanos) + "us";
+	}
+
+	@Override
+	public void run() {
+		boolean completed = false;
+		long start = System.nanoTime();
+		try {
+			int size = recording.size();
+			for (int i = 0; i < size; i++) {
+				long now = System.nanoTime();
+				if (speed != AS_FAST_AS_POSSIBLE) {
+					long deadline = start + (long) (recording.getNanos(i) / speed);
+					while ((now = System.nanoTime()) - deadline < 0) {
+						LockSupport.parkNanos(deadline - now);
+						if (stopped) {
+							return;
+						}
+					}
+					long lateness = now - deadline;
+					totalLatenessNanos += lateness;
+					if (lateness > maxLatenessNanos) {
+						maxLatenessNanos = lateness;
+					}
+				}
+				if (stopped) {
+					return;
+				}
+
+				int source = recording.getSource(i);
+				if (source < targets.length && targets[source] != null) {
+					recording.dispatch(i, targets[source]);
+				}
+				replayedCount++;
+			}
+			completed = true;
+		} finally {
+			elapsedNanos = System.nanoTime() - start;
+			if (listener != null) {
+				listener.onReplayFinished(this, completed);
+			}
+		}
+	}
+}
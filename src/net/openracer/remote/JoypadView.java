@@ -16,16 +16,52 @@
 
 package net.openracer.remote;
 
+import java.util.concurrent.TimeUnit;
+
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.WindowManager;
 
+/**
+ * Touch pads reporting touch positions, as fractions of the pad's size, to a {@link Listener}.
+ *
+ * <p>
+ * The view is split into side-by-side zones ({@link #setZoneCount(int)}), each a separate pad
+ * with its own listener, so both sticks can live in one view. A zone belongs to the pointer that
+ * first went down in it until that pointer goes up; other fingers landing in it are ignored, and
+ * the owning finger keeps control even if it slides out of the zone. The historical samples
+ * batched into each move event are delivered too, in time order across zones, so no touch
+ * position is lost.
+ * </p>
+ *
+ * <p>
+ * Touch events can arrive much faster than the display refreshes. The listeners are called for
+ * every sample, but drawing is paced: at most one redraw is requested per display refresh, events
+ * in between only grow the pending dirty rectangle, and events that change no pixel request
+ * nothing. The dirty rectangle covers just the crosshair rows/columns and pressure bars that
+ * moved, so the rest of the view is not repainted.
+ * </p>
+ */
 public class JoypadView extends View {
+	
+	private static final float DEFAULT_REFRESH_RATE = 60.f;
+	private static final int CROSSHAIR_LENGTH = 100;
+	private static final int PRESSURE_BAR_WIDTH = 50;
+	private static final int PRESSURE_BAR_SCALE = 200;
+	private static final int NO_POINTER = -1;
+	
+	private static final Listener NO_LISTENER = new Listener() {
+		@Override public void onActive(float x, float y, float pressure) { }
+		@Override public void onInactive(float x, float y, float pressure) { }
+	};
+	
 	private final Paint paint = new Paint();
 	private final Paint paintBgDisabled = new Paint();
 	private final Paint paintBgActive = new Paint();
@@ -54,74 +90,374 @@ public class JoypadView extends View {
 		paintBgInactive.setColor(Color.GRAY);
 	}
 	
-	private Listener listener = new Listener() {
-		@Override public void onActive(float x, float y, float pressure) { }
-		@Override public void onInactive(float x, float y, float pressure) { }
-	};
+	// one pad; UI thread only
+	private static final class Zone {
+		Listener listener = NO_LISTENER;
+		int pointerId = NO_POINTER;
+		float x = 0.f;
+		float y = 0.f;
+		float pressure = 0.f;
+		boolean active = false;
+		
+		// the pixels covered by the dirty rectangle or already drawn
+		int markedX = 0;
+		int markedY = 0;
+		int markedBarTop = 0;
+		boolean markedActive = false;
+	}
 	
-	private float y = 0.f;
-	private float x = 0.f;
-	private float pressure = 0.f;
-	private boolean active = false;
+	private Zone[] zones = { new Zone() };
+	private long eventTime = 0;
 	private RectF rect = new RectF();
 	
+	// frame pacing; UI thread only
+	private long frameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / DEFAULT_REFRESH_RATE);
+	private long lastFrameNanos = 0;
+	private boolean frameScheduled = false; // a delayed redraw request is posted
+	private boolean drawRequested = false; // invalidated, waiting for onDraw
+	private final Rect dirty = new Rect();
+	private final Runnable frame = new Runnable() {
+		@Override
+		public void run() {
+			frameScheduled = false;
+			requestDraw();
+		}
+	};
+	
+	// statistics; UI thread only
+	private long eventCount = 0;
+	private long sampleCount = 0;
+	private long unchangedCount = 0;
+	private long coalescedCount = 0;
+	private long frameCount = 0;
+	private long totalDrawNanos = 0;
+	private long maxDrawNanos = 0;
+	
+	/**
+	 * Splits the view into {@code count} equal side-by-side zones, numbered from the left. Drops
+	 * the current listeners and touches.
+	 */
+	public void setZoneCount(int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("need at least one zone: " + count);
+		}
+		zones = new Zone[count];
+		for (int i = 0; i < count; i++) {
+			zones[i] = new Zone();
+		}
+		invalidate();
+	}
+	
+	public int getZoneCount() {
+		return zones.length;
+	}
+	
+	private int zoneLeft(int zone) {
+		return getWidth() * zone / zones.length;
+	}
+	
+	private int zoneRight(int zone) {
+		return getWidth() * (zone + 1) / zones.length;
+	}
+	
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+		float refreshRate = windowManager == null ? 0 : windowManager.getDefaultDisplay().getRefreshRate();
+		if (refreshRate < 10.f) {
+			refreshRate = DEFAULT_REFRESH_RATE; // some devices report nonsense
+		}
+		frameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+	}
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		removeCallbacks(frame);
+		frameScheduled = false;
+	}
+	
 	@Override
 	protected void onDraw(Canvas canvas) {
+		long start = System.nanoTime();
+		drawRequested = false;
+		lastFrameNanos = start;
 		
 		if (isEnabled()) {
-			canvas.drawPaint(active ? paintBgActive : paintBgInactive);
-			
-			int w = getWidth();
 			int h = getHeight();
-			
-			canvas.drawLine(    0,     y, 100,   y, paint);
-			canvas.drawLine(    x,     0,   x, 100, paint);
-			canvas.drawLine(w-100,     y,   w,   y, paint);
-			canvas.drawLine(    x, h-100,   x,   h, paint);
-			
-			rect.set(0.f,(float)h-pressure*200, 50.f, (float)h);
-			canvas.drawRect(rect, paint);
+			for (int i = 0; i < zones.length; i++) {
+				Zone zone = zones[i];
+				int left = zoneLeft(i);
+				int right = zoneRight(i);
+				
+				// drawing is clipped to the dirty rectangle, so the fill only touches what changed
+				canvas.drawRect(left, 0, right, h, zone.active ? paintBgActive : paintBgInactive);
+				
+				canvas.drawLine(                     left,                  zone.y, left + CROSSHAIR_LENGTH,          zone.y, paint);
+				canvas.drawLine(                   zone.x,                       0,                  zone.x, CROSSHAIR_LENGTH, paint);
+				canvas.drawLine(right - CROSSHAIR_LENGTH,                  zone.y,                   right,          zone.y, paint);
+				canvas.drawLine(                   zone.x,    h - CROSSHAIR_LENGTH,                  zone.x,                h, paint);
+				
+				rect.set(left, (float)h - zone.pressure*PRESSURE_BAR_SCALE, left + PRESSURE_BAR_WIDTH, (float)h);
+				canvas.drawRect(rect, paint);
+			}
 		} else {
 			canvas.drawPaint(paintBgDisabled);
 		}
+		
+		long elapsed = System.nanoTime() - start;
+		frameCount++;
+		totalDrawNanos += elapsed;
+		if (elapsed > maxDrawNanos) {
+			maxDrawNanos = elapsed;
+		}
 	}
 	
+	// grows the dirty rectangle to cover whatever moved in the zone since the last call
+	private void markDirty(int index) {
+		Zone zone = zones[index];
+		int left = zoneLeft(index);
+		int right = zoneRight(index);
+		int h = getHeight();
+		int px = (int) zone.x;
+		int py = (int) zone.y;
+		int barTop = h - (int) (zone.pressure * PRESSURE_BAR_SCALE);
+		
+		if (zone.active != zone.markedActive) {
+			dirty.union(left, 0, right, h); // background colour changes
+		} else {
+			if (py != zone.markedY) {
+				dirty.union(left, Math.min(py, zone.markedY) - 1, right, Math.max(py, zone.markedY) + 2);
+			}
+			if (px != zone.markedX) {
+				dirty.union(Math.min(px, zone.markedX) - 1, 0, Math.max(px, zone.markedX) + 2, h);
+			}
+			if (barTop != zone.markedBarTop) {
+				dirty.union(left, Math.min(barTop, zone.markedBarTop) - 1, left + PRESSURE_BAR_WIDTH + 1, h);
+			}
+		}
+		
+		zone.markedX = px;
+		zone.markedY = py;
+		zone.markedBarTop = barTop;
+		zone.markedActive = zone.active;
+	}
+	
+	// asks for a redraw of the dirty rectangle, at most once per display refresh
+	private void scheduleFrame() {
+		eventCount++;
+		for (int i = 0; i < zones.length; i++) {
+			markDirty(i);
+		}
+		if (dirty.isEmpty()) {
+			unchangedCount++;
+			return;
+		}
+		if (frameScheduled || drawRequested) {
+			coalescedCount++;
+			if (drawRequested) {
+				requestDraw(); // joins the pending traversal
+			}
+			return;
+		}
+		long wait = lastFrameNanos + frameIntervalNanos - System.nanoTime();
+		if (wait <= 0) {
+			requestDraw();
+		} else {
+			frameScheduled = true;
+			postDelayed(frame, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+		}
+	}
+	
+	private void requestDraw() {
+		if (!dirty.isEmpty()) {
+			invalidate(dirty);
+			dirty.setEmpty();
+			drawRequested = true;
+		}
+	}
+	
+	public long getEventCount() {
+		return eventCount;
+	}
+	
+	/**
+	 * @return positions delivered to listeners, including historical samples
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+	
+	/**
+	 * @return touch events that changed nothing on screen
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount;
+	}
+	
+	/**
+	 * @return touch events folded into a redraw that was already pending
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+	
+	public long getFrameCount() {
+		return frameCount;
+	}
+	
+	public long getMeanDrawNanos() {
+		return frameCount == 0 ? 0 : totalDrawNanos / frameCount;
+	}
+	
+	public long getMaxDrawNanos() {
+		return maxDrawNanos;
+	}
+	
+	/**
+	 * @return event and frame counters; call on the UI thread
+	 */
+	public String getFrameStats() {
+		return "events=" + eventCount + " samples=" + sampleCount + " unchanged=" + unchangedCount + " coalesced=" + coalescedCount
+				+ " frames=" + frameCount
+				+ " draw-mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanDrawNanos()) + "us"
+				+ " draw-max=" + TimeUnit.NANOSECONDS.toMicros(maxDrawNanos) + "us";
+	}
+	
+	/**
+	 * Sets the listener of the first zone.
+	 */
 	public void setListener(Listener listener) {
-		this.listener = listener;
+		setListener(0, listener);
+	}
+	
+	public void setListener(int zone, Listener listener) {
+		zones[zone].listener = listener == null ? NO_LISTENER : listener;
+	}
+	
+	/**
+	 * @return the {@link android.os.SystemClock#uptimeMillis()} time of the sample being dispatched to a listener
+	 */
+	public long getEventTime() {
+		return eventTime;
 	}
 	
 	public static interface Listener {
-
+		
 		void onActive(float x, float y, float pressure);
-
+		
 		void onInactive(float x, float y, float pressure);
 	}
 	
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
 		
-		x = event.getX();
-		y = event.getY();
-		pressure = event.getPressure();
+		switch (event.getActionMasked()) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			int index = event.getActionIndex();
+			int zone = zoneAt(event.getX(index));
+			if (zones[zone].pointerId == NO_POINTER) {
+				zones[zone].pointerId = event.getPointerId(index);
+				zones[zone].active = true;
+				dispatch(zone, event.getX(index), event.getY(index), event.getPressure(index), event.getEventTime());
+			}
+			break;
+		}
 		
-		if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
-			active = true;
-		} else if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
-			active = true;
-		} else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
-			active = false;
-			pressure = 0;
+		case MotionEvent.ACTION_MOVE: {
+			// batched samples first, oldest first, interleaved across zones
+			int history = event.getHistorySize();
+			for (int h = 0; h < history; h++) {
+				long time = event.getHistoricalEventTime(h);
+				for (int zone = 0; zone < zones.length; zone++) {
+					int index = pointerIndex(event, zone);
+					if (index >= 0) {
+						dispatch(zone, event.getHistoricalX(index, h), event.getHistoricalY(index, h), event.getHistoricalPressure(index, h), time);
+					}
+				}
+			}
+			for (int zone = 0; zone < zones.length; zone++) {
+				int index = pointerIndex(event, zone);
+				if (index >= 0) {
+					dispatch(zone, event.getX(index), event.getY(index), event.getPressure(index), event.getEventTime());
+				}
+			}
+			break;
 		}
 		
-		invalidate();
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP: {
+			int index = event.getActionIndex();
+			int id = event.getPointerId(index);
+			for (int zone = 0; zone < zones.length; zone++) {
+				if (zones[zone].pointerId == id) {
+					release(zone, event.getX(index), event.getY(index), event.getEventTime());
+				}
+			}
+			break;
+		}
 		
-		if (active) {
-			listener.onActive((float)x / getWidth(), (float)y / getHeight(), pressure);
-		} else {
-			listener.onInactive((float)x / getWidth(), (float)y / getHeight(), pressure);
+		case MotionEvent.ACTION_CANCEL:
+			for (int zone = 0; zone < zones.length; zone++) {
+				if (zones[zone].pointerId != NO_POINTER) {
+					release(zone, zones[zone].x, zones[zone].y, event.getEventTime());
+				}
+			}
+			break;
 		}
 		
+		// input first; the redraw can wait for the next frame
+		scheduleFrame();
+		
 		return true;
 	}
 	
+	private int zoneAt(float x) {
+		int zone = (int) (x * zones.length / Math.max(1, getWidth()));
+		return zone < 0 ? 0 : (zone >= zones.length ? zones.length - 1 : zone);
+	}
+	
+	private int pointerIndex(MotionEvent event, int zone) {
+		int id = zones[zone].pointerId;
+		return id == NO_POINTER ? -1 : event.findPointerIndex(id);
+	}
+	
+	private void dispatch(int index, float x, float y, float pressure, long time) {
+		Zone zone = zones[index];
+		zone.x = x;
+		zone.y = y;
+		zone.pressure = pressure;
+		eventTime = time;
+		sampleCount++;
+		zone.listener.onActive(zoneX(index, x), zoneY(y), pressure);
+	}
+	
+	private void release(int index, float x, float y, long time) {
+		Zone zone = zones[index];
+		zone.pointerId = NO_POINTER;
+		zone.active = false;
+		zone.x = x;
+		zone.y = y;
+		zone.pressure = 0;
+		eventTime = time;
+		sampleCount++;
+		zone.listener.onInactive(zoneX(index, x), zoneY(y), 0);
+	}
+	
+	// the owning pointer may have slid out of its zone, so positions are clamped to it
+	private float zoneX(int zone, float x) {
+		int left = zoneLeft(zone);
+		return clamp((x - left) / Math.max(1, zoneRight(zone) - left));
+	}
+	
+	private float zoneY(float y) {
+		return clamp(y / Math.max(1, getHeight()));
+	}
+	
+	private static float clamp(float fraction) {
+		return fraction < 0.f ? 0.f : (fraction > 1.f ? 1.f : fraction);
+	}
+
 }
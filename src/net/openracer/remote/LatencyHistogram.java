@@ -0,0 +1,139 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, thread-safe histogram of durations, for recording on hot paths.
+ *
+ * <p>
+ * Values are kept in microseconds in log-linear buckets: exact below 16us, then 8 buckets per
+ * power of two (about 12% resolution) up to about 35 minutes; larger values land in the last
+ * bucket. Recording is a few atomic operations and never allocates. Percentiles report the upper
+ * bound of the bucket they fall in; min, max and mean are exact.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_MSB = 31;
+	private static final int BUCKETS = (MAX_MSB - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumMicros = new AtomicLong();
+	private final AtomicLong minMicros = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxMicros = new AtomicLong(0);
+
+	static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(micros);
+		if (msb > MAX_MSB) {
+			return BUCKETS - 1;
+		}
+		int shift = msb - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (micros >>> shift);
+	}
+
+	static long bucketUpperBound(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket - shift * SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	public void record(long nanos) {
+		long micros = nanos < 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos);
+		counts.incrementAndGet(bucketOf(micros));
+		count.incrementAndGet();
+		sumMicros.addAndGet(micros);
+
+		long min;
+		while (micros < (min = minMicros.get()) && !minMicros.compareAndSet(min, micros)) { }
+		long max;
+		while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) { }
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMinMicros() {
+		return count.get() == 0 ? 0 : minMicros.get();
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public long getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : sumMicros.get() / n;
+	}
+
+	/**
+	 * @param percentile 0-100
+	 * @return the upper bound, in microseconds, of the bucket holding the given percentile
+	 */
+	public long getPercentileMicros(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * n);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * Clears all counts. Values recorded concurrently with a reset may be partially lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sumMicros.set(0);
+		minMicros.set(Long.MAX_VALUE);
+		maxMicros.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + getCount()
+				+ " min=" + getMinMicros() + "us"
+				+ " avg=" + getMeanMicros() + "us"
+				+ " p50=" + getPercentileMicros(50) + "us"
+				+ " p99=" + getPercentileMicros(99) + "us"
+				+ " max=" + getMaxMicros() + "us";
+	}
+}
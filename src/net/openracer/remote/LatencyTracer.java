@@ -0,0 +1,105 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long control input takes to reach the wire, per pipeline stage.
+ *
+ * <p>
+ * The UI thread reports each touch with {@link #onInput(long, long)}. The control tick picks up the
+ * oldest touch not yet sent with {@link #takeInput()} and carries that origin timestamp along with
+ * the frame; each later stage calls {@link #record(Stage, long, long)} with it. Every stage has
+ * its own {@link LatencyHistogram} of time since the touch event.
+ * </p>
+ *
+ * <p>
+ * All timestamps are {@link System#nanoTime()} values.
+ * </p>
+ */
+public class LatencyTracer {
+
+	public static enum Stage {
+		/** touch event to listener dispatch */
+		Dispatch,
+		/** touch event to the control tick encoding it */
+		Encode,
+		/** touch event to the frame being handed to the transmitter */
+		Enqueue,
+		/** touch event to the write of the frame returning */
+		Write,
+	}
+
+	/** Origin value meaning "no input to trace". */
+	public static final long NO_INPUT = Long.MIN_VALUE;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+	private final AtomicLong pendingInput = new AtomicLong(NO_INPUT);
+
+	public LatencyTracer() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records a touch dispatch and makes the touch the origin of the next frame, unless an earlier
+	 * touch is still waiting to be sent.
+	 */
+	public void onInput(long eventNanos, long dispatchNanos) {
+		record(Stage.Dispatch, eventNanos, dispatchNanos);
+		pendingInput.compareAndSet(NO_INPUT, eventNanos);
+	}
+
+	/**
+	 * @return the origin of the oldest touch since the last call, or {@link #NO_INPUT}
+	 */
+	public long takeInput() {
+		return pendingInput.getAndSet(NO_INPUT);
+	}
+
+	public void record(Stage stage, long originNanos, long nowNanos) {
+		if (originNanos != NO_INPUT) {
+			histograms[stage.ordinal()].record(nowNanos - originNanos);
+		}
+	}
+
+	public LatencyHistogram get(Stage stage) {
+		return histograms[stage.ordinal()];
+	}
+
+	public void reset() {
+		for (LatencyHistogram h : histograms) {
+			h.reset();
+		}
+	}
+
+	/**
+	 * @return one line per stage, suitable for logging
+	 */
+	public String dump() {
+		StringBuilder b = new StringBuilder();
+		for (Stage stage : Stage.values()) {
+			if (b.length() > 0) {
+				b.append('\n');
+			}
+			b.append(stage).append(": ").append(get(stage));
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,231 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a byte stream into '\n'-terminated lines without allocating per read or per line.
+ *
+ * <p>
+ * Bytes are read straight into a power-of-two ring buffer and scanned for '\n' in place.
+ * Each line is exposed through a single reused {@link Line} view over the ring; the bytes are
+ * only decoded into a {@link String} when a consumer calls {@link Line#toString()}, so multi-byte
+ * characters split across reads are decoded correctly.
+ * </p>
+ *
+ * <p>
+ * A line longer than the buffer is dropped (up to and including its terminating '\n') and counted
+ * in {@link #getOverflowCount()}. At end of stream, any unterminated trailing bytes are returned
+ * as a final line.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe: one thread calls {@link #fill(InputStream)} and {@link #nextLine()}.
+ * </p>
+ */
+public class LineFramer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] buf;
+	private final int mask;
+	private final Line line = new Line();
+
+	// free-running positions; only their differences are meaningful, so int wrap-around is harmless
+	private int head = 0; // start of the first unconsumed byte
+	private int scan = 0; // bytes before this have been searched for '\n'
+	private int tail = 0; // end of the valid data
+
+	private boolean discarding = false;
+	private boolean eof = false;
+	private int overflowCount = 0;
+
+	/**
+	 * @param capacity minimum buffer size in bytes, rounded up to a power of two; bounds the longest line
+	 */
+	public LineFramer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		this.buf = new byte[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Reads once from the stream into the free part of the buffer.
+	 *
+	 * <p>
+	 * Invalidates the current {@link Line}.
+	 * </p>
+	 *
+	 * @return the number of bytes read, or -1 at end of stream
+	 */
+	public int fill(InputStream is) throws IOException {
+		if (eof) {
+			return -1;
+		}
+
+		if (tail - head == buf.length) {
+			// buffer is full of a single unterminated line; drop it and skip to its end
+			if (!discarding) {
+				overflowCount++;
+				discarding = true;
+			}
+			head = tail;
+			scan = tail;
+		}
+
+		int pos = tail & mask;
+		int free = buf.length - (tail - head);
+		int contiguous = Math.min(free, buf.length - pos);
+
+		int nread = is.read(buf, pos, contiguous);
+		if (nread < 0) {
+			eof = true;
+			return -1;
+		}
+		tail += nread;
+		return nread;
+	}
+
+	/**
+	 * Advances to the next complete line in the buffer.
+	 *
+	 * @return true if {@link #line()} now holds a line, false if more input is needed
+	 */
+	public boolean nextLine() {
+		while (scan != tail) {
+			if (buf[scan & mask] == '\n') {
+				int start = head;
+				int length = scan - head;
+				scan++;
+				head = scan;
+				if (discarding) {
+					discarding = false;
+					continue;
+				}
+				line.set(start, length);
+				return true;
+			}
+			scan++;
+		}
+
+		if (eof && head != tail) {
+			// unterminated remainder at end of stream
+			int start = head;
+			int length = tail - head;
+			head = tail;
+			if (discarding) {
+				discarding = false;
+				return false;
+			}
+			line.set(start, length);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the current line; valid until the next call to {@link #fill(InputStream)}
+	 */
+	public Line line() {
+		return line;
+	}
+
+	public boolean isEof() {
+		return eof;
+	}
+
+	/**
+	 * @return the number of lines dropped because they did not fit in the buffer
+	 */
+	public int getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * @return bytes received but not yet returned as a line
+	 */
+	public int getBuffered() {
+		return tail - head;
+	}
+
+	/**
+	 * A reusable view of one line in the framer's ring buffer, without its '\n'.
+	 */
+	public final class Line {
+		private int start;
+		private int length;
+
+		private void set(int start, int length) {
+			this.start = start;
+			this.length = length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public byte byteAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("index " + index + " of " + length);
+			}
+			return buf[(start + index) & mask];
+		}
+
+		public boolean startsWith(byte[] prefix) {
+			if (prefix.length > length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (buf[(start + i) & mask] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Copies the line into {@code dst} at {@code offset}.
+		 *
+		 * @return the number of bytes copied, which is {@link #length()}
+		 */
+		public int copyTo(byte[] dst, int offset) {
+			int pos = start & mask;
+			int first = Math.min(length, buf.length - pos);
+			System.arraycopy(buf, pos, dst, offset, first);
+			System.arraycopy(buf, 0, dst, offset + first, length - first);
+			return length;
+		}
+
+		/**
+		 * Decodes the line as UTF-8. This is the only method that allocates.
+		 */
+		@Override
+		public String toString() {
+			byte[] bytes = new byte[length];
+			copyTo(bytes, 0);
+			return new String(bytes, UTF8);
+		}
+	}
+}
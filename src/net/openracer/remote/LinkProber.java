@@ -0,0 +1,126 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+/**
+ * Measures link round-trip time with the ping extension command.
+ *
+ * <p>
+ * Every interval it sends {@code 0xf0 0x03 <seq>}, and the firmware answers with a
+ * {@code pong=<seq>} line, which the receiver passes to {@link #onPong(int, long)}
+ * (see {@link TelemetryParser.Key#Pong}). The send time
+ * of each of the 256 sequence numbers is kept, so replies can arrive late or out of order. A
+ * sequence number that comes round again without an answer is counted as lost.
+ * </p>
+ *
+ * <p>
+ * This measures only the link and firmware, as opposed to {@link LatencyTracer}, which measures the app.
+ * </p>
+ */
+public class LinkProber extends Thread {
+
+	private static final String LOGTAG = "openracer-prober";
+
+	public static interface Sender {
+
+		/**
+		 * Writes the bytes as one unit, not interleaved with other writes.
+		 */
+		void send(byte[] data, int offset, int length) throws IOException;
+	}
+
+	private final Sender sender;
+	private final long intervalMs;
+	private final byte[] frame = { (byte) ExtensionCommand.ESCAPE, (byte) ExtensionCommand.PING, 0 };
+	private final AtomicLongArray sentAt = new AtomicLongArray(256); // 0 when not outstanding
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+	private final AtomicLong lostCount = new AtomicLong();
+	private final AtomicLong unexpectedCount = new AtomicLong();
+	private volatile boolean stopped = false;
+	private int nextSequence = 0;
+
+	public LinkProber(Sender sender, long intervalMs) {
+		super("openracer-prober");
+		this.sender = sender;
+		this.intervalMs = intervalMs;
+		setDaemon(true);
+	}
+
+	/**
+	 * Completes the probe with the given sequence number; called on the receiving thread.
+	 */
+	public void onPong(int sequence, long nowNanos) {
+		long sent = sentAt.getAndSet(sequence & 0xff, 0);
+		if (sent == 0) {
+			unexpectedCount.incrementAndGet();
+		} else {
+			roundTrip.record(nowNanos - sent);
+		}
+	}
+
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	public long getLostCount() {
+		return lostCount.get();
+	}
+
+	public long getUnexpectedCount() {
+		return unexpectedCount.get();
+	}
+
+	public void shutdown() {
+		stopped = true;
+		interrupt();
+	}
+
+	@Override
+	public String toString() {
+		return roundTrip + " lost=" + lostCount.get() + " unexpected=" + unexpectedCount.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!stopped) {
+				int sequence = nextSequence;
+				nextSequence = (nextSequence + 1) & 0xff;
+
+				long now = System.nanoTime();
+				if (now == 0) now = 1; // 0 marks a free slot
+				if (sentAt.getAndSet(sequence, now) != 0) {
+					lostCount.incrementAndGet();
+				}
+				frame[2] = (byte) sequence;
+				sender.send(frame, 0, frame.length);
+
+				Thread.sleep(intervalMs);
+			}
+		} catch (InterruptedException e) {
+			// shutdown
+		} catch (IOException e) {
+			Log.w(LOGTAG, "ping failed: " + e.toString());
+		}
+	}
+}
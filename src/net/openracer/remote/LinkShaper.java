@@ -0,0 +1,185 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers chunks of bytes to a {@link Sink} the way a slow radio link would: after a fixed
+ * latency, no faster than a set bandwidth, and with a fraction of chunks lost.
+ *
+ * <p>
+ * A chunk is whatever was offered in one call, normally one write, and stands for one radio
+ * packet; a lost chunk is one the link did not recover. Chunks queue behind each other for the
+ * bandwidth, so a burst arrives spread out, in order. Delivery happens on the shaper's own
+ * thread. For testing with {@link VehicleEmulator}; not used by the app.
+ * </p>
+ */
+public class LinkShaper extends Thread {
+
+	public static interface Sink {
+
+		void deliver(byte[] data, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * Link characteristics.
+	 */
+	public static final class Profile {
+
+		/** No latency, unlimited bandwidth, no loss. */
+		public static final Profile IDEAL = new Profile(0, 0, 0, 0);
+
+		final long latencyNanos;
+		final long bytesPerSecond;
+		final double lossRate;
+		final long seed;
+
+		/**
+		 * @param latencyMs one-way delay added to every chunk
+		 * @param bytesPerSecond link throughput, or 0 for unlimited
+		 * @param lossRate fraction of chunks dropped, 0 to 1
+		 * @param seed for the loss decisions, so a run can be repeated
+		 */
+		public Profile(long latencyMs, long bytesPerSecond, double lossRate, long seed) {
+			if (latencyMs < 0 || bytesPerSecond < 0 || lossRate < 0 || lossRate > 1) {
+				throw new IllegalArgumentException("bad link profile");
+			}
+			this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+			this.bytesPerSecond = bytesPerSecond;
+			this.lossRate = lossRate;
+			this.seed = seed;
+		}
+
+		public boolean isIdeal() {
+			return latencyNanos == 0 && bytesPerSecond == 0 && lossRate == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "latency=" + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms"
+					+ " bandwidth=" + (bytesPerSecond == 0 ? "unlimited" : bytesPerSecond + "B/s")
+					+ " loss=" + lossRate;
+		}
+	}
+
+	private static final class Chunk {
+		final byte[] data;
+		final long deliverAtNanos;
+
+		Chunk(byte[] data, long deliverAtNanos) {
+			this.data = data;
+			this.deliverAtNanos = deliverAtNanos;
+		}
+	}
+
+	private static final Chunk STOP = new Chunk(new byte[0], 0);
+
+	private final Profile profile;
+	private final Sink sink;
+	private final Random random;
+	private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+	private volatile boolean stopped = false;
+	private volatile IOException failure = null;
+
+	// guarded by this
+	private long linkFreeNanos = 0;
+	private long offeredCount = 0;
+	private long lostCount = 0;
+
+	public LinkShaper(String name, Profile profile, Sink sink) {
+		super(name);
+		this.profile = profile;
+		this.sink = sink;
+		this.random = new Random(profile.seed);
+		setDaemon(true);
+	}
+
+	/**
+	 * Queues a copy of the bytes for delivery. Never blocks.
+	 *
+	 * @throws IOException if an earlier delivery failed
+	 */
+	public void offer(byte[] data, int offset, int length) throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		long now = System.nanoTime();
+		long deliverAt;
+		synchronized (this) {
+			offeredCount++;
+			if (profile.lossRate > 0 && random.nextDouble() < profile.lossRate) {
+				lostCount++;
+				return;
+			}
+			long start = Math.max(now, linkFreeNanos);
+			long transmit = profile.bytesPerSecond == 0 ? 0 : length * TimeUnit.SECONDS.toNanos(1) / profile.bytesPerSecond;
+			linkFreeNanos = start + transmit;
+			deliverAt = linkFreeNanos + profile.latencyNanos;
+		}
+		byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		queue.add(new Chunk(copy, deliverAt));
+	}
+
+	public void shutdown() {
+		stopped = true;
+		queue.add(STOP);
+	}
+
+	public synchronized long getOfferedCount() {
+		return offeredCount;
+	}
+
+	public synchronized long getLostCount() {
+		return lostCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return getName() + ": " + profile + " offered=" + offeredCount + " lost=" + lostCount;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!stopped) {
+				Chunk chunk = queue.take();
+				if (chunk == STOP) {
+					break;
+				}
+				long now;
+				while ((now = System.nanoTime()) - chunk.deliverAtNanos < 0) {
+					LockSupport.parkNanos(chunk.deliverAtNanos - now);
+					if (stopped) {
+						return;
+					}
+				}
+				sink.deliver(chunk.data, 0, chunk.data.length);
+			}
+		} catch (InterruptedException e) {
+			// shutdown
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+}
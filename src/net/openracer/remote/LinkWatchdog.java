@@ -0,0 +1,206 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Failsafe for a link whose far end keeps acting on the last command it got.
+ *
+ * <p>
+ * Keeps the {@link System#nanoTime()} of the last control input, the last bytes sent and the last
+ * bytes received, each stamped with an ordered store so the threads that report them pay no more
+ * than a write. {@link #check(long)}, called periodically (normally on the control scheduler
+ * thread), compares them against two limits:
+ * </p>
+ * <ul>
+ * <li>control input older than the stale limit means the UI stopped driving, so the
+ * {@link Listener} is asked to stop the vehicle, once until input resumes;</li>
+ * <li>nothing received for the receive timeout means the link is dead, reported once; this is
+ * much sooner than a blocking read on a silent socket fails. The timeout only applies after
+ * {@link #expectTelemetry()}, since the original firmware never sends anything by itself.</li>
+ * </ul>
+ */
+public class LinkWatchdog {
+
+	public static interface Listener {
+
+		/**
+		 * No control input for the stale limit; the vehicle should be stopped. Called on the
+		 * checking thread.
+		 */
+		void onInputStale(long ageNanos);
+
+		/**
+		 * Nothing received for the receive timeout; the link should be closed. Called on the
+		 * checking thread, once.
+		 */
+		void onLinkDead(long silenceNanos);
+	}
+
+	private final long inputStaleNanos;
+	private final long receiveTimeoutNanos;
+	private final Listener listener;
+
+	private final AtomicLong lastInput = new AtomicLong();
+	private final AtomicLong lastSent = new AtomicLong();
+	private final AtomicLong lastReceived = new AtomicLong();
+	private volatile boolean telemetryExpected = false;
+
+	// checking thread only
+	private boolean inputStale = false;
+	private boolean dead = false;
+
+	private final AtomicLong staleStopCount = new AtomicLong();
+	private final AtomicLong deadLinkCount = new AtomicLong();
+
+	public LinkWatchdog(long inputStaleMs, long receiveTimeoutMs, Listener listener) {
+		this.inputStaleNanos = TimeUnit.MILLISECONDS.toNanos(inputStaleMs);
+		this.receiveTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(receiveTimeoutMs);
+		this.listener = listener;
+		reset(System.nanoTime());
+	}
+
+	/**
+	 * Starts over for a new connection: everything counts as just seen, and the receive timeout
+	 * is off until {@link #expectTelemetry()}. Call before the checks resume.
+	 */
+	public void reset(long nowNanos) {
+		lastInput.set(nowNanos);
+		lastSent.set(nowNanos);
+		lastReceived.set(nowNanos);
+		telemetryExpected = false;
+		inputStale = false;
+		dead = false;
+	}
+
+	/**
+	 * The control input is current, whether or not it changed; called by whatever produces it.
+	 */
+	public void onInput(long nowNanos) {
+		lastInput.lazySet(nowNanos);
+	}
+
+	public void onSent(long nowNanos) {
+		lastSent.lazySet(nowNanos);
+	}
+
+	public void onReceived(long nowNanos) {
+		lastReceived.lazySet(nowNanos);
+	}
+
+	/**
+	 * The far end is known to send periodically (for example, it answered a {@link LinkProber}
+	 * ping), so silence now means the link is dead.
+	 */
+	public void expectTelemetry() {
+		if (!telemetryExpected) { // called per pong; skip the volatile write once set
+			telemetryExpected = true;
+		}
+	}
+
+	/**
+	 * Compares the timestamps against the limits and calls the {@link Listener}; call from one
+	 * thread only.
+	 */
+	public void check(long nowNanos) {
+		long inputAge = nowNanos - lastInput.get();
+		if (inputAge <= inputStaleNanos) {
+			inputStale = false;
+		} else if (!inputStale) {
+			inputStale = true;
+			staleStopCount.incrementAndGet();
+			listener.onInputStale(inputAge);
+		}
+
+		if (telemetryExpected && !dead) {
+			long silence = nowNanos - lastReceived.get();
+			if (silence > receiveTimeoutNanos) {
+				dead = true;
+				deadLinkCount.incrementAndGet();
+				listener.onLinkDead(silence);
+			}
+		}
+	}
+
+	public long getInputAgeNanos(long nowNanos) {
+		return nowNanos - lastInput.get();
+	}
+
+	public long getSentAgeNanos(long nowNanos) {
+		return nowNanos - lastSent.get();
+	}
+
+	public long getReceivedAgeNanos(long nowNanos) {
+		return nowNanos - lastReceived.get();
+	}
+
+	/**
+	 * @return times the vehicle was stopped for stale input
+	 */
+	public long getStaleStopCount() {
+		return staleStopCount.get();
+	}
+
+	/**
+	 * @return times a link was declared dead
+	 */
+	public long getDeadLinkCount() {
+		return deadLinkCount.get();
+	}
+
+	@Override
+	public String toString() {
+		long now = System.nanoTime();
+		return "input " + TimeUnit.NANOSECONDS.toMillis(getInputAgeNanos(now)) + "ms ago"
+				+ ", sent " + TimeUnit.NANOSECONDS.toMillis(getSentAgeNanos(now)) + "ms ago"
+				+ ", received " + TimeUnit.NANOSECONDS.toMillis(getReceivedAgeNanos(now)) + "ms ago"
+				+ ", stale stops=" + staleStopCount.get() + " dead links=" + deadLinkCount.get();
+	}
+
+	/**
+	 * Passes writes through to a stream and stamps {@link LinkWatchdog#onSent(long)} on each flush.
+	 */
+	public static class Tap extends FilterOutputStream {
+		private final LinkWatchdog watchdog;
+
+		public Tap(OutputStream out, LinkWatchdog watchdog) {
+			super(out);
+			this.watchdog = watchdog;
+		}
+
+		@Override
+		public void write(int oneByte) throws IOException {
+			out.write(oneByte);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			out.write(data, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+			watchdog.onSent(System.nanoTime());
+		}
+	}
+}
@@ -16,23 +16,23 @@
 
 package net.openracer.remote;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import net.openracer.remote.JoypadView.Listener;
 import android.Manifest.permission;
 import android.app.Activity;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.ParcelUuid;
-import android.os.Parcelable;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.Log;
 import android.view.Gravity;
@@ -42,9 +42,22 @@ import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.Toast;
 
-public class MainActivity extends Activity {
+/**
+ * The driving screen. The connection and control state belong to the {@link VehicleSession},
+ * which outlives this activity; the activity attaches to it while it exists and only ends it
+ * when the user leaves.
+ */
+public class MainActivity extends Activity implements VehicleSession.Listener {
 
 	private static final String LOGTAG = "openracer-main";
+	
+	// joypad zones, left to right; also the source indices in input recordings
+	private static final int JOYPAD_THROTTLE = 0;
+	private static final int JOYPAD_STEER = 1;
+	private static final int JOYPAD_ZONES = 2;
+	private static final String INPUT_RECORDING_FILE = "input.rec";
+	private static final double INPUT_REPLAY_SPEED = 1.0;
+	private static final long INPUT_HEARTBEAT_MS = 100; // well inside the session's stale input limit
 
 	public static class PrefKey {
 		public static final String LAST_DEVICE_ADDR = "last-device";
@@ -58,9 +71,44 @@ public class MainActivity extends Activity {
 	
 	private String selectedAddr = null;
 	private String selectedName = null;
-	private final BroadcastReceiver receiver = new BluetoothUuidReceiver();
-	private BluetoothConnectionManager connecting = null;
-	private BluetoothConnectionManager btConn = null;
+	private VehicleSession session;
+	private volatile InputRecording inputRecording = null; // set while recording
+	private volatile InputReplayer inputReplayer = null; // set while replaying; touches are ignored
+	
+	// tells the session the joypads are still live while they are shown; a stalled or hidden UI stops the car
+	private final Handler handler = new Handler();
+	private final Runnable inputHeartbeat = new Runnable() {
+		@Override
+		public void run() {
+			session.onInputAlive();
+			handler.postDelayed(this, INPUT_HEARTBEAT_MS);
+		}
+	};
+	
+	// the joypads only update the control state; the session's control scheduler samples and sends it
+	private final Listener throttleInput = new Listener() {
+		@Override
+		public void onInactive(float x, float y, float pressure) {
+			onSeek2Change_Dagu(0);
+		}
+		
+		@Override
+		public void onActive(float x, float y, float pressure) {
+			onSeek2Change_Dagu((int)((1-y)*511) - 256);
+		}
+	};
+	
+	private final Listener steerInput = new Listener() {
+		@Override
+		public void onInactive(float x, float y, float pressure) {
+			onSeek1Change_Dagu(0);
+		}
+		
+		@Override
+		public void onActive(float x, float y, float pressure) {
+			onSeek1Change_Dagu((int)(x*511) - 256);
+		}
+	};
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -72,14 +120,19 @@ public class MainActivity extends Activity {
 		selectedAddr = prefs.getString(PrefKey.LAST_DEVICE_ADDR, PrefDefault.LAST_DEVICE_ADDR);
 		selectedName = prefs.getString(PrefKey.LAST_DEVICE_NAME, PrefDefault.LAST_DEVICE_NAME);
 		
-		Vibrator vibratorService = (Vibrator) getSystemService(VIBRATOR_SERVICE);
-		if (vibratorService.hasVibrator() && (PackageManager.PERMISSION_GRANTED == checkCallingOrSelfPermission(permission.VIBRATE))) {
-			vibratorService.vibrate(20);
+		session = ((OpenRacerApplication) getApplication()).getSession();
+		session.setListener(this);
+
+		if (savedInstanceState == null) {
+			Vibrator vibratorService = (Vibrator) getSystemService(VIBRATOR_SERVICE);
+			if (vibratorService.hasVibrator() && (PackageManager.PERMISSION_GRANTED == checkCallingOrSelfPermission(permission.VIBRATE))) {
+				vibratorService.vibrate(20);
+			}
 		}
 		
-		setUiConnected(false);
-		
-		registerReceiver(receiver, new IntentFilter(BluetoothDevice.ACTION_UUID));
+		// a recreated activity picks up wherever the session is
+		setUiConnected(isConnected());
+		showTelemetryTitle();
 		
 		getConnectionButton().setOnClickListener(new OnClickListener() {
 			@Override
@@ -88,61 +141,16 @@ public class MainActivity extends Activity {
 			}
 		});
 
-		getJoypadLeft().setListener(new Listener() {
-			private int oldValue = 0;
-			
-			@Override
-			public void onInactive(float x, float y, float pressure) {
-				if (isConnected()) {
-					int newValue = 0;
-					onSeek2Change_Dagu(newValue);
-					oldValue = newValue;
-				}
-			}
-			
-			@Override
-			public void onActive(float x, float y, float pressure) {
-				if (isConnected()) {
-					int newValue = (int)((1-y)*511) - 256;
-					if (oldValue != newValue) {
-						onSeek2Change_Dagu(newValue);
-					}
-					oldValue = newValue;
-				}
-			}
-		});
-		
-		getJoypadRight().setListener(new Listener() {
-			
-			private int oldValue = 0;
-			
-			@Override
-			public void onInactive(float x, float y, float pressure) {
-				if (isConnected()) {
-					int newValue = 0;
-					onSeek1Change_Dagu(newValue);
-					oldValue = newValue;
-				}
-			}
-			
-			@Override
-			public void onActive(float x, float y, float pressure) {
-				if (isConnected()) {
-					int newValue = (int)(x*511) - 256;
-					if (oldValue != newValue) {
-						onSeek1Change_Dagu(newValue);
-					}
-					oldValue = newValue;
-				}
-			}
-		});
+		getJoypad().setZoneCount(JOYPAD_ZONES);
+		getJoypad().setListener(JOYPAD_THROTTLE, touchInput(getJoypad(), JOYPAD_THROTTLE, throttleInput));
+		getJoypad().setListener(JOYPAD_STEER, touchInput(getJoypad(), JOYPAD_STEER, steerInput));
 		
 		getStopButton().setOnClickListener(new OnClickListener() {
 			@Override
 			public void onClick(View v) {
+				stopInputReplay();
 				if (isConnected()) {
-					onSeek1Change_Dagu(0);
-					onSeek2Change_Dagu(0);
+					session.stop(); // no smoothing on the way to a stop
 				}
 			}
 		});
@@ -193,15 +201,73 @@ public class MainActivity extends Activity {
 			Intent intent = new Intent(this, DeviceListActivity.class);
 			startActivityForResult(intent, 42);
 			return true;
+		} else if (R.id.menu_follower_add == item.getItemId()) {
+			Intent intent = new Intent(this, DeviceListActivity.class);
+			startActivityForResult(intent, 43);
+			return true;
+		} else if (R.id.menu_followers_clear == item.getItemId()) {
+			session.clearFollowers();
+			return true;
+		} else if (R.id.menu_latency == item.getItemId()) {
+			String report = session.getLatencyTracer().dump();
+			LinkProber linkProber = session.getLinkProber();
+			if (linkProber != null) {
+				report += "\nLink RTT: " + linkProber;
+			}
+			ControlTransmitter sendQueue = session.getSendQueue();
+			if (sendQueue != null) {
+				report += "\nSend queue: " + sendQueue;
+			}
+			for (ConnectionEngine.Link follower : session.getFollowers()) {
+				report += "\nFollower: " + follower;
+			}
+			report += "\nControl: " + session.getControlState();
+			report += "\nWatchdog: " + session.getLinkWatchdog();
+			report += "\nJoypad: " + getJoypad().getFrameStats();
+			Log.i(LOGTAG, "input latency:\n" + report);
+			displayToast(report);
+			return true;
+		} else if (R.id.menu_record == item.getItemId()) {
+			toggleInputRecording();
+			return true;
+		} else if (R.id.menu_replay == item.getItemId()) {
+			toggleInputReplay();
+			return true;
+		} else if (R.id.menu_session_log == item.getItemId()) {
+			showSessionLogSummary();
+			return true;
 		} else {
 			return super.onOptionsItemSelected(item);
 		}
 	}
 
+	@Override
+	protected void onResume() {
+		super.onResume();
+		inputHeartbeat.run();
+	}
+	
+	@Override
+	protected void onPause() {
+		super.onPause();
+		handler.removeCallbacks(inputHeartbeat);
+	}
+	
+	@Override
+	public void onBackPressed() {
+		// the user is leaving the app; anything else that finishes this activity, such as a
+		// recreation or a replacement instance, keeps the link and the control state
+		if (isTaskRoot()) {
+			session.disconnect();
+		}
+		super.onBackPressed();
+	}
+	
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		unregisterReceiver(receiver);
+		session.clearListener(this);
+		stopInputReplay(); // the replayer drives this activity's listeners
 	}
 	
 	@Override
@@ -224,149 +290,220 @@ public class MainActivity extends Activity {
 				Log.i(LOGTAG, "device-list activity canceled");
 			}
 			setUiConnected(isConnected());
+		} else if (requestCode == 43 && resultCode == RESULT_OK) {
+			String address = data.getExtras().getString("selected_device_address");
+			String name = data.getExtras().getString("selected_device_name");
+			Log.i(LOGTAG, "follower selected - " + address);
+			if (!session.addFollower(address, name)) {
+				displayToast("Connect to " + name + " directly once first");
+			}
 		}
 	}
 	
 	protected void onConnectionButtonClick() {
 		if (isConnected()) {
-			disconnect();
+			session.disconnect();
 		} else {
-			connect();
+			session.connect(selectedAddr);
 		}
 		setUiConnected(isConnected());
 	}
 
 	
 	// --------------------------------------------------------------------
-	// robot-style control support (normal differential or "tank" style)
-	
-	protected void onSeek2Change_robot(int value) {
-		try {
-			btConn.write("h" + value + "\n");
-		} catch (Exception e) {
-			Log.w(LOGTAG, "h command failed: " + e.toString());
-		}
-	}
-
-	protected void onSeek1Change_robot(int value) {
-		try {
-			btConn.write("g" + value + "\n");
-		} catch (Exception e) {
-			Log.w(LOGTAG, "g command failed: " + e.toString());
-		}
-	}
-
-	// End robot-style control support
-	// --------------------------------------------------------------------
-
-	
-	// --------------------------------------------------------------------
-	// Dagu-style control support
-	
-	public static enum Steer {
-		Left,
-		Straight,
-		Right,
-	}
-	
-	private Steer steer = Steer.Straight;
-	private int seek2value = 0;
+	// vehicle control
 	
 	// for Dagu, this is drive motor
 	protected void onSeek2Change_Dagu(int value) {
-		seek2value = value;
-		sendDaguCommandByte(recalcDaguCommandByte());
+		session.setThrottle(value);
 	}
 	
+	// for Dagu, this is steering
 	protected void onSeek1Change_Dagu(int value) {
-		if (value < -100) steer = Steer.Left;
-		else if (value > 100) steer = Steer.Right;
-		else steer = Steer.Straight;
-		
-		sendDaguCommandByte(recalcDaguCommandByte());
+		session.setSteer(value);
 	}
 	
-	private int recalcDaguCommandByte() {
-		boolean forward = true;
-		int daguSpeed = seek2value;
-		if (daguSpeed < 0) {
-			daguSpeed = -daguSpeed;
-			forward = false;
-		}
-		
-		if (daguSpeed > 255) daguSpeed = 255;
-		daguSpeed = daguSpeed >> 4;
-		
-		int daguSteer = 0;
-		if (daguSpeed > 0) {
-			if (forward) {
-				switch (steer) {
-				case Straight: daguSteer = 1; break;
-				case Left: daguSteer = 5; break;
-				case Right: daguSteer = 6; break;
+	// touches are traced and, while recording, recorded; while a replay is driving they are ignored
+	private Listener touchInput(final JoypadView joypad, final int source, final Listener input) {
+		return new Listener() {
+			@Override
+			public void onInactive(float x, float y, float pressure) {
+				if (inputReplayer == null) {
+					traceInput(joypad);
+					InputRecording recording = inputRecording;
+					if (recording != null) {
+						recording.record(source, false, x, y, pressure, System.nanoTime());
+					}
+					input.onInactive(x, y, pressure);
 				}
-			} else {
-				switch (steer) {
-				case Straight: daguSteer = 2; break;
-				case Left: daguSteer = 7; break;
-				case Right: daguSteer = 8; break;
+			}
+			
+			@Override
+			public void onActive(float x, float y, float pressure) {
+				if (inputReplayer == null) {
+					traceInput(joypad);
+					InputRecording recording = inputRecording;
+					if (recording != null) {
+						recording.record(source, true, x, y, pressure, System.nanoTime());
+					}
+					input.onActive(x, y, pressure);
 				}
 			}
-		} else {
-			switch (steer) {
-			case Straight: daguSteer = 0; break;
-			case Left: daguSteer = 3; break;
-			case Right: daguSteer = 4; break;
+		};
+	}
+	
+	// replayed events are traced from the moment they are dispatched
+	private InputRecording.Target replayInput(final Listener input) {
+		final LatencyTracer latencyTracer = session.getLatencyTracer();
+		return new InputRecording.Target() {
+			@Override
+			public void onInactive(float x, float y, float pressure) {
+				long now = System.nanoTime();
+				latencyTracer.onInput(now, now);
+				input.onInactive(x, y, pressure);
 			}
+			
+			@Override
+			public void onActive(float x, float y, float pressure) {
+				long now = System.nanoTime();
+				latencyTracer.onInput(now, now);
+				input.onActive(x, y, pressure);
+			}
+		};
+	}
+	
+	private void toggleInputRecording() {
+		InputRecording recording = inputRecording;
+		if (recording == null) {
+			inputRecording = new InputRecording();
+			displayToast("Recording input");
+			return;
 		}
 		
-		return (daguSteer << 4) | (daguSpeed & 0x0f);
+		inputRecording = null;
+		try {
+			FileOutputStream out = openFileOutput(INPUT_RECORDING_FILE, Context.MODE_PRIVATE);
+			try {
+				recording.writeTo(new BufferedOutputStream(out));
+			} finally {
+				out.close();
+			}
+			Log.i(LOGTAG, "input recording saved: " + recording);
+			displayToast("Recorded " + recording);
+		} catch (IOException e) {
+			Log.w(LOGTAG, "cannot save input recording: " + e.toString());
+			displayToast("Cannot save input recording");
+		}
 	}
-
-	private void sendDaguCommandByte(int controlByte) {
-		
-		//int h = (controlByte & 0xf0) >> 4;
-		//int l = (controlByte & 0x0f) >> 0;
-		//Log.i(LOGTAG, "Dagu control byte: high = " + h + " low = " + l);
+	
+	private void toggleInputReplay() {
+		if (inputReplayer != null) {
+			stopInputReplay();
+			return;
+		}
+		if (!isConnected()) {
+			displayToast("Connect before replaying");
+			return;
+		}
 		
+		InputRecording recording;
 		try {
-			btConn.write(controlByte);
-		} catch (Exception e) {
-			Log.w(LOGTAG, "dagu command-byte failed: " + e.toString());
+			FileInputStream in = openFileInput(INPUT_RECORDING_FILE);
+			try {
+				recording = InputRecording.readFrom(new BufferedInputStream(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.w(LOGTAG, "cannot load input recording: " + e.toString());
+			displayToast("No input recording");
+			return;
+		}
+		
+		final LatencyTracer latencyTracer = session.getLatencyTracer();
+		InputRecording.Target[] targets = new InputRecording.Target[JOYPAD_ZONES];
+		targets[JOYPAD_THROTTLE] = replayInput(throttleInput);
+		targets[JOYPAD_STEER] = replayInput(steerInput);
+		inputReplayer = new InputReplayer(recording, targets, INPUT_REPLAY_SPEED, new InputReplayer.Listener() {
+			@Override
+			public void onReplayFinished(final InputReplayer replayer, boolean completed) {
+				onSeek1Change_Dagu(0);
+				onSeek2Change_Dagu(0);
+				Log.i(LOGTAG, "input replay " + (completed ? "completed" : "stopped") + ": " + replayer
+						+ "\ninput latency:\n" + latencyTracer.dump());
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (inputReplayer == replayer) {
+							inputReplayer = null;
+						}
+						displayToast("Replay: " + replayer);
+					}
+				});
+			}
+		});
+		latencyTracer.reset();
+		displayToast("Replaying " + recording);
+		inputReplayer.start();
+	}
+	
+	private void stopInputReplay() {
+		InputReplayer replayer = inputReplayer;
+		if (replayer != null) {
+			replayer.shutdown();
 		}
 	}
+	
+	// called on the UI thread as a joypad dispatches a touch
+	private void traceInput(JoypadView joypad) {
+		long now = System.nanoTime();
+		long age = SystemClock.uptimeMillis() - joypad.getEventTime();
+		session.getLatencyTracer().onInput(now - TimeUnit.MILLISECONDS.toNanos(age), now);
+	}
 
-	// end Dagu-style control
+	// end vehicle control
 	// --------------------------------------------------------------------
 	
 	
-	protected void onBluetoothConnectionConnected(BluetoothConnectionManager btConn) {
-		this.connecting = null;
-		this.btConn = btConn;
+	@Override
+	public void onSessionStateChanged() {
 		setUiConnected(isConnected());
-		displayToast("Connected");
-		triggerVersionAndCapabilityReport();
 	}
 	
-	private void triggerVersionAndCapabilityReport() {
-		if (isConnected()) {
-			try {
-				btConn.write(0xf0); // original protocol extension escape character
-				btConn.write(0x00); // report version & capability
-			} catch (IOException e) {
-				Log.w(LOGTAG, "upgrade failed: " + e.getMessage(), e);
-			}
+	@Override
+	public void onSessionConnected() {
+		displayToast("Connected");
+	}
+
+	@Override
+	public void onSessionDisconnected(String exitReason, boolean reconnecting) {
+		stopInputReplay();
+		setTitle(R.string.app_name);
+		if (!reconnecting) {
+			displayToast(exitReason);
 		}
 	}
 
-	protected void onBluetoothConnectionDisconnected(String exitReason) {
-		btConn = null;
-		setUiConnected(isConnected());
-		displayToast(exitReason);
+	@Override
+	public void onFirmwareVersion(String version) {
+		displayToast("Firmware " + version);
 	}
 	
-	protected void onBluetoothConnectionMessage(String data) {
-		displayToast("RX'd: " + data);
+	@Override
+	public void onBatteryLevel(long level) {
+		showTelemetryTitle();
+	}
+
+	@Override
+	public void onFollowerChanged(String name, String status) {
+		displayToast(name + ": " + status);
+	}
+
+	private void showTelemetryTitle() {
+		long level = session.getBatteryLevel();
+		if (level != VehicleSession.NO_BATTERY_LEVEL) {
+			setTitle("Firmware " + session.getFirmwareVersion() + ", battery " + level);
+		}
 	}
 
 	private void displayToast(String message) {
@@ -378,11 +515,10 @@ public class MainActivity extends Activity {
 	private void setUiConnected(boolean connected) {
 //		getSeekBar().setEnabled(connected);
 //		getSeekBar2().setEnabled(connected);
-		getJoypadRight().setEnabled(connected);
-		getJoypadLeft().setEnabled(connected);
+		getJoypad().setEnabled(connected);
 		getStopButton().setEnabled(connected);
 		
-		getConnectionButton().setEnabled(selectedAddr != null && connecting == null);
+		getConnectionButton().setEnabled(selectedAddr != null && !session.isConnecting());
 		getConnectionButton().setText(connected ? "Disconnect" : ("Connect to " + selectedName));
 		
 		if (!connected) {
@@ -391,14 +527,6 @@ public class MainActivity extends Activity {
 		}
 	}
 	
-	private void writeInitialStateCommands() {
-		try {
-			btConn.write("g\np\ni\nd\np200\n");
-		} catch (Exception e) {
-			Log.w(LOGTAG, "Could not write initial commands: " + e.toString());
-		}
-	}
-	
 	Button getStopButton() {
 		return (Button) findViewById(R.id.stopButton);
 	}
@@ -415,134 +543,22 @@ public class MainActivity extends Activity {
 //		return (SeekBar) findViewById(R.id.seekBar2);
 //	}
 	
-	JoypadView getJoypadLeft() {
-		return (JoypadView) findViewById(R.id.joypadLeft);
+	JoypadView getJoypad() {
+		return (JoypadView) findViewById(R.id.joypad);
 	}
 
-	JoypadView getJoypadRight() {
-		return (JoypadView) findViewById(R.id.joypadRight);
-	}
-
-	private void connect() {
-		if (selectedAddr == null) {
-			Log.w(LOGTAG, "attempted connect() with no selected address");
-			return;
-		}
-		
-		BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
-		if (bt == null) {
-			Log.w(LOGTAG, "attempted connect() with no Bluetooth hardware");
-			return;
-		}
-		
-		BluetoothDevice btd = bt.getRemoteDevice(selectedAddr);
-		
-		ParcelUuid[] parcelUuids = btd.getUuids();
-		if (parcelUuids == null || parcelUuids.length <= 0) {
-			Log.i(LOGTAG, "No UUIDs returned from device, fetching with SDP");
-			if (!btd.fetchUuidsWithSdp()) {
-				Log.w(LOGTAG, "Could not query for UUIDs");
-			}
-		} else {
-			for (ParcelUuid uuid: parcelUuids) {
-				Log.i(LOGTAG, "cached-uuid: " + uuid.toString());
-			}
-			Log.i(LOGTAG, "initiating connection");
-			ParcelUuid parcelUuid = (ParcelUuid) parcelUuids[0];
-			connect(btd, parcelUuid.getUuid());
-		}
-	}
-	
-	private void connect(BluetoothDevice device, UUID uuid) {
-		connecting = new BluetoothConnectionManager(device, uuid, new BluetoothConnectionEventRouter(this));
-		connecting.start();
-	}
-	
-	private void disconnect() {
+	private void showSessionLogSummary() {
 		try {
-			
-			// this should be done by the remote device! not us!
-			btConn.write("g0\n" + "p0\n" + "i0\n" + "d0\n" + "p1000\n");
-			
-			btConn.disconnect();
-		} catch (Exception e) {
-			Log.w(LOGTAG, "error closing socket during disconnect: " + e.toString());
+			SessionLogReader.Summary summary = session.summarizeSessionLog();
+			displayToast(summary != null ? summary.toString() : "No session logged yet");
+		} catch (IOException e) {
+			Log.w(LOGTAG, "cannot read session log: " + e.toString());
+			displayToast("Cannot read session log");
 		}
 	}
 	
 	private boolean isConnected() {
-		return btConn != null;
-	}
-
-	public static class BluetoothUuidReceiver extends BroadcastReceiver {
-		@Override
-		public void onReceive(Context context, Intent intent) {
-			if (BluetoothDevice.ACTION_UUID.equals(intent.getAction())) {
-				Log.i(LOGTAG, "Got UUIDs from SDP: ");
-				BluetoothDevice device = (BluetoothDevice) intent.getExtras().get(BluetoothDevice.EXTRA_DEVICE);
-				Parcelable[] parcelUuids = (Parcelable[]) intent.getExtras().get(BluetoothDevice.EXTRA_UUID);
-				for (Parcelable parcelUuid: parcelUuids) {
-					Log.i(LOGTAG, "  " + device + "/" + parcelUuid.toString());
-				}
-			}
-		}
-	}
-
-	public static class BluetoothConnectionEventRouter implements BluetoothConnectionManager.Listener {
-		private final MainActivity ui;
-
-		public BluetoothConnectionEventRouter(MainActivity ui) {
-			this.ui = ui;
-		}
-		
-		@Override
-		public void onConnected(final BluetoothConnectionManager bluetoothConnectionManager) {
-			ui.runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					ui.onBluetoothConnectionConnected(bluetoothConnectionManager);
-				}
-			});
-		}
-
-		@Override
-		public void onDisconnected(final String exitReason) {
-			ui.runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					ui.onBluetoothConnectionDisconnected(exitReason);
-				}
-			});
-		}
-
-		@Override
-		public void onMessage(final String string) {
-			ui.runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					ui.onBluetoothConnectionMessage(string);
-				}
-			});
-			
-			if (string.startsWith("ver=")) {
-				// further escaped extensions command bytes are safe
-				
-				try {
-					ui.btConn.write(0xf0); // extension escape control byte
-					ui.btConn.write(0x02); // battery query
-
-				} catch (IOException e) {
-					Log.w(LOGTAG, "batt-query failed: " + e.getMessage());
-				}
-				
-				try {
-					ui.btConn.write(0xf0);
-					ui.btConn.write(0x01); // upgrade!
-				} catch (IOException e) {
-					Log.w(LOGTAG, "proto-switch failed: " + e.getMessage());
-				}
-			}
-		}
+		return session.isConnected();
 	}
 
 }
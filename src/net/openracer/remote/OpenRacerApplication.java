@@ -0,0 +1,35 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import android.app.Application;
+
+/**
+ * Holds the {@link VehicleSession}, so the link survives activities being destroyed and
+ * recreated for rotation or while the app is in the background.
+ */
+public class OpenRacerApplication extends Application {
+
+	private VehicleSession session = null; // main thread only
+
+	public VehicleSession getSession() {
+		if (session == null) {
+			session = new VehicleSession(this);
+		}
+		return session;
+	}
+}
@@ -0,0 +1,209 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-memory {@link Transport}; {@link #pair(int)} creates two cross-connected ends.
+ *
+ * <p>
+ * Each direction is a bounded ring buffer: writers block while it is full and readers block
+ * while it is empty. Closing either end closes both directions, so a blocked reader sees end of
+ * stream and a blocked writer gets an {@link IOException}, as with a dropped socket.
+ * </p>
+ */
+public class PipeTransport implements Transport {
+
+	public static class Pair {
+		public final PipeTransport local;
+		public final PipeTransport remote;
+
+		private Pair(PipeTransport local, PipeTransport remote) {
+			this.local = local;
+			this.remote = remote;
+		}
+	}
+
+	/**
+	 * @param capacity bytes buffered in each direction
+	 */
+	public static Pair pair(int capacity) {
+		BytePipe ab = new BytePipe(capacity);
+		BytePipe ba = new BytePipe(capacity);
+		return new Pair(new PipeTransport(ba, ab, "pipe:local"), new PipeTransport(ab, ba, "pipe:remote"));
+	}
+
+	private final BytePipe in;
+	private final BytePipe out;
+	private final String name;
+
+	private PipeTransport(BytePipe in, BytePipe out, String name) {
+		this.in = in;
+		this.out = out;
+		this.name = name;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (in.isClosed() || out.isClosed()) {
+			throw new IOException("pipe closed");
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in.input;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out.output;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return !in.isClosed() && !out.isClosed();
+	}
+
+	@Override
+	public void close() {
+		in.close();
+		out.close();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private static class BytePipe {
+		private final byte[] buf;
+		private long head = 0; // free-running read position
+		private long tail = 0; // free-running write position
+		private boolean closed = false;
+
+		final InputStream input = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return read(one, 0, 1) < 0 ? -1 : (one[0] & 0xff);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return BytePipe.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() {
+				return BytePipe.this.available();
+			}
+
+			@Override
+			public void close() {
+				BytePipe.this.close();
+			}
+		};
+
+		final OutputStream output = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				BytePipe.this.write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				BytePipe.this.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				BytePipe.this.close();
+			}
+		};
+
+		BytePipe(int capacity) {
+			this.buf = new byte[capacity];
+		}
+
+		synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			try {
+				while (tail == head && !closed) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+			if (tail == head) {
+				return -1;
+			}
+			int n = (int) Math.min(len, tail - head);
+			int pos = (int) (head % buf.length);
+			int first = Math.min(n, buf.length - pos);
+			System.arraycopy(buf, pos, b, off, first);
+			System.arraycopy(buf, 0, b, off + first, n - first);
+			head += n;
+			notifyAll();
+			return n;
+		}
+
+		synchronized void write(byte[] b, int off, int len) throws IOException {
+			try {
+				while (len > 0) {
+					while (tail - head == buf.length && !closed) {
+						wait();
+					}
+					if (closed) {
+						throw new IOException("pipe closed");
+					}
+					int n = (int) Math.min(len, buf.length - (tail - head));
+					int pos = (int) (tail % buf.length);
+					int first = Math.min(n, buf.length - pos);
+					System.arraycopy(b, off, buf, pos, first);
+					System.arraycopy(b, off + first, buf, 0, n - first);
+					tail += n;
+					off += n;
+					len -= n;
+					notifyAll();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+		}
+
+		synchronized int available() {
+			return (int) (tail - head);
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+	}
+}
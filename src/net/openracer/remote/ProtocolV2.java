@@ -0,0 +1,122 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Version 2 control frame, spoken after the firmware accepts the {@link ExtensionCommand#UPGRADE} command.
+ *
+ * <pre>
+ *  bytes 0-2  SYNC (2 bits, binary 10) | sequence (4 bits) | throttle (9 bits) | steer (9 bits),
+ *             big-endian, axes two's complement
+ *  byte 3     CRC-8 (polynomial 0x07) over bytes 0-2
+ * </pre>
+ *
+ * <p>
+ * Both axes keep the full [{@link VehicleCodec#AXIS_MIN}, {@link VehicleCodec#AXIS_MAX}] range,
+ * so steering is proportional instead of three positions. The sequence number lets the receiver
+ * count dropped frames (modulo 16 per gap), and the CRC lets it reject corrupted ones and
+ * resynchronize. The first byte is always 0x80-0xbf, so it never reads as the
+ * {@link ExtensionCommand#ESCAPE} byte.
+ * </p>
+ *
+ * <p>
+ * Wire rate: at the 50 Hz control rate a frame goes out only when the command changes, or at the
+ * 250 ms refresh, so v2 costs at most 200 B/s while the driver moves the controls every tick and
+ * 16 B/s while they are held, against 50 B/s and 4 B/s for the one-byte original protocol.
+ * </p>
+ *
+ * @see ProtocolV2Codec
+ * @see ProtocolV2Decoder
+ */
+public final class ProtocolV2 {
+
+	/** The top two bits of the first byte of a frame. */
+	public static final int SYNC = 0x80;
+	public static final int SYNC_MASK = 0xc0;
+	public static final int FRAME_LENGTH = 4;
+
+	static final int SEQUENCE_MASK = 0x0f;
+	private static final int AXIS_BITS = 9;
+	private static final int AXIS_MASK = (1 << AXIS_BITS) - 1;
+	private static final int SEQUENCE_SHIFT = 2 * AXIS_BITS;
+
+	private static final byte[] CRC_TABLE = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+			}
+			CRC_TABLE[i] = (byte) crc;
+		}
+	}
+
+	private ProtocolV2() {
+	}
+
+	static int crc8(byte[] data, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = CRC_TABLE[(crc ^ data[i]) & 0xff] & 0xff;
+		}
+		return crc;
+	}
+
+	/**
+	 * @return true if {@code b} can start a frame
+	 */
+	public static boolean isSync(int b) {
+		return (b & SYNC_MASK) == SYNC;
+	}
+
+	/**
+	 * Writes one frame of {@link #FRAME_LENGTH} bytes.
+	 */
+	static void write(int sequence, int throttle, int steer, byte[] out, int offset) {
+		int packed = (SYNC << 16) | ((sequence & SEQUENCE_MASK) << SEQUENCE_SHIFT)
+				| ((throttle & AXIS_MASK) << AXIS_BITS) | (steer & AXIS_MASK);
+		out[offset] = (byte) (packed >>> 16);
+		out[offset + 1] = (byte) (packed >>> 8);
+		out[offset + 2] = (byte) packed;
+		out[offset + 3] = (byte) crc8(out, offset, 3);
+	}
+
+	/**
+	 * Replaces the sequence number of a written frame, updating its CRC.
+	 */
+	static void restamp(int sequence, byte[] frame, int offset) {
+		frame[offset] = (byte) ((frame[offset] & ~(SEQUENCE_MASK << 2)) | ((sequence & SEQUENCE_MASK) << 2));
+		frame[offset + 3] = (byte) crc8(frame, offset, 3);
+	}
+
+	static int packed(byte[] frame, int offset) {
+		return ((frame[offset] & 0xff) << 16) | ((frame[offset + 1] & 0xff) << 8) | (frame[offset + 2] & 0xff);
+	}
+
+	static int sequence(int packed) {
+		return (packed >>> SEQUENCE_SHIFT) & SEQUENCE_MASK;
+	}
+
+	static int throttle(int packed) {
+		return (packed << (32 - 2 * AXIS_BITS)) >> (32 - AXIS_BITS);
+	}
+
+	static int steer(int packed) {
+		return (packed << (32 - AXIS_BITS)) >> (32 - AXIS_BITS);
+	}
+}
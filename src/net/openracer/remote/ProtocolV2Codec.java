@@ -0,0 +1,68 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Encodes {@link ProtocolV2} frames, numbering them in sequence.
+ *
+ * <p>
+ * Frames are numbered as they are encoded, which is right when every encoded frame is sent. A
+ * {@link ControlTransmitter} drops control frames that are superseded before it writes them, so
+ * in front of one the codec is also its {@link ControlTransmitter.FrameStamper}: frames are then
+ * renumbered as they are written, and the receiver counts only frames lost on the link.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe; use from the single thread that encodes control frames. {@link #stamp} is
+ * called from the transmitter's writer thread, and uses its own counter.
+ * </p>
+ */
+public class ProtocolV2Codec implements VehicleCodec, ControlTransmitter.FrameStamper {
+
+	private int sequence = 0;
+	private int writtenSequence = 0; // writer thread only
+
+	@Override
+	public int encode(int throttle, int steer, byte[] out, int offset) {
+		ProtocolV2.write(sequence, clamp(throttle), clamp(steer), out, offset);
+		sequence = (sequence + 1) & ProtocolV2.SEQUENCE_MASK;
+		return ProtocolV2.FRAME_LENGTH;
+	}
+
+	@Override
+	public void stamp(byte[] frame, int offset, int length) {
+		if (length != ProtocolV2.FRAME_LENGTH || !ProtocolV2.isSync(frame[offset])) {
+			return; // queued in another protocol before the upgrade
+		}
+		ProtocolV2.restamp(writtenSequence, frame, offset);
+		writtenSequence = (writtenSequence + 1) & ProtocolV2.SEQUENCE_MASK;
+	}
+
+	private static int clamp(int value) {
+		return value < AXIS_MIN ? AXIS_MIN : (value > AXIS_MAX ? AXIS_MAX : value);
+	}
+
+	@Override
+	public int commandKey(int throttle, int steer) {
+		return (clamp(throttle) << 16) | (clamp(steer) & 0xffff);
+	}
+
+	@Override
+	public int maxFrameLength() {
+		return ProtocolV2.FRAME_LENGTH;
+	}
+}
@@ -0,0 +1,115 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Streaming decoder for {@link ProtocolV2} frames, fed bytes as they arrive.
+ *
+ * <p>
+ * Bytes are accumulated from a SYNC byte until a whole frame is present. A frame with a bad CRC
+ * is rejected and scanning restarts at the byte after its SYNC, so a corrupted or truncated frame
+ * costs at most that frame. Gaps in the sequence numbers of good frames are counted as dropped.
+ * </p>
+ */
+public class ProtocolV2Decoder {
+
+	public static interface Listener {
+
+		void onFrame(int sequence, int throttle, int steer);
+	}
+
+	private final Listener listener;
+	private final byte[] frame = new byte[ProtocolV2.FRAME_LENGTH];
+	private int filled = 0;
+	private int expectedSequence = -1;
+
+	private long frameCount = 0;
+	private long crcErrorCount = 0;
+	private long droppedCount = 0;
+	private long skippedByteCount = 0;
+
+	public ProtocolV2Decoder(Listener listener) {
+		this.listener = listener;
+	}
+
+	public void feed(byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			feed(data[i]);
+		}
+	}
+
+	public void feed(byte b) {
+		if (filled == 0 && !ProtocolV2.isSync(b)) {
+			skippedByteCount++;
+			return;
+		}
+		frame[filled++] = b;
+		if (filled < ProtocolV2.FRAME_LENGTH) {
+			return;
+		}
+
+		if (ProtocolV2.crc8(frame, 0, 3) == (frame[3] & 0xff)) {
+			filled = 0;
+			onGoodFrame();
+		} else {
+			crcErrorCount++;
+			resync();
+		}
+	}
+
+	// drops the SYNC byte of a rejected frame and rescans the rest for the next SYNC
+	private void resync() {
+		int start = 1;
+		while (start < filled && !ProtocolV2.isSync(frame[start])) {
+			start++;
+		}
+		skippedByteCount += start;
+		System.arraycopy(frame, start, frame, 0, filled - start);
+		filled -= start;
+	}
+
+	private void onGoodFrame() {
+		int packed = ProtocolV2.packed(frame, 0);
+		int sequence = ProtocolV2.sequence(packed);
+		if (expectedSequence >= 0 && sequence != expectedSequence) {
+			droppedCount += (sequence - expectedSequence) & ProtocolV2.SEQUENCE_MASK;
+		}
+		expectedSequence = (sequence + 1) & ProtocolV2.SEQUENCE_MASK;
+		frameCount++;
+
+		listener.onFrame(sequence, ProtocolV2.throttle(packed), ProtocolV2.steer(packed));
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	public long getCrcErrorCount() {
+		return crcErrorCount;
+	}
+
+	/**
+	 * @return frames missing from the sequence numbering, modulo 16 per gap
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public long getSkippedByteCount() {
+		return skippedByteCount;
+	}
+}
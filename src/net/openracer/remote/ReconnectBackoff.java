@@ -0,0 +1,68 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Exponential backoff for reconnect attempts.
+ *
+ * <p>
+ * The first retry comes quickly, since most dropouts are momentary; each further failure doubles
+ * the delay up to a ceiling, and after a fixed number of attempts the caller should give up.
+ * </p>
+ */
+public class ReconnectBackoff {
+
+	private final long initialDelayMs;
+	private final long maxDelayMs;
+	private final int maxAttempts;
+	private int attempts = 0;
+
+	public ReconnectBackoff(long initialDelayMs, long maxDelayMs, int maxAttempts) {
+		this.initialDelayMs = initialDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return true if another attempt is allowed
+	 */
+	public boolean hasNext() {
+		return attempts < maxAttempts;
+	}
+
+	/**
+	 * Counts an attempt.
+	 *
+	 * @return how long to wait before making it
+	 */
+	public long nextDelayMs() {
+		long delay = initialDelayMs << Math.min(attempts, 30);
+		attempts++;
+		return Math.min(delay, maxDelayMs);
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Call after a successful connection.
+	 */
+	public void reset() {
+		attempts = 0;
+	}
+}
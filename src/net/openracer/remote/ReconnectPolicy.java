@@ -0,0 +1,104 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package net.openracer.remote;
+
+/**
+ * Decides whether an ended connection is retried, following a {@link ReconnectBackoff}.
+ *
+ * <p>
+ * A lost link is retried, and so is a failed retry, until the backoff gives up; a first attempt
+ * that fails is not. Nothing is retried once a disconnect has been requested, and that holds
+ * for a link that comes up after the request too: it is to be closed at once, since its
+ * connected event may already have been on its way when the user asked.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe; the session uses it from the main thread.
+ * </p>
+ */
+public class ReconnectPolicy {
+
+	/** Returned by {@link #onDisconnected(boolean)} when there is to be no reconnect. */
+	public static final long NO_RECONNECT = -1;
+
+	private final ReconnectBackoff backoff;
+	private boolean disconnectRequested = false;
+
+	public ReconnectPolicy(ReconnectBackoff backoff) {
+		this.backoff = backoff;
+	}
+
+	/**
+	 * The user asked for a connection; the backoff starts over.
+	 */
+	public void onConnectRequested() {
+		backoff.reset();
+	}
+
+	/**
+	 * The user asked to disconnect; whatever ends next is not retried.
+	 */
+	public void onDisconnectRequested() {
+		disconnectRequested = true;
+	}
+
+	/**
+	 * A requested disconnect found nothing connecting or connected, so it is already done.
+	 */
+	public void onDisconnectComplete() {
+		disconnectRequested = false;
+	}
+
+	public boolean isDisconnectRequested() {
+		return disconnectRequested;
+	}
+
+	/**
+	 * A link came up.
+	 *
+	 * @return false if a disconnect was requested meanwhile, in which case the link should be
+	 *   closed; its end is then not retried
+	 */
+	public boolean onConnected() {
+		if (disconnectRequested) {
+			return false;
+		}
+		backoff.reset();
+		return true;
+	}
+
+	/**
+	 * A link or a connection attempt ended.
+	 *
+	 * @param wasConnected true if the link had come up
+	 * @return how long to wait before reconnecting, or {@link #NO_RECONNECT}
+	 */
+	public long onDisconnected(boolean wasConnected) {
+		boolean retrying = wasConnected || backoff.getAttempts() > 0;
+		if (!disconnectRequested && retrying && backoff.hasNext()) {
+			return backoff.nextDelayMs();
+		}
+		disconnectRequested = false;
+		return NO_RECONNECT;
+	}
+
+	/**
+	 * @return reconnect attempts since the last successful connection
+	 */
+	public int getAttempts() {
+		return backoff.getAttempts();
+	}
+}
@@ -0,0 +1,93 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * Bluetooth RFCOMM {@link Transport}, connecting to a service record UUID on a remote device.
+ */
+public class RfcommTransport implements Transport {
+
+	private final BluetoothDevice device;
+	private final UUID uuid;
+	private volatile BluetoothSocket socket = null;
+
+	public RfcommTransport(BluetoothDevice device, UUID uuid) {
+		this.device = device;
+		this.uuid = uuid;
+	}
+
+	public BluetoothDevice getDevice() {
+		return device;
+	}
+
+	public UUID getUuid() {
+		return uuid;
+	}
+
+	/**
+	 * @return true if a {@link #connect()} failure says the device is there but does not offer
+	 *   the service, rather than, say, being out of range; going by the platform's messages
+	 */
+	public static boolean isServiceUnavailable(IOException connectFailure) {
+		String message = connectFailure.getMessage();
+		return message != null && (message.contains("Service discovery failed") || message.contains("refused"));
+	}
+
+	@Override
+	public void connect() throws IOException {
+		BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuid);
+		this.socket = socket;
+		socket.connect();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public boolean isConnected() {
+		BluetoothSocket s = socket;
+		return s != null && s.isConnected();
+	}
+
+	@Override
+	public void close() throws IOException {
+		BluetoothSocket s = socket;
+		if (s != null) {
+			s.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "rfcomm:" + device.getAddress() + "/" + uuid;
+	}
+}
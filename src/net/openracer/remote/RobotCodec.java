@@ -0,0 +1,48 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Robot-style text control (normal differential or "tank" style): a "g&lt;steer&gt;" and an
+ * "h&lt;throttle&gt;" command, each terminated by a newline.
+ */
+public class RobotCodec implements VehicleCodec {
+
+	// "g-256\n" + "h-256\n"
+	private static final int MAX_FRAME_LENGTH = 12;
+
+	@Override
+	public int encode(int throttle, int steer, byte[] out, int offset) {
+		int length = AsciiCommandEncoder.writeCommand('g', clamp(steer), out, offset);
+		length += AsciiCommandEncoder.writeCommand('h', clamp(throttle), out, offset + length);
+		return length;
+	}
+
+	private static int clamp(int value) {
+		return value < AXIS_MIN ? AXIS_MIN : (value > AXIS_MAX ? AXIS_MAX : value);
+	}
+
+	@Override
+	public int commandKey(int throttle, int steer) {
+		return (clamp(throttle) << 16) | (clamp(steer) & 0xffff);
+	}
+
+	@Override
+	public int maxFrameLength() {
+		return MAX_FRAME_LENGTH;
+	}
+}
@@ -0,0 +1,291 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+import android.util.Log;
+
+/**
+ * Append-only binary log of the bytes sent to and received from a vehicle during one session.
+ *
+ * <p>
+ * Records are written straight into a memory-mapped segment file, so appending is a few buffer
+ * puts with no system call and no allocation; the kernel writes the pages back on its own, and
+ * they survive the app being killed. When a segment is full the next one is mapped, without
+ * forcing the old one out, and only the newest {@code maxSegments} segments are kept.
+ * </p>
+ *
+ * <p>
+ * Segment layout (big-endian): a {@value #HEADER_LENGTH}-byte header of magic, version, segment
+ * index, wall clock millis and {@link System#nanoTime()} at creation, then records of direction
+ * (1 byte), payload length (2 bytes), {@code nanoTime} (8 bytes) and the payload. The unused rest
+ * of a segment is zero, so a direction of 0 marks the end. See {@link SessionLogReader}.
+ * </p>
+ *
+ * <p>
+ * Logging is best effort: if a segment cannot be created the log closes itself and later
+ * appends are ignored, so a full disk never stops the car.
+ * </p>
+ */
+public class SessionLog {
+
+	private static final String LOGTAG = "openracer-sessionlog";
+
+	static final int MAGIC = 0x4f524c47; // "ORLG"
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 32;
+	static final int RECORD_HEADER_LENGTH = 11;
+	static final String SEGMENT_PREFIX = "segment-";
+	static final String SEGMENT_SUFFIX = ".log";
+
+	public static final int MAX_PAYLOAD_LENGTH = 0xffff;
+	public static final int MIN_SEGMENT_SIZE = 4096;
+
+	public static enum Direction {
+		Sent,
+		Received,
+		/** an application marker, e.g. connected or a codec change */
+		Event;
+
+		byte code() {
+			return (byte) (ordinal() + 1);
+		}
+
+		static Direction of(int code) {
+			Direction[] values = VALUES;
+			return code >= 1 && code <= values.length ? values[code - 1] : null;
+		}
+
+		private static final Direction[] VALUES = values();
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final int maxSegments;
+
+	// guarded by this
+	private final LinkedList<File> segments = new LinkedList<File>();
+	private MappedByteBuffer segment = null;
+	private int segmentIndex = 0;
+	private boolean closed = false;
+	private long recordCount = 0;
+	private long droppedCount = 0;
+
+	/**
+	 * Creates {@code directory} if needed and maps the first segment.
+	 *
+	 * @param segmentSize bytes per segment file, at least {@value #MIN_SEGMENT_SIZE}
+	 * @param maxSegments segments kept on disk; older ones are deleted as new ones are mapped
+	 */
+	public SessionLog(File directory, int segmentSize, int maxSegments) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("segment too small: " + segmentSize);
+		}
+		if (maxSegments <= 0) {
+			throw new IllegalArgumentException("need at least one segment: " + maxSegments);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		synchronized (this) {
+			rotate();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void append(Direction direction, byte[] data, int offset, int length) {
+		synchronized (this) {
+			if (!reserve(length)) {
+				return;
+			}
+			segment.put(direction.code()).putShort((short) length).putLong(System.nanoTime());
+			segment.put(data, offset, length);
+			recordCount++;
+		}
+	}
+
+	public void append(Direction direction, int oneByte) {
+		synchronized (this) {
+			if (!reserve(1)) {
+				return;
+			}
+			segment.put(direction.code()).putShort((short) 1).putLong(System.nanoTime());
+			segment.put((byte) oneByte);
+			recordCount++;
+		}
+	}
+
+	/**
+	 * Appends a received line, without its terminator.
+	 */
+	public void append(Direction direction, LineFramer.Line line) {
+		int length = line.length();
+		synchronized (this) {
+			if (!reserve(length)) {
+				return;
+			}
+			segment.put(direction.code()).putShort((short) length).putLong(System.nanoTime());
+			for (int i = 0; i < length; i++) {
+				segment.put(line.byteAt(i));
+			}
+			recordCount++;
+		}
+	}
+
+	/**
+	 * Appends an {@link Direction#Event} marker; allocates, so not for per-frame use.
+	 */
+	public void event(String text) {
+		byte[] bytes = text.getBytes();
+		append(Direction.Event, bytes, 0, Math.min(bytes.length, MAX_PAYLOAD_LENGTH));
+	}
+
+	// caller holds this; makes room for a record, rotating if needed
+	private boolean reserve(int length) {
+		if (closed) {
+			return false;
+		}
+		if (length > MAX_PAYLOAD_LENGTH || RECORD_HEADER_LENGTH + length > segmentSize - HEADER_LENGTH) {
+			droppedCount++;
+			return false;
+		}
+		if (segment.remaining() < RECORD_HEADER_LENGTH + length) {
+			try {
+				rotate();
+			} catch (IOException e) {
+				Log.w(LOGTAG, "cannot start a new segment, logging stopped: " + e.toString());
+				closed = true;
+				droppedCount++;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// caller holds this; this runs on the writer thread, under its socket lock, so the old
+	// segment is not forced here: the kernel writes it back lazily, as it does the current one
+	private void rotate() throws IOException {
+		if (segment != null) {
+			segmentIndex++;
+		}
+
+		File file = new File(directory, segmentName(segmentIndex));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0); // a leftover file must read back as zeros past our records
+			raf.setLength(segmentSize);
+			segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+		segment.order(ByteOrder.BIG_ENDIAN);
+		segment.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putInt(segmentIndex);
+		segment.putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+		segment.position(HEADER_LENGTH);
+
+		segments.add(file);
+		while (segments.size() > maxSegments) {
+			File oldest = segments.removeFirst();
+			if (!oldest.delete()) {
+				Log.w(LOGTAG, "could not delete " + oldest);
+			}
+		}
+	}
+
+	static String segmentName(int index) {
+		String digits = Integer.toString(index);
+		StringBuilder name = new StringBuilder(SEGMENT_PREFIX);
+		for (int i = digits.length(); i < 6; i++) {
+			name.append('0');
+		}
+		return name.append(digits).append(SEGMENT_SUFFIX).toString();
+	}
+
+	/**
+	 * Asks the kernel to write the mapped pages back now.
+	 */
+	public synchronized void flush() {
+		if (!closed) {
+			segment.force();
+		}
+	}
+
+	/**
+	 * Flushes and stops logging; later appends are ignored.
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			segment.force();
+			closed = true;
+		}
+	}
+
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return records not logged because they were too long or the log had stopped
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return directory + ": " + recordCount + " records, " + (segmentIndex + 1) + " segments written, " + droppedCount + " dropped";
+	}
+
+	/**
+	 * Passes writes through to a stream and logs each one as {@link Direction#Sent}.
+	 */
+	public static class Tap extends FilterOutputStream {
+		private final SessionLog log;
+
+		public Tap(OutputStream out, SessionLog log) {
+			super(out);
+			this.log = log;
+		}
+
+		@Override
+		public void write(int oneByte) throws IOException {
+			out.write(oneByte);
+			log.append(Direction.Sent, oneByte);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			out.write(data, offset, length);
+			log.append(Direction.Sent, data, offset, length);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads back the segments written by a {@link SessionLog}, oldest first.
+ */
+public class SessionLogReader {
+
+	public static interface Visitor {
+
+		/**
+		 * The record is reused; it is only valid for the duration of the call.
+		 */
+		void onRecord(Record record);
+	}
+
+	public static final class Record {
+		private MappedByteBuffer segment;
+		private SessionLog.Direction direction;
+		private int payloadOffset;
+		private int payloadLength;
+		private long nanos;
+		private long wallClockMillis;
+
+		public SessionLog.Direction getDirection() {
+			return direction;
+		}
+
+		/**
+		 * @return the {@link System#nanoTime()} the record was appended at
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return the wall clock time, derived from the segment header
+		 */
+		public long getWallClockMillis() {
+			return wallClockMillis;
+		}
+
+		public int getPayloadLength() {
+			return payloadLength;
+		}
+
+		public byte getPayloadByte(int index) {
+			if (index < 0 || index >= payloadLength) {
+				throw new IndexOutOfBoundsException("index " + index + " of " + payloadLength);
+			}
+			return segment.get(payloadOffset + index);
+		}
+
+		public void copyTo(byte[] dest, int offset) {
+			for (int i = 0; i < payloadLength; i++) {
+				dest[offset + i] = segment.get(payloadOffset + i);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(wallClockMillis).append(' ').append(direction).append(' ');
+			for (int i = 0; i < payloadLength; i++) {
+				int b = segment.get(payloadOffset + i) & 0xff;
+				if (b >= 0x20 && b < 0x7f) {
+					s.append((char) b);
+				} else {
+					s.append("\\x").append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+				}
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Totals for one session.
+	 */
+	public static final class Summary implements Visitor {
+		private final long[] records = new long[SessionLog.Direction.values().length];
+		private final long[] bytes = new long[records.length];
+		private long firstNanos = 0;
+		private long lastNanos = 0;
+		private long lastReceivedNanos = 0;
+		private long maxReceiveGapNanos = 0;
+
+		@Override
+		public void onRecord(Record record) {
+			int d = record.getDirection().ordinal();
+			records[d]++;
+			bytes[d] += record.getPayloadLength();
+			long nanos = record.getNanos();
+			if (firstNanos == 0) {
+				firstNanos = nanos;
+			}
+			lastNanos = nanos;
+			if (record.getDirection() == SessionLog.Direction.Received) {
+				if (lastReceivedNanos != 0) {
+					maxReceiveGapNanos = Math.max(maxReceiveGapNanos, nanos - lastReceivedNanos);
+				}
+				lastReceivedNanos = nanos;
+			}
+		}
+
+		public long getRecordCount(SessionLog.Direction direction) {
+			return records[direction.ordinal()];
+		}
+
+		public long getByteCount(SessionLog.Direction direction) {
+			return bytes[direction.ordinal()];
+		}
+
+		public long getDurationMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(lastNanos - firstNanos);
+		}
+
+		/**
+		 * @return the longest silence from the vehicle, a hint of link dropouts
+		 */
+		public long getMaxReceiveGapMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxReceiveGapNanos);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(getDurationMillis()).append("ms");
+			for (SessionLog.Direction direction : SessionLog.Direction.values()) {
+				s.append(", ").append(direction).append(' ').append(getRecordCount(direction))
+						.append('/').append(getByteCount(direction)).append('B');
+			}
+			s.append(", max rx gap ").append(getMaxReceiveGapMillis()).append("ms");
+			return s.toString();
+		}
+	}
+
+	private final File directory;
+
+	public SessionLogReader(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the segment files, oldest first
+	 */
+	public File[] getSegments() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SessionLog.SEGMENT_PREFIX) && name.endsWith(SessionLog.SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files); // names are zero-padded
+		return files;
+	}
+
+	/**
+	 * Visits every record of every segment, oldest first. A truncated record ends its segment.
+	 */
+	public void read(Visitor visitor) throws IOException {
+		Record record = new Record();
+		for (File file : getSegments()) {
+			readSegment(file, record, visitor);
+		}
+	}
+
+	public Summary summarize() throws IOException {
+		Summary summary = new Summary();
+		read(summary);
+		return summary;
+	}
+
+	private static void readSegment(File file, Record record, Visitor visitor) throws IOException {
+		MappedByteBuffer segment;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		segment.order(ByteOrder.BIG_ENDIAN);
+
+		if (segment.remaining() < SessionLog.HEADER_LENGTH || segment.getInt() != SessionLog.MAGIC) {
+			throw new IOException("not a session log segment: " + file);
+		}
+		int version = segment.getShort();
+		if (version != SessionLog.VERSION) {
+			throw new IOException("unsupported session log version " + version + ": " + file);
+		}
+		segment.getShort();
+		segment.getInt(); // segment index
+		long baseMillis = segment.getLong();
+		long baseNanos = segment.getLong();
+		segment.position(SessionLog.HEADER_LENGTH);
+
+		record.segment = segment;
+		while (segment.remaining() >= SessionLog.RECORD_HEADER_LENGTH) {
+			SessionLog.Direction direction = SessionLog.Direction.of(segment.get());
+			if (direction == null) {
+				break; // end of written records
+			}
+			int length = segment.getShort() & 0xffff;
+			long nanos = segment.getLong();
+			if (length > segment.remaining()) {
+				break;
+			}
+			record.direction = direction;
+			record.payloadOffset = segment.position();
+			record.payloadLength = length;
+			record.nanos = nanos;
+			record.wallClockMillis = baseMillis + TimeUnit.NANOSECONDS.toMillis(nanos - baseNanos);
+			visitor.onRecord(record);
+			segment.position(record.payloadOffset + length);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * TCP {@link Transport}, for talking to an emulator or a serial bridge over the network.
+ * Nagle's algorithm is disabled since control frames are small and latency-sensitive.
+ */
+public class TcpTransport implements Transport {
+
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+
+	private final String host;
+	private final int port;
+	private final Socket socket;
+
+	public TcpTransport(String host, int port) {
+		this.host = host;
+		this.port = port;
+		this.socket = new Socket();
+	}
+
+	/**
+	 * Wraps an already-connected socket, e.g. one returned by a server socket's accept.
+	 */
+	public TcpTransport(Socket socket) {
+		this.host = socket.getInetAddress().getHostAddress();
+		this.port = socket.getPort();
+		this.socket = socket;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (!socket.isConnected()) {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+		}
+		socket.setTcpNoDelay(true);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected() && !socket.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	@Override
+	public String toString() {
+		return "tcp:" + host + ":" + port;
+	}
+}
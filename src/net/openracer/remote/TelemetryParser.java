@@ -0,0 +1,319 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decodes {@code key=value} telemetry lines from the firmware into typed, reused records.
+ *
+ * <p>
+ * Each known {@link Key} has one {@link Record} that is refilled in place from the received
+ * bytes, with the value also parsed as an integer when it is one, so steady telemetry does not
+ * allocate. Records are published to subscribers on the receiving thread; a subscriber that
+ * needs a value later, or on another thread, must copy it.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe: {@link #parse(LineFramer.Line)} is called from the one receiving thread.
+ * </p>
+ */
+public class TelemetryParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Key[] KEYS = Key.values();
+
+	public static final int MAX_KEY_LENGTH = 16;
+	public static final int MAX_VALUE_LENGTH = 64;
+
+	public static enum Key {
+		/** firmware version, answer to {@link ExtensionCommand#REPORT_VERSION} */
+		Version("ver"),
+		/** capability flags */
+		Capabilities("cap"),
+		/** battery level, answer to {@link ExtensionCommand#BATTERY} */
+		Battery("batt"),
+		/** echoed sequence number, answer to {@link ExtensionCommand#PING} */
+		Pong("pong"),
+		/** protocol now spoken, answer to {@link ExtensionCommand#UPGRADE} */
+		Protocol("proto"),
+		/** any other key; see {@link Record#getName()} */
+		Unknown(null);
+
+		private final byte[] name;
+
+		private Key(String name) {
+			this.name = name == null ? null : name.getBytes(UTF8);
+		}
+	}
+
+	public static interface Subscriber {
+
+		/**
+		 * Called on the receiving thread; the record is only valid for the duration of the call.
+		 */
+		void onTelemetry(Record record);
+	}
+
+	/**
+	 * The latest value received for one key.
+	 */
+	public static final class Record {
+		private final Key key;
+		private final byte[] name = new byte[MAX_KEY_LENGTH];
+		private int nameLength = 0;
+		private final byte[] value = new byte[MAX_VALUE_LENGTH];
+		private int valueLength = 0;
+		private boolean numeric = false;
+		private long number = 0;
+		private String valueString = null; // decoded on demand, kept while the value is unchanged
+		private boolean changed = false;
+
+		private Record(Key key) {
+			this.key = key;
+		}
+
+		public Key getKey() {
+			return key;
+		}
+
+		/**
+		 * @return true if the value (or, for {@link Key#Unknown}, the name) differs from the
+		 *         previous one for this key
+		 */
+		public boolean isChanged() {
+			return changed;
+		}
+
+		/**
+		 * @return true if the value is a decimal integer, available from {@link #getNumber()}
+		 */
+		public boolean isNumeric() {
+			return numeric;
+		}
+
+		public long getNumber() {
+			return number;
+		}
+
+		public int getValueLength() {
+			return valueLength;
+		}
+
+		public byte getValueByte(int index) {
+			if (index < 0 || index >= valueLength) {
+				throw new IndexOutOfBoundsException("index " + index + " of " + valueLength);
+			}
+			return value[index];
+		}
+
+		/**
+		 * @return true if the value, read as a comma-separated list (as {@link Key#Capabilities}
+		 *         is), contains the given ASCII item
+		 */
+		public boolean hasItem(String item) {
+			int start = 0;
+			while (start <= valueLength) {
+				int end = start;
+				while (end < valueLength && value[end] != ',') {
+					end++;
+				}
+				if (end - start == item.length()) {
+					int i = 0;
+					while (i < item.length() && value[start + i] == item.charAt(i)) {
+						i++;
+					}
+					if (i == item.length()) {
+						return true;
+					}
+				}
+				start = end + 1;
+			}
+			return false;
+		}
+
+		/**
+		 * @return the value as text; only allocates when the value has changed since the last call
+		 */
+		public String getValue() {
+			if (valueString == null) {
+				valueString = new String(value, 0, valueLength, UTF8);
+			}
+			return valueString;
+		}
+
+		/**
+		 * @return the key as received; allocates
+		 */
+		public String getName() {
+			return new String(name, 0, nameLength, UTF8);
+		}
+
+		@Override
+		public String toString() {
+			return getName() + "=" + getValue();
+		}
+
+		private void fill(LineFramer.Line line, int keyEnd, int valueStart, int valueEnd) {
+			// the Unknown record is shared by every unknown name, so a new name is a change too
+			int keyLength = Math.min(keyEnd, MAX_KEY_LENGTH);
+			changed = keyLength != nameLength;
+			for (int i = 0; i < keyLength; i++) {
+				byte b = line.byteAt(i);
+				if (!changed && name[i] != b) {
+					changed = true;
+				}
+				name[i] = b;
+			}
+			nameLength = keyLength;
+
+			int length = Math.min(valueEnd - valueStart, MAX_VALUE_LENGTH);
+			if (length != valueLength) {
+				changed = true;
+			}
+			for (int i = 0; i < length; i++) {
+				byte b = line.byteAt(valueStart + i);
+				if (!changed && value[i] != b) {
+					changed = true;
+				}
+				value[i] = b;
+			}
+			valueLength = length;
+			if (changed) {
+				valueString = null;
+			}
+
+			parseNumber();
+		}
+
+		private void parseNumber() {
+			numeric = false;
+			int i = 0;
+			boolean negative = false;
+			if (valueLength > 0 && (value[0] == '-' || value[0] == '+')) {
+				negative = value[0] == '-';
+				i = 1;
+			}
+			if (i == valueLength || valueLength - i > 18) {
+				return;
+			}
+			long n = 0;
+			for (; i < valueLength; i++) {
+				int digit = value[i] - '0';
+				if (digit < 0 || digit > 9) {
+					return;
+				}
+				n = n * 10 + digit;
+			}
+			number = negative ? -n : n;
+			numeric = true;
+		}
+	}
+
+	private final Record[] records;
+	private volatile Subscriber[] subscribers = new Subscriber[0]; // copied on write, so publishing does not allocate
+	private long lineCount = 0;
+	private long malformedCount = 0;
+
+	public TelemetryParser() {
+		records = new Record[KEYS.length];
+		for (int i = 0; i < KEYS.length; i++) {
+			records[i] = new Record(KEYS[i]);
+		}
+	}
+
+	public synchronized void subscribe(Subscriber subscriber) {
+		Subscriber[] s = Arrays.copyOf(subscribers, subscribers.length + 1);
+		s[s.length - 1] = subscriber;
+		subscribers = s;
+	}
+
+	public synchronized void unsubscribe(Subscriber subscriber) {
+		Subscriber[] s = subscribers;
+		for (int i = 0; i < s.length; i++) {
+			if (s[i] == subscriber) {
+				Subscriber[] smaller = new Subscriber[s.length - 1];
+				System.arraycopy(s, 0, smaller, 0, i);
+				System.arraycopy(s, i + 1, smaller, i, s.length - i - 1);
+				subscribers = smaller;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Parses one line and publishes the resulting record.
+	 *
+	 * @return false if the line is not {@code key=value}
+	 */
+	public boolean parse(LineFramer.Line line) {
+		lineCount++;
+
+		int end = line.length();
+		if (end > 0 && line.byteAt(end - 1) == '\r') {
+			end--;
+		}
+
+		int separator = -1;
+		for (int i = 0; i < end; i++) {
+			if (line.byteAt(i) == '=') {
+				separator = i;
+				break;
+			}
+		}
+		if (separator <= 0) {
+			malformedCount++;
+			return false;
+		}
+
+		Record record = records[match(line, separator).ordinal()];
+		record.fill(line, separator, separator + 1, end);
+		for (Subscriber subscriber : subscribers) {
+			subscriber.onTelemetry(record);
+		}
+		return true;
+	}
+
+	private static Key match(LineFramer.Line line, int keyLength) {
+		for (Key key : KEYS) {
+			byte[] name = key.name;
+			if (name == null || name.length != keyLength) {
+				continue;
+			}
+			int i = 0;
+			while (i < keyLength && line.byteAt(i) == name[i]) {
+				i++;
+			}
+			if (i == keyLength) {
+				return key;
+			}
+		}
+		return Key.Unknown;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return lines that were not {@code key=value}
+	 */
+	public long getMalformedCount() {
+		return malformedCount;
+	}
+}
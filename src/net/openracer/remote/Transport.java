@@ -0,0 +1,46 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A bidirectional byte stream to a vehicle, underneath {@link BluetoothConnectionManager}.
+ *
+ * <p>
+ * {@link #connect()} blocks until the link is up. {@link #close()} may be called from any thread
+ * and must unblock a reader blocked on the input stream and a writer blocked on the output stream.
+ * </p>
+ *
+ * @see RfcommTransport
+ * @see TcpTransport
+ * @see PipeTransport
+ */
+public interface Transport {
+
+	void connect() throws IOException;
+
+	InputStream getInputStream() throws IOException;
+
+	OutputStream getOutputStream() throws IOException;
+
+	boolean isConnected();
+
+	void close() throws IOException;
+}
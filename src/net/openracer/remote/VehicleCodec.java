@@ -0,0 +1,50 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+/**
+ * Turns the driver's control state into the bytes a particular vehicle firmware expects.
+ */
+public interface VehicleCodec {
+
+	/** Smallest axis value; joypads map to [{@link #AXIS_MIN}, {@link #AXIS_MAX}]. */
+	int AXIS_MIN = -256;
+
+	/** Largest axis value. */
+	int AXIS_MAX = 255;
+
+	/**
+	 * Encodes one control frame.
+	 *
+	 * @param throttle drive value, negative for reverse
+	 * @param steer steering value, negative for left
+	 * @param out buffer receiving the frame, with at least {@link #maxFrameLength()} bytes free at {@code offset}
+	 * @return the number of bytes written
+	 */
+	int encode(int throttle, int steer, byte[] out, int offset);
+
+	/**
+	 * @return a value that is equal for two control states exactly when {@link #encode} would send
+	 *   the same command for them, ignoring per-frame fields such as sequence numbers
+	 */
+	int commandKey(int throttle, int steer);
+
+	/**
+	 * @return an upper bound on the number of bytes {@link #encode} writes
+	 */
+	int maxFrameLength();
+}
@@ -0,0 +1,441 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A pure-Java stand-in for the i-Racer firmware, for end-to-end tests and benchmarks of the
+ * connection and protocol code without a car.
+ *
+ * <p>
+ * It understands what the app sends: Dagu command bytes or robot text commands (see
+ * {@link Dialect}), the {@link ExtensionCommand} escapes, and {@link ProtocolV2} frames after an
+ * upgrade. It answers with the firmware's telemetry lines ({@code ver=}, {@code cap=},
+ * {@code batt=}, {@code pong=}, {@code proto=}). Both directions can be passed through a
+ * {@link LinkShaper} to add latency, limit bandwidth and lose packets.
+ * </p>
+ *
+ * <p>
+ * Serves one connection at a time: {@link #attach(Transport)} the remote end of a
+ * {@link PipeTransport} pair in process, or {@link #serve(ServerSocket)} TCP connections, e.g.
+ * from {@link TcpTransport}. {@link #main(String[])} runs it standalone.
+ * </p>
+ */
+public class VehicleEmulator {
+
+	public static final String DEFAULT_VERSION = "1.0-emu";
+	public static final String CAPABILITIES = "proto2,batt,ping";
+
+	/**
+	 * How bytes outside escapes and v2 frames are read, as the two firmware builds do.
+	 */
+	public static enum Dialect {
+		/** Each byte is a Dagu command byte, see {@link DaguCodec}. */
+		Dagu,
+		/** Text commands, a letter and a decimal value ended by a newline or space, see {@link RobotCodec}. */
+		Robot,
+	}
+
+	// receive states
+	private static final int IDLE = 0;
+	private static final int EXTENSION = 1; // after the escape byte
+	private static final int PING_ARGUMENT = 2;
+	private static final int V2_FRAME = 3;
+	private static final int TEXT = 4;
+
+	private static final int MAX_TEXT_LENGTH = 16;
+
+	private final Dialect dialect;
+	private final String version;
+	private LinkShaper.Profile profile = LinkShaper.Profile.IDEAL;
+
+	// guarded by this
+	private int state = IDLE;
+	private boolean protocolV2 = false;
+	private final byte[] frame = new byte[ProtocolV2.FRAME_LENGTH];
+	private int frameLength = 0;
+	private final byte[] text = new byte[MAX_TEXT_LENGTH];
+	private int textLength = 0;
+	private final int[] registers = new int[26]; // robot text command values, by letter
+	private int throttle = 0;
+	private int steer = 0;
+	private int batteryLevel = 87;
+	private long commandCount = 0;
+	private long lastCommandNanos = 0;
+	private long extensionCount = 0;
+	private long unknownByteCount = 0;
+	private final ProtocolV2Decoder v2Decoder = new ProtocolV2Decoder(new ProtocolV2Decoder.Listener() {
+		@Override
+		public void onFrame(int sequence, int throttle, int steer) {
+			onControl(throttle, steer);
+		}
+	});
+
+	// the connection being served
+	private volatile Transport transport = null;
+	private volatile Thread reader = null;
+	private volatile LinkShaper inbound = null;
+	private volatile LinkShaper outbound = null;
+	private OutputStream out = null; // guarded by this
+
+	public VehicleEmulator(Dialect dialect) {
+		this(dialect, DEFAULT_VERSION);
+	}
+
+	public VehicleEmulator(Dialect dialect, String version) {
+		this.dialect = dialect;
+		this.version = version;
+	}
+
+	/**
+	 * Shapes both directions of later connections.
+	 */
+	public void setLinkProfile(LinkShaper.Profile profile) {
+		this.profile = profile;
+	}
+
+	public synchronized void setBatteryLevel(int batteryLevel) {
+		this.batteryLevel = batteryLevel;
+	}
+
+	/**
+	 * Starts serving the transport on a new thread, connecting it first. The emulator starts in
+	 * the original protocol, as the firmware does after a reconnect.
+	 */
+	public void attach(Transport transport) throws IOException {
+		transport.connect();
+		final InputStream in = transport.getInputStream();
+		final OutputStream rawOut = transport.getOutputStream();
+		synchronized (this) {
+			state = IDLE;
+			protocolV2 = false;
+			out = rawOut;
+		}
+		this.transport = transport;
+
+		final LinkShaper inbound;
+		final LinkShaper outbound;
+		if (profile.isIdeal()) {
+			inbound = null;
+			outbound = null;
+		} else {
+			inbound = new LinkShaper("openracer-emulator-rx", profile, new LinkShaper.Sink() {
+				@Override
+				public void deliver(byte[] data, int offset, int length) {
+					receive(data, offset, length);
+				}
+			});
+			outbound = new LinkShaper("openracer-emulator-tx", profile, new LinkShaper.Sink() {
+				@Override
+				public void deliver(byte[] data, int offset, int length) throws IOException {
+					rawOut.write(data, offset, length);
+					rawOut.flush();
+				}
+			});
+			inbound.start();
+			outbound.start();
+		}
+		this.inbound = inbound;
+		this.outbound = outbound;
+
+		Thread reader = new Thread("openracer-emulator") {
+			@Override
+			public void run() {
+				byte[] buf = new byte[256];
+				try {
+					int n;
+					while ((n = in.read(buf, 0, buf.length)) >= 0) {
+						if (inbound != null) {
+							inbound.offer(buf, 0, n);
+						} else {
+							receive(buf, 0, n);
+						}
+					}
+				} catch (IOException e) {
+					// connection ended
+				} finally {
+					detach();
+				}
+			}
+		};
+		reader.setDaemon(true);
+		this.reader = reader;
+		reader.start();
+	}
+
+	/**
+	 * Accepts and serves connections one after another until the server socket is closed.
+	 */
+	public void serve(ServerSocket server) throws IOException {
+		while (!server.isClosed()) {
+			Socket socket = server.accept();
+			attach(new TcpTransport(socket));
+			try {
+				reader.join();
+			} catch (InterruptedException e) {
+				detach();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Closes the current connection, if any.
+	 */
+	public void detach() {
+		Transport t = transport;
+		if (t != null) {
+			try {
+				t.close();
+			} catch (IOException e) {
+				// already gone
+			}
+		}
+		LinkShaper s = inbound;
+		if (s != null) {
+			s.shutdown();
+		}
+		s = outbound;
+		if (s != null) {
+			s.shutdown();
+		}
+	}
+
+	public synchronized int getThrottle() {
+		return throttle;
+	}
+
+	public synchronized int getSteer() {
+		return steer;
+	}
+
+	/**
+	 * @return control commands applied, in any protocol
+	 */
+	public synchronized long getCommandCount() {
+		return commandCount;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} at which the last control command was applied
+	 */
+	public synchronized long getLastCommandNanos() {
+		return lastCommandNanos;
+	}
+
+	public synchronized long getExtensionCount() {
+		return extensionCount;
+	}
+
+	public synchronized long getUnknownByteCount() {
+		return unknownByteCount;
+	}
+
+	public synchronized boolean isProtocolV2() {
+		return protocolV2;
+	}
+
+	/**
+	 * @return the value of the last robot text command with this letter
+	 */
+	public synchronized int getRegister(char letter) {
+		return registers[letter - 'a'];
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "emulator " + dialect + (protocolV2 ? "+v2" : "") + ": commands=" + commandCount
+				+ " extensions=" + extensionCount + " unknown=" + unknownByteCount
+				+ " v2-crc-errors=" + v2Decoder.getCrcErrorCount() + " v2-dropped=" + v2Decoder.getDroppedCount()
+				+ " throttle=" + throttle + " steer=" + steer;
+	}
+
+	// --------------------------------------------------------------------
+	// receiving
+
+	private synchronized void receive(byte[] data, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			receive(data[offset + i] & 0xff);
+		}
+	}
+
+	// caller holds this
+	private void receive(int b) {
+		switch (state) {
+		case EXTENSION:
+			onExtension(b);
+			return;
+
+		case PING_ARGUMENT:
+			state = IDLE;
+			reply("pong=" + b);
+			return;
+
+		case V2_FRAME:
+			frame[frameLength++] = (byte) b;
+			if (frameLength == ProtocolV2.FRAME_LENGTH) {
+				state = IDLE;
+				v2Decoder.feed(frame, 0, frameLength);
+			}
+			return;
+
+		case TEXT:
+			if (b == '\n' || b == '\r' || b == ' ') {
+				state = IDLE;
+				onText();
+			} else if (textLength < MAX_TEXT_LENGTH) {
+				text[textLength++] = (byte) b;
+			}
+			return;
+		}
+
+		// IDLE
+		if (b == ExtensionCommand.ESCAPE) {
+			state = EXTENSION;
+		} else if (protocolV2) {
+			if (ProtocolV2.isSync(b)) {
+				frame[0] = (byte) b;
+				frameLength = 1;
+				state = V2_FRAME;
+			} else {
+				unknownByteCount++;
+			}
+		} else if (dialect == Dialect.Dagu) {
+			onDaguByte(b);
+		} else if (b >= 'a' && b <= 'z') {
+			text[0] = (byte) b;
+			textLength = 1;
+			state = TEXT;
+		} else if (b != '\n' && b != '\r' && b != ' ') {
+			unknownByteCount++;
+		}
+	}
+
+	private void onExtension(int command) {
+		state = IDLE;
+		extensionCount++;
+		switch (command) {
+		case ExtensionCommand.REPORT_VERSION:
+			reply("ver=" + version);
+			reply("cap=" + CAPABILITIES);
+			break;
+		case ExtensionCommand.BATTERY:
+			reply("batt=" + batteryLevel);
+			break;
+		case ExtensionCommand.UPGRADE:
+			protocolV2 = true;
+			reply("proto=2");
+			break;
+		case ExtensionCommand.PING:
+			state = PING_ARGUMENT;
+			break;
+		default:
+			unknownByteCount++;
+			break;
+		}
+	}
+
+	private void onDaguByte(int b) {
+		int high = b >> 4;
+		if (high > 8) {
+			unknownByteCount++;
+			return;
+		}
+		int speed = (b & 0xf) << 4;
+		int direction;
+		switch (high) {
+		case 1: case 5: case 6: direction = 1; break;
+		case 2: case 7: case 8: direction = -1; break;
+		default: direction = 0; break;
+		}
+		int turn;
+		switch (high) {
+		case 3: case 5: case 7: turn = VehicleCodec.AXIS_MIN; break;
+		case 4: case 6: case 8: turn = VehicleCodec.AXIS_MAX; break;
+		default: turn = 0; break;
+		}
+		onControl(direction * speed, turn);
+	}
+
+	private void onText() {
+		int letter = text[0] - 'a';
+		int value = 0;
+		boolean negative = false;
+		int i = 1;
+		if (i < textLength && text[i] == '-') {
+			negative = true;
+			i++;
+		}
+		for (; i < textLength; i++) {
+			int digit = text[i] - '0';
+			if (digit < 0 || digit > 9) {
+				unknownByteCount += textLength;
+				return;
+			}
+			value = value * 10 + digit;
+		}
+		registers[letter] = negative ? -value : value;
+		if (text[0] == 'g' || text[0] == 'h') {
+			onControl(registers['h' - 'a'], registers['g' - 'a']);
+		}
+	}
+
+	private void onControl(int throttle, int steer) {
+		this.throttle = throttle;
+		this.steer = steer;
+		commandCount++;
+		lastCommandNanos = System.nanoTime();
+	}
+
+	// caller holds this; lines end with CR LF, as the firmware's println does
+	private void reply(String line) {
+		byte[] bytes = (line + "\r\n").getBytes();
+		try {
+			LinkShaper s = outbound;
+			if (s != null) {
+				s.offer(bytes, 0, bytes.length);
+			} else if (out != null) {
+				out.write(bytes);
+				out.flush();
+			}
+		} catch (IOException e) {
+			detach();
+		}
+	}
+
+	/**
+	 * Runs the emulator on a TCP port: {@code [port [dialect [latencyMs [bytesPerSecond [lossRate]]]]]}.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+		Dialect dialect = args.length > 1 ? Dialect.valueOf(args[1]) : Dialect.Dagu;
+		long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		long bytesPerSecond = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		double lossRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+		VehicleEmulator emulator = new VehicleEmulator(dialect);
+		emulator.setLinkProfile(new LinkShaper.Profile(latencyMs, bytesPerSecond, lossRate, System.nanoTime()));
+		ServerSocket server = new ServerSocket(port);
+		System.out.println("emulating " + dialect + " on port " + port + ", " + emulator.profile);
+		emulator.serve(server);
+	}
+}
@@ -0,0 +1,961 @@
+//
+//   Copyright 2012 Dave Bacon
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package net.openracer.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.util.Log;
+
+/**
+ * The link to one vehicle and everything that has to outlive an activity: the connection, the
+ * control state and the scheduler that sends it, telemetry, link probing, the session log and
+ * automatic reconnection. Followers, further cars driven with the same control stream, run on a
+ * {@link ConnectionEngine}.
+ *
+ * <p>
+ * Held by {@link OpenRacerApplication}, so rotating the screen or switching apps neither drops
+ * the link nor loses the control state. An activity attaches a {@link Listener} while it exists
+ * and detaches it when destroyed. Events are not queued for a detached listener, but what they
+ * report is kept and can be read back on attach.
+ * </p>
+ *
+ * <p>
+ * Call from the main thread, except the control setters, which any thread may call. Listener
+ * callbacks are made on the main thread.
+ * </p>
+ */
+public class VehicleSession {
+
+	private static final String LOGTAG = "openracer-session";
+	private static final boolean LOG_UNPARSED = false;
+
+	// each codec frame carries the whole control state, so a single transmit channel is used
+	private static final int CONTROL_CHANNEL = 0;
+
+	private static final int CONTROL_RATE_HZ = 50;
+	private static final long LINK_PROBE_INTERVAL_MS = 500;
+	private static final String CAPABILITY_PING = "ping";
+
+	// input conditioning
+	private static final int THROTTLE_DEAD_ZONE = 16;
+	private static final long THROTTLE_SLEW_PER_SECOND = 2048; // standstill to full in 1/8 s
+	private static final int STEER_DEAD_ZONE = 8;
+	private static final long STEER_SMOOTHING_MS = 30;
+	private static final long CONTROL_REFRESH_MS = 250; // resend an unchanged command this often
+
+	// failsafe
+	private static final long INPUT_STALE_MS = 500;
+	private static final long LINK_TIMEOUT_MS = 3 * LINK_PROBE_INTERVAL_MS;
+
+	private static final long DISCONNECT_DRAIN_MS = 500; // for the reset commands to go out before the socket closes
+
+	private static final long SDP_TIMEOUT_MS = 12000; // service discovery can take several seconds
+
+	private static final int CACHED_UUID_MAX_FAILURES = 3; // in a row, before it is looked up again
+
+	// followers: more cars driven with the same control stream, on one engine however many there are
+	private static final int FOLLOWER_IO_THREADS = 2;
+	private static final long FOLLOWER_POLL_MS = 1000 / CONTROL_RATE_HZ;
+	private static final long FOLLOWER_WRITE_STALL_MS = LINK_TIMEOUT_MS;
+	private static final byte[] FOLLOWER_STOP = { (byte) DaguCodec.commandByte(0, 0) };
+
+	private static final long RECONNECT_INITIAL_DELAY_MS = 100;
+	private static final long RECONNECT_MAX_DELAY_MS = 5000;
+	private static final int RECONNECT_MAX_ATTEMPTS = 10;
+
+	private static final String SESSION_LOG_DIR = "sessions";
+	private static final int SESSION_LOG_SEGMENT_SIZE = 256 * 1024;
+	private static final int SESSION_LOG_MAX_SEGMENTS = 16;
+	private static final int SESSION_LOGS_KEPT = 5;
+
+	private static final String PREFS_NAME = "connection";
+
+	/** Followed by the device address; the service UUID last connected to successfully. */
+	private static final String PREF_DEVICE_UUID_PREFIX = "device-uuid-";
+
+	/** Battery level not reported yet. */
+	public static final long NO_BATTERY_LEVEL = -1;
+
+	public static interface Listener {
+
+		/**
+		 * Connecting, connected or disconnected changed.
+		 */
+		void onSessionStateChanged();
+
+		void onSessionConnected();
+
+		/**
+		 * @param reconnecting true if a reconnect attempt is scheduled
+		 */
+		void onSessionDisconnected(String exitReason, boolean reconnecting);
+
+		void onFirmwareVersion(String version);
+
+		void onBatteryLevel(long level);
+
+		/**
+		 * A follower connected or its link ended.
+		 */
+		void onFollowerChanged(String name, String status);
+	}
+
+	private final Context context;
+	private final SharedPreferences prefs;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private Listener listener = null;
+
+	private String address = null;
+	private BluetoothConnectionManager connecting = null;
+	private BluetoothDevice discovering = null; // waiting for its service UUIDs
+	private volatile BluetoothConnectionManager btConn = null;
+	private volatile ControlScheduler controlScheduler = null;
+	private final LatencyTracer latencyTracer = new LatencyTracer();
+	private volatile LinkProber linkProber = null;
+	private String firmwareVersion = null;
+	private long batteryLevel = NO_BATTERY_LEVEL;
+	private SessionLog sessionLog = null; // open from the first connect until the user disconnects
+	private File lastSessionLogDir = null;
+	private final LinkWatchdog watchdog = new LinkWatchdog(INPUT_STALE_MS, LINK_TIMEOUT_MS, new LinkWatchdog.Listener() {
+		@Override
+		public void onInputStale(long ageNanos) {
+			if (ControlState.mode(control.get()) == ControlState.Mode.Drive) { // no input since any stop
+				Log.w(LOGTAG, "no control input for " + TimeUnit.NANOSECONDS.toMillis(ageNanos) + "ms, stopping");
+				stop();
+			}
+		}
+
+		@Override
+		public void onLinkDead(long silenceNanos) {
+			Log.w(LOGTAG, "nothing received for " + TimeUnit.NANOSECONDS.toMillis(silenceNanos) + "ms, dropping the link");
+			BluetoothConnectionManager conn = btConn;
+			if (conn != null) {
+				conn.disconnect(); // never blocks, even on a stuck writer; not requested, so a reconnect follows
+			}
+		}
+	});
+	private final AsciiCommandEncoder commandEncoder = new AsciiCommandEncoder(64); // main thread only
+
+	private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy(
+			new ReconnectBackoff(RECONNECT_INITIAL_DELAY_MS, RECONNECT_MAX_DELAY_MS, RECONNECT_MAX_ATTEMPTS));
+	private boolean connectingWithCachedUuid = false;
+	private int cachedUuidFailures = 0;
+	private final Runnable reconnectTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!isConnected() && !isConnecting()) {
+				Log.i(LOGTAG, "reconnect attempt " + reconnectPolicy.getAttempts());
+				connect();
+				notifyStateChanged();
+			}
+		}
+	};
+
+	private final ConnectionEngine followerEngine = new ConnectionEngine(
+			FOLLOWER_IO_THREADS, FOLLOWER_POLL_MS, FOLLOWER_WRITE_STALL_MS, new FollowerEventRouter());
+	private final ConnectionEngine.Group followers = followerEngine.newGroup();
+	private boolean followerEngineStarted = false;
+
+	public VehicleSession(Context context) {
+		this.context = context;
+		this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Attaches the listener, replacing any other; null detaches.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Detaches the listener if it is still the attached one; an activity being torn down after
+	 * its replacement attached leaves the replacement in place.
+	 */
+	public void clearListener(Listener listener) {
+		if (this.listener == listener) {
+			this.listener = null;
+		}
+	}
+
+	public boolean isConnected() {
+		return btConn != null;
+	}
+
+	/**
+	 * @return true while a connection attempt is in progress
+	 */
+	public boolean isConnecting() {
+		return connecting != null || discovering != null;
+	}
+
+	/**
+	 * @return the reported firmware version, or null if not connected or not reported yet
+	 */
+	public String getFirmwareVersion() {
+		return firmwareVersion;
+	}
+
+	/**
+	 * @return the last reported battery level, or {@link #NO_BATTERY_LEVEL}
+	 */
+	public long getBatteryLevel() {
+		return batteryLevel;
+	}
+
+	public LatencyTracer getLatencyTracer() {
+		return latencyTracer;
+	}
+
+	/**
+	 * @return the outbound queue, for its statistics, or null while not connected
+	 */
+	public ControlTransmitter getSendQueue() {
+		BluetoothConnectionManager conn = btConn;
+		return conn != null ? conn.getTransmitter() : null;
+	}
+
+	/**
+	 * @return the control state the scheduler samples; read it with {@link ControlState#get()}
+	 */
+	public ControlState getControlState() {
+		return control;
+	}
+
+	public LinkWatchdog getLinkWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * @return the link round-trip statistics, or null while the link is not probed
+	 */
+	public LinkProber getLinkProber() {
+		return linkProber;
+	}
+
+	/**
+	 * @return the followers, connecting or connected, for their statistics
+	 */
+	public List<ConnectionEngine.Link> getFollowers() {
+		return followerEngine.getLinks();
+	}
+
+	/**
+	 * Connects to the device, giving up any reconnect in progress.
+	 */
+	public void connect(String address) {
+		this.address = address;
+		cachedUuidFailures = 0;
+		handler.removeCallbacks(reconnectTask);
+		if (discovering != null) {
+			handler.removeCallbacks(serviceDiscoveryFailed);
+			endServiceDiscovery();
+		}
+		reconnectPolicy.onConnectRequested();
+		connect();
+		notifyStateChanged();
+	}
+
+	/**
+	 * Resets the vehicle and closes the connection, without reconnecting.
+	 */
+	public void disconnect() {
+		reconnectPolicy.onDisconnectRequested();
+		handler.removeCallbacks(reconnectTask);
+		final BluetoothConnectionManager conn = btConn;
+		if (conn != null) {
+
+			// this should be done by the remote device! not us!
+			commandEncoder.reset().command('g', 0).command('p', 0).command('i', 0).command('d', 0).command('p', 1000);
+			final boolean posted = conn.postHousekeeping(commandEncoder.buffer(), 0, commandEncoder.length());
+
+			// draining can take the whole timeout on a stalled link, so it is not done on this
+			// thread; the end of the connection is reported through onDisconnected as usual
+			new Thread("openracer-disconnect") {
+				@Override
+				public void run() {
+					try {
+						if (!posted || !conn.awaitSent(DISCONNECT_DRAIN_MS)) {
+							Log.w(LOGTAG, "reset commands not sent before disconnect");
+						}
+					} catch (InterruptedException e) {
+						Log.w(LOGTAG, "disconnect drain interrupted");
+					}
+					conn.disconnect();
+				}
+			}.start();
+		} else if (connecting != null) {
+			connecting.disconnect();
+		} else if (discovering != null) {
+			handler.removeCallbacks(serviceDiscoveryFailed);
+			serviceDiscoveryFailed.run(); // requested, so no reconnect follows
+		} else {
+			// only a reconnect was pending
+			reconnectPolicy.onDisconnectComplete();
+			closeSessionLog();
+		}
+		clearFollowers();
+	}
+
+	/**
+	 * Connects another car that is driven with the same control stream, for running a group
+	 * of cars together. Followers speak the original protocol and are not reconnected; they are
+	 * stopped while the link to this session's car is down, and closed by {@link #disconnect()}.
+	 *
+	 * @return false if the device's service UUID is not known: it must be cached by the
+	 *   platform or remembered from connecting to the car directly
+	 */
+	public boolean addFollower(String address, String name) {
+		if (address.equals(this.address)) {
+			Log.w(LOGTAG, "the session's own car cannot follow itself");
+			return false;
+		}
+		BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
+		if (bt == null) {
+			Log.w(LOGTAG, "attempted addFollower() with no Bluetooth hardware");
+			return false;
+		}
+		BluetoothDevice btd = bt.getRemoteDevice(address);
+		UUID uuid = null;
+		String cachedUuid = prefs.getString(PREF_DEVICE_UUID_PREFIX + address, null);
+		if (cachedUuid != null) {
+			uuid = UUID.fromString(cachedUuid);
+		} else {
+			ParcelUuid[] parcelUuids = btd.getUuids();
+			if (parcelUuids != null && parcelUuids.length > 0) {
+				uuid = parcelUuids[0].getUuid();
+			}
+		}
+		if (uuid == null) {
+			Log.w(LOGTAG, "no service uuid known for follower " + address);
+			return false;
+		}
+
+		if (!followerEngineStarted) {
+			followerEngine.start();
+			followerEngineStarted = true;
+		}
+		followerEngine.add(name != null ? name : address, new RfcommTransport(btd, uuid));
+		return true;
+	}
+
+	/**
+	 * Stops every follower and closes it once the stop is sent.
+	 */
+	public void clearFollowers() {
+		followers.postStop(FOLLOWER_STOP, 0, FOLLOWER_STOP.length);
+		for (ConnectionEngine.Link link : followerEngine.getLinks()) {
+			link.closeWhenSent();
+		}
+	}
+
+
+	// --------------------------------------------------------------------
+	// vehicle control
+
+	// written by input threads, sampled by the control scheduler
+	private final ControlState control = new ControlState();
+
+	// replaced once the firmware accepts the protocol upgrade; used on the control scheduler thread
+	private volatile VehicleCodec codec = new DaguCodec();
+
+	// control scheduler thread only
+	private final byte[] controlFrame = new byte[ControlTransmitter.MAX_FRAME_LENGTH];
+	private final AxisFilter throttleFilter = AxisFilters.chain(
+			new AxisFilters.DeadZone(THROTTLE_DEAD_ZONE),
+			new AxisFilters.SlewRateLimit(THROTTLE_SLEW_PER_SECOND));
+	private final AxisFilter steerFilter = AxisFilters.chain(
+			new AxisFilters.DeadZone(STEER_DEAD_ZONE),
+			new AxisFilters.Smoothing(STEER_SMOOTHING_MS));
+	private final ChangeSuppressor changeSuppressor = new ChangeSuppressor(TimeUnit.MILLISECONDS.toNanos(CONTROL_REFRESH_MS));
+	private volatile boolean conditioningResetRequested = false; // set from other threads, applied on the next tick
+	private int lastStopSequence = 0; // the last stop sent
+	private final VehicleCodec followerCodec = new DaguCodec();
+	private final byte[] followerFrame = new byte[ControlTransmitter.MAX_FRAME_LENGTH];
+
+	/**
+	 * @param value drive motor, negative for reverse
+	 */
+	public void setThrottle(int value) {
+		control.setThrottle(value);
+		watchdog.onInput(System.nanoTime());
+	}
+
+	/**
+	 * @param value steering, negative for left
+	 */
+	public void setSteer(int value) {
+		control.setSteer(value);
+		watchdog.onInput(System.nanoTime());
+	}
+
+	/**
+	 * The control input is still current, though unchanged. The UI calls this while it is shown;
+	 * when the calls stop, the vehicle is stopped.
+	 */
+	public void onInputAlive() {
+		watchdog.onInput(System.nanoTime());
+	}
+
+	/**
+	 * Centres both controls and sends a stop frame right away, ahead of anything queued and
+	 * skipping the conditioning. Callable from any thread.
+	 */
+	public void stop() {
+		control.stop();
+		ControlScheduler scheduler = controlScheduler;
+		if (scheduler != null && scheduler != Thread.currentThread()) {
+			scheduler.tickNow();
+		}
+	}
+
+	// called on the control scheduler thread, once per tick
+	private void onControlTick() {
+		BluetoothConnectionManager conn = btConn;
+		if (conn != null) {
+			long now = System.nanoTime();
+			watchdog.check(now); // may stop the vehicle, in this tick
+			long state = control.get();
+			boolean stop = ControlState.stopSequence(state) != lastStopSequence;
+			if (stop || conditioningResetRequested) {
+				lastStopSequence = ControlState.stopSequence(state);
+				conditioningResetRequested = false;
+				throttleFilter.reset();
+				steerFilter.reset();
+				changeSuppressor.reset();
+			}
+
+			long origin = latencyTracer.takeInput();
+			int throttle = stop ? 0 : throttleFilter.filter(ControlState.throttle(state), now);
+			int steer = stop ? 0 : steerFilter.filter(ControlState.steer(state), now);
+			VehicleCodec codec = this.codec;
+			if (!changeSuppressor.shouldSend(codec, throttle, steer, now)) {
+				return; // the car already has this command
+			}
+			int length = codec.encode(throttle, steer, controlFrame, 0);
+			latencyTracer.record(LatencyTracer.Stage.Encode, origin, System.nanoTime());
+			if (stop) {
+				conn.postStop(controlFrame, 0, length, origin);
+			} else {
+				conn.postControl(CONTROL_CHANNEL, controlFrame, 0, length, origin);
+			}
+			latencyTracer.record(LatencyTracer.Stage.Enqueue, origin, System.nanoTime());
+
+			if (!followers.isEmpty()) {
+				int followerLength = followerCodec.encode(throttle, steer, followerFrame, 0);
+				if (stop) {
+					followers.postStop(followerFrame, 0, followerLength);
+				} else {
+					followers.postControl(followerFrame, 0, followerLength);
+				}
+			}
+		}
+	}
+
+	// end vehicle control
+	// --------------------------------------------------------------------
+
+
+	private void onBluetoothConnectionConnected(BluetoothConnectionManager btConn) {
+		if (!reconnectPolicy.onConnected()) {
+			// disconnect() ran while this event was on its way; its onDisconnected ends the attempt
+			Log.i(LOGTAG, "disconnect requested while connecting, closing the new link");
+			btConn.disconnect();
+			return;
+		}
+		this.connecting = null;
+		this.btConn = btConn;
+		rememberServiceUuid(btConn.getTransport());
+
+		// set before the scheduler starts, which publishes them to its thread; the previous
+		// connection's scheduler has already ended
+		watchdog.reset(System.nanoTime());
+		lastStopSequence = ControlState.stopSequence(control.get()); // stops from before the link are moot
+		conditioningResetRequested = true;
+
+		controlScheduler = new ControlScheduler(CONTROL_RATE_HZ, new ControlScheduler.Tick() {
+			@Override
+			public void onTick(long nowNanos) {
+				onControlTick();
+			}
+		});
+		controlScheduler.start();
+		controlScheduler.tickNow(); // resume with the last control state right away, on the scheduler thread
+
+		triggerVersionAndCapabilityReport();
+
+		if (listener != null) {
+			listener.onSessionConnected();
+		}
+		notifyStateChanged();
+	}
+
+	private void triggerVersionAndCapabilityReport() {
+		if (isConnected() && !btConn.postExtension(ExtensionCommand.REPORT_VERSION)) {
+			Log.w(LOGTAG, "version query not queued");
+		}
+	}
+
+	private void onBluetoothConnectionDisconnected(String exitReason) {
+		if (controlScheduler != null) {
+			controlScheduler.shutdown();
+			Log.i(LOGTAG, "control scheduler: " + controlScheduler + ", frames " + changeSuppressor);
+			ControlTransmitter transmitter = btConn != null ? btConn.getTransmitter() : null;
+			if (transmitter != null) {
+				Log.i(LOGTAG, "send queue: " + transmitter);
+			}
+			controlScheduler = null;
+		}
+		followers.postStop(FOLLOWER_STOP, 0, FOLLOWER_STOP.length); // without ticks they would hold the last command
+		Log.i(LOGTAG, "input latency:\n" + latencyTracer.dump());
+		Log.i(LOGTAG, "watchdog: " + watchdog);
+		codec = new DaguCodec(); // the next connection starts with the original protocol
+		firmwareVersion = null;
+		batteryLevel = NO_BATTERY_LEVEL;
+		if (linkProber != null) {
+			linkProber.shutdown();
+			Log.i(LOGTAG, "link rtt: " + linkProber);
+			linkProber = null;
+		}
+		boolean wasConnected = btConn != null;
+		IOException connectFailure = connecting != null ? connecting.getConnectFailure() : null;
+		btConn = null;
+		connecting = null;
+
+		if (!wasConnected && connectingWithCachedUuid) {
+			// a car briefly out of range fails the same way, and that is when the cache saves the
+			// most; only look the UUID up again if the service is gone or failures persist
+			cachedUuidFailures++;
+			boolean serviceGone = connectFailure != null && RfcommTransport.isServiceUnavailable(connectFailure);
+			if (serviceGone || cachedUuidFailures >= CACHED_UUID_MAX_FAILURES) {
+				Log.i(LOGTAG, "forgetting the remembered uuid after " + cachedUuidFailures + " failures");
+				prefs.edit().remove(PREF_DEVICE_UUID_PREFIX + address).apply();
+				cachedUuidFailures = 0;
+			}
+		}
+		connectingWithCachedUuid = false;
+
+		long delay = reconnectPolicy.onDisconnected(wasConnected);
+		boolean reconnecting = delay != ReconnectPolicy.NO_RECONNECT;
+		if (reconnecting) {
+			Log.i(LOGTAG, "connection lost (" + exitReason + "), reconnecting in " + delay + "ms");
+			handler.postDelayed(reconnectTask, delay);
+		} else {
+			closeSessionLog();
+		}
+
+		if (listener != null) {
+			listener.onSessionDisconnected(exitReason, reconnecting);
+		}
+		notifyStateChanged();
+	}
+
+	private void rememberServiceUuid(Transport transport) {
+		if (transport instanceof RfcommTransport) {
+			RfcommTransport rfcomm = (RfcommTransport) transport;
+			prefs.edit()
+				.putString(PREF_DEVICE_UUID_PREFIX + rfcomm.getDevice().getAddress(), rfcomm.getUuid().toString())
+				.apply();
+			cachedUuidFailures = 0;
+		}
+	}
+
+	// the firmware acknowledged the upgrade extension command
+	private void onBluetoothProtocolUpgraded() {
+		Log.i(LOGTAG, "firmware switched to protocol v2");
+		ProtocolV2Codec v2 = new ProtocolV2Codec();
+		ControlTransmitter transmitter = btConn != null ? btConn.getTransmitter() : null;
+		if (transmitter != null) {
+			transmitter.setFrameStamper(v2); // numbered as written, so conflated frames are not counted as lost
+		}
+		codec = v2;
+	}
+
+	// the firmware advertised the ping extension; older firmware would take the sequence byte for a drive command
+	private void onBluetoothPingAvailable() {
+		final BluetoothConnectionManager conn = btConn;
+		if (conn == null || linkProber != null) {
+			return;
+		}
+		linkProber = new LinkProber(new LinkProber.Sender() {
+			@Override
+			public void send(byte[] data, int offset, int length) {
+				conn.postHousekeeping(data, offset, length); // a refused ping is counted as lost
+			}
+		}, LINK_PROBE_INTERVAL_MS);
+		linkProber.start();
+	}
+
+	private void onBluetoothVersion(String version) {
+		firmwareVersion = version;
+		if (listener != null) {
+			listener.onFirmwareVersion(version);
+		}
+	}
+
+	private void onFollowerChanged(String name, String status) {
+		if (listener != null) {
+			listener.onFollowerChanged(name, status);
+		}
+	}
+
+	private void onBluetoothBattery(long level) {
+		batteryLevel = level;
+		if (listener != null) {
+			listener.onBatteryLevel(level);
+		}
+	}
+
+	private void notifyStateChanged() {
+		if (listener != null) {
+			listener.onSessionStateChanged();
+		}
+	}
+
+	private void connect() {
+		if (address == null) {
+			Log.w(LOGTAG, "attempted connect() with no selected address");
+			return;
+		}
+
+		BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
+		if (bt == null) {
+			Log.w(LOGTAG, "attempted connect() with no Bluetooth hardware");
+			return;
+		}
+
+		BluetoothDevice btd = bt.getRemoteDevice(address);
+
+		String cachedUuid = prefs.getString(PREF_DEVICE_UUID_PREFIX + address, null);
+		if (cachedUuid != null) {
+			Log.i(LOGTAG, "initiating connection with remembered uuid " + cachedUuid);
+			connectingWithCachedUuid = true;
+			connect(btd, UUID.fromString(cachedUuid));
+			return;
+		}
+
+		ParcelUuid[] parcelUuids = btd.getUuids();
+		if (parcelUuids == null || parcelUuids.length <= 0) {
+			Log.i(LOGTAG, "No UUIDs returned from device, fetching with SDP");
+			// the attempt continues in serviceDiscoveryReceiver, or fails like any other
+			discovering = btd;
+			context.registerReceiver(serviceDiscoveryReceiver, new IntentFilter(BluetoothDevice.ACTION_UUID));
+			if (btd.fetchUuidsWithSdp()) {
+				handler.postDelayed(serviceDiscoveryFailed, SDP_TIMEOUT_MS);
+			} else {
+				Log.w(LOGTAG, "Could not query for UUIDs");
+				handler.post(serviceDiscoveryFailed);
+			}
+		} else {
+			for (ParcelUuid uuid: parcelUuids) {
+				Log.i(LOGTAG, "cached-uuid: " + uuid.toString());
+			}
+			Log.i(LOGTAG, "initiating connection");
+			ParcelUuid parcelUuid = (ParcelUuid) parcelUuids[0];
+			connect(btd, parcelUuid.getUuid());
+		}
+	}
+
+	private final BroadcastReceiver serviceDiscoveryReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			BluetoothDevice device = (BluetoothDevice) intent.getExtras().get(BluetoothDevice.EXTRA_DEVICE);
+			if (discovering == null || device == null || !discovering.getAddress().equals(device.getAddress())) {
+				return;
+			}
+			Parcelable[] parcelUuids = (Parcelable[]) intent.getExtras().get(BluetoothDevice.EXTRA_UUID);
+			handler.removeCallbacks(serviceDiscoveryFailed);
+			if (parcelUuids == null || parcelUuids.length <= 0) {
+				Log.w(LOGTAG, "SDP returned no UUIDs");
+				serviceDiscoveryFailed.run();
+				return;
+			}
+			for (Parcelable parcelUuid: parcelUuids) {
+				Log.i(LOGTAG, "sdp-uuid: " + parcelUuid.toString());
+			}
+			endServiceDiscovery();
+			Log.i(LOGTAG, "initiating connection");
+			connect(device, ((ParcelUuid) parcelUuids[0]).getUuid());
+			notifyStateChanged();
+		}
+	};
+
+	// no usable answer to the SDP query; ends the attempt, so the reconnect backoff carries on
+	private final Runnable serviceDiscoveryFailed = new Runnable() {
+		@Override
+		public void run() {
+			if (discovering != null) {
+				endServiceDiscovery();
+				onBluetoothConnectionDisconnected("service discovery failed");
+			}
+		}
+	};
+
+	private void endServiceDiscovery() {
+		discovering = null;
+		context.unregisterReceiver(serviceDiscoveryReceiver);
+	}
+
+	private void connect(BluetoothDevice device, UUID uuid) {
+		connecting = new BluetoothConnectionManager(new RfcommTransport(device, uuid), new BluetoothConnectionEventRouter());
+		connecting.setLatencyTracer(latencyTracer);
+		if (sessionLog == null) {
+			openSessionLog();
+		}
+		connecting.setSessionLog(sessionLog);
+		connecting.setLinkWatchdog(watchdog);
+		connecting.start();
+	}
+
+
+	// --------------------------------------------------------------------
+	// session log
+
+	private void openSessionLog() {
+		File root = new File(context.getFilesDir(), SESSION_LOG_DIR);
+		File[] old = root.listFiles();
+		if (old != null && old.length >= SESSION_LOGS_KEPT) {
+			Arrays.sort(old); // named by start time
+			for (int i = 0; i <= old.length - SESSION_LOGS_KEPT; i++) {
+				deleteSessionLog(old[i]);
+			}
+		}
+
+		File dir = new File(root, Long.toString(System.currentTimeMillis()));
+		try {
+			sessionLog = new SessionLog(dir, SESSION_LOG_SEGMENT_SIZE, SESSION_LOG_MAX_SEGMENTS);
+			lastSessionLogDir = dir;
+		} catch (IOException e) {
+			Log.w(LOGTAG, "session log unavailable: " + e.toString());
+		}
+	}
+
+	private static void deleteSessionLog(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private void closeSessionLog() {
+		if (sessionLog != null) {
+			sessionLog.close();
+			Log.i(LOGTAG, "session log: " + sessionLog);
+			sessionLog = null;
+		}
+	}
+
+	/**
+	 * Summarizes the current session log, or the last one if none is open.
+	 *
+	 * @return the summary, or null if nothing has been logged yet
+	 */
+	public SessionLogReader.Summary summarizeSessionLog() throws IOException {
+		if (lastSessionLogDir == null) {
+			return null;
+		}
+		if (sessionLog != null) {
+			sessionLog.flush();
+		}
+		SessionLogReader.Summary summary = new SessionLogReader(lastSessionLogDir).summarize();
+		Log.i(LOGTAG, "session " + lastSessionLogDir.getName() + ": " + summary);
+		return summary;
+	}
+
+	// end session log
+	// --------------------------------------------------------------------
+
+
+	/**
+	 * Adds followers to the group as they connect, stopped until the next tick, and drops them
+	 * as they end; tells the main thread about both.
+	 */
+	private class FollowerEventRouter implements ConnectionEngine.Listener {
+
+		@Override
+		public void onConnected(final ConnectionEngine.Link link) {
+			link.postStop(FOLLOWER_STOP, 0, FOLLOWER_STOP.length);
+			followers.add(link);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onFollowerChanged(link.getName(), "connected");
+				}
+			});
+		}
+
+		@Override
+		public void onMessage(ConnectionEngine.Link link, LineFramer.Line line) {
+			// followers are only driven; their telemetry is counted, not parsed
+		}
+
+		@Override
+		public void onDisconnected(final ConnectionEngine.Link link, final String reason) {
+			followers.remove(link);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onFollowerChanged(link.getName(), reason);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Receives connection events and telemetry on the connection thread and hands them to the
+	 * main thread. Holds no activity, so it can outlive one.
+	 */
+	private class BluetoothConnectionEventRouter implements BluetoothConnectionManager.Listener, TelemetryParser.Subscriber {
+		private final TelemetryParser telemetry = new TelemetryParser();
+
+		// battery reports are coalesced: only the newest level is shown, with at most one post outstanding
+		private volatile long latestBatteryLevel = 0;
+		private final AtomicBoolean batteryUpdatePending = new AtomicBoolean(false);
+		private final Runnable batteryUpdate = new Runnable() {
+			@Override
+			public void run() {
+				batteryUpdatePending.set(false);
+				onBluetoothBattery(latestBatteryLevel);
+			}
+		};
+
+		BluetoothConnectionEventRouter() {
+			telemetry.subscribe(this);
+		}
+
+		@Override
+		public void onConnected(final BluetoothConnectionManager bluetoothConnectionManager) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onBluetoothConnectionConnected(bluetoothConnectionManager);
+				}
+			});
+		}
+
+		@Override
+		public void onDisconnected(final String exitReason) {
+			Log.i(LOGTAG, "telemetry: " + telemetry.getLineCount() + " lines, " + telemetry.getMalformedCount() + " malformed");
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onBluetoothConnectionDisconnected(exitReason);
+				}
+			});
+		}
+
+		@Override
+		public void onMessage(LineFramer.Line line) {
+			if (!telemetry.parse(line) && LOG_UNPARSED) {
+				Log.d(LOGTAG, "unparsed line: " + line);
+			}
+		}
+
+		@Override
+		public void onTelemetry(TelemetryParser.Record record) {
+			switch (record.getKey()) {
+			case Pong:
+				LinkProber prober = linkProber;
+				if (prober != null && record.isNumeric()) {
+					prober.onPong((int) record.getNumber(), System.nanoTime());
+					watchdog.expectTelemetry(); // the firmware answers pings, so it should never go quiet
+				}
+				break;
+
+			case Battery:
+				if (record.isNumeric()) {
+					latestBatteryLevel = record.getNumber();
+					if (batteryUpdatePending.compareAndSet(false, true)) {
+						handler.post(batteryUpdate);
+					}
+				}
+				break;
+
+			case Protocol:
+				if (record.isNumeric() && record.getNumber() == 2) {
+					handler.post(new Runnable() {
+						@Override
+						public void run() {
+							onBluetoothProtocolUpgraded();
+						}
+					});
+				}
+				break;
+
+			case Version:
+				final String version = record.getValue();
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						onBluetoothVersion(version);
+					}
+				});
+
+				// further escaped extensions command bytes are safe
+
+				BluetoothConnectionManager conn = btConn;
+				if (conn != null) {
+					if (!conn.postExtension(ExtensionCommand.BATTERY)) {
+						Log.w(LOGTAG, "batt-query not queued");
+					}
+
+					if (!conn.postExtension(ExtensionCommand.UPGRADE)) { // upgrade!
+						Log.w(LOGTAG, "proto-switch not queued");
+					}
+				}
+				break;
+
+			case Capabilities:
+				if (record.hasItem(CAPABILITY_PING)) {
+					handler.post(new Runnable() {
+						@Override
+						public void run() {
+							onBluetoothPingAvailable();
+						}
+					});
+				}
+				break;
+
+			default:
+				if (record.isChanged()) {
+					Log.i(LOGTAG, "telemetry " + record);
+				}
+				break;
+			}
+		}
+	}
+}